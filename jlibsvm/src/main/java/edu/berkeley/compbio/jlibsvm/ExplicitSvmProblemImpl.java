@@ -7,8 +7,10 @@ import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -24,6 +26,12 @@ public abstract class ExplicitSvmProblemImpl<L extends Comparable, R extends Svm
 
   public ScalingModel scalingModel = new NoopScalingModel();
 
+  /**
+   * If set, the seed of the shuffle that deals the examples into folds or a subsample.  Every shuffle starts from it
+   * afresh, so each cross-validation of this problem uses the same folds, as comparing grid search modes requires.
+   */
+  public Long shuffleSeed = null;
+
   /**
    * the unique set of targetvalues, in a defined order avoid populating for regression!  OK, regression should never
    * call getLabels(), then.
@@ -33,22 +41,48 @@ public abstract class ExplicitSvmProblemImpl<L extends Comparable, R extends Svm
 // --------------------------- CONSTRUCTORS ---------------------------
 
   protected ExplicitSvmProblemImpl(Map<SparseVector, L> examples) {
-    this.examples = examples;
+    this.examples = withPreferredStorage(examples);
   }
 
   protected ExplicitSvmProblemImpl(Map<SparseVector, L> examples,
        ScalingModel scalingModel) {
-    this.examples = examples;
+    this.examples = withPreferredStorage(examples);
     this.scalingModel = scalingModel;
   }
 
   protected ExplicitSvmProblemImpl(Map<SparseVector, L> examples,
        ScalingModel scalingModel, Set<SparseVector> heldOutPoints) {
-    this.examples = examples;
+    this.examples = withPreferredStorage(examples);
     this.scalingModel = scalingModel;
     this.heldOutPoints = heldOutPoints;
   }
 
+  /**
+   * Store each example densely or sparsely according to its density (see SparseVector.withPreferredStorage()).  The
+   * given map is returned as is if nothing needs converting, as is always the case for the folds of a problem that was
+   * already converted; otherwise a new map is built in the same iteration order.  Since equality does not depend on the
+   * representation, the converted examples can still be looked up by the original vectors.
+   */
+  private static <L> Map<SparseVector, L> withPreferredStorage(Map<SparseVector, L> examples) {
+    boolean changed = false;
+    for (SparseVector point : examples.keySet()) {
+      if (point.withPreferredStorage() != point) {
+        changed = true;
+        break;
+      }
+    }
+
+    if (!changed) {
+      return examples;
+    }
+
+    Map<SparseVector, L> result = new LinkedHashMap<>(examples.size());
+    for (Map.Entry<SparseVector, L> entry : examples.entrySet()) {
+      result.put(entry.getKey().withPreferredStorage(), entry.getValue());
+    }
+    return result;
+  }
+
 // --------------------- GETTER / SETTER METHODS ---------------------
 
 
@@ -81,7 +115,7 @@ public abstract class ExplicitSvmProblemImpl<L extends Comparable, R extends Svm
 
     List<SparseVector> points = new ArrayList<>(getExamples().keySet());
 
-    Collections.shuffle(points);
+    shuffle(points);
 
     // PERF this is maybe overwrought, but ensures the best possible balance among folds (unlike examples.size() / numberOfFolds)
 
@@ -102,6 +136,15 @@ public abstract class ExplicitSvmProblemImpl<L extends Comparable, R extends Svm
         .map(this::makeFold);
   }
 
+  public R subsample(int numberOfExamples) {
+    List<SparseVector> points = new ArrayList<>(getExamples().keySet());
+
+    shuffle(points);
+
+    // the subsample is just a fold holding out all the other points
+    return makeFold(new HashSet<>(points.subList(numberOfExamples, points.size())));
+  }
+
 // --------------------- Interface SvmProblem ---------------------
 
   public L getTargetValue(SparseVector point) {
@@ -123,5 +166,13 @@ public abstract class ExplicitSvmProblemImpl<L extends Comparable, R extends Svm
   }
 
 
+  protected void shuffle(List<SparseVector> points) {
+    if (shuffleSeed == null) {
+      Collections.shuffle(points);
+    } else {
+      Collections.shuffle(points, new Random(shuffleSeed));
+    }
+  }
+
   protected abstract R makeFold(Set<SparseVector> heldOutPoints);
 }
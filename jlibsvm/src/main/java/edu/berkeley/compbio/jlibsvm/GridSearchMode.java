@@ -0,0 +1,29 @@
+package edu.berkeley.compbio.jlibsvm;
+
+/**
+ * How the points of an ImmutableSvmParameterGrid are cross-validated to choose the best one.
+ *
+ * @version $Id$
+ */
+public enum GridSearchMode {
+  /**
+   * Each grid point is cross-validated on its own, from scratch, on folds of its own.
+   */
+  INDEPENDENT,
+
+  /**
+   * The grid points are grouped by kernel, and within each group C is walked in increasing order on one set of folds,
+   * each fit starting from the solution of the previous C on the same fold (see WarmStart).  The scores are those of
+   * the independent fits up to the solver's tolerance, for a fraction of the iterations.
+   */
+  C_PATH,
+
+  /**
+   * All the grid points are first cross-validated cheaply, on a random subsample of the examples and with a looser eps;
+   * only the best 1/successiveHalvingRate of them go on to the next round, which has successiveHalvingRate times the
+   * examples, until the last round runs the survivors on all the data at the grid's eps.  Only the scores of the last
+   * round choose the final point.  With refineGridAroundBest, the C values halfway (in log space) between the best C and
+   * its neighbours in the grid are then tried as well.
+   */
+  SUCCESSIVE_HALVING
+}
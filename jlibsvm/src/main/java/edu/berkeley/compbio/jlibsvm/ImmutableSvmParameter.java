@@ -1,10 +1,16 @@
 package edu.berkeley.compbio.jlibsvm;
 
 import edu.berkeley.compbio.jlibsvm.multi.MultiClassModel;
+import edu.berkeley.compbio.jlibsvm.qmatrix.KernelCacheMode;
+import edu.berkeley.compbio.jlibsvm.qmatrix.KernelCachePolicy;
+import edu.berkeley.compbio.jlibsvm.qmatrix.KernelQMatrix;
+import edu.berkeley.compbio.jlibsvm.qmatrix.SharedKernelStore;
 import edu.berkeley.compbio.jlibsvm.scaler.ScalingModelLearner;
+import java.io.File;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * I do not like it
@@ -17,6 +23,67 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
   // these are for training only
   public final double cache_size;// in MB
+  public final KernelCacheMode kernelCacheMode;
+
+  /**
+   * Which row to evict from the row caches (LRU, LFU, KEEP_FREE and TIERED); null for the one the kernelCacheMode
+   * implies.  Ignored by the square modes, which never evict.
+   */
+  public final KernelCachePolicy kernelCachePolicy;
+
+  /**
+   * Cache Q as floats, as LIBSVM does, fitting twice as many values in the same cache_size.  The solver still works in
+   * double precision.
+   */
+  public final boolean singlePrecisionKernelCache;
+
+  /**
+   * For the TIERED kernel cache: where to spill kernel rows (null for the default temporary directory), and how much
+   * disk they may take, in MB
+   */
+  public final File kernelSpillDirectory;
+  public final double kernelSpillSize;
+
+  /**
+   * Compute the missing kernel values of a row in parallel on kernelPool (null for the common pool) once there are at
+   * least parallelKernelThreshold of them; Integer.MAX_VALUE keeps them on the solver thread.  The kernel must then be
+   * thread-safe, as the bundled ones are.  The pool isn't serialized.
+   */
+  public final transient ForkJoinPool kernelPool;
+  public final int parallelKernelThreshold;
+
+  /**
+   * How many of the likeliest next working set candidates to compute the Q rows of in the background on kernelPool, while
+   * the solver works on the current pair; 0 to not prefetch.  This only pays when there are idle cores.  The finished
+   * rows are held outside cache_size: 8 rows of all the examples per prefetched row.
+   */
+  public final int kernelPrefetchRows;
+
+  /**
+   * Split the scans of the active set that the solver makes every iteration across kernelPool once there are at least
+   * this many active SVs; Integer.MAX_VALUE, the default, keeps them on the solver thread.  The models are the same
+   * either way.  This only pays on problems of some 100k examples and more, where the scans take longer than handing
+   * them out.
+   */
+  public final int parallelScanThreshold;
+
+  /**
+   * Where to start the optimization instead of from zero, for the machines that support it (see WarmStart); null to
+   * start from zero.  Not serialized.
+   */
+  public final transient WarmStart warmStart;
+
+  /**
+   * Kernel rows to share with other trainings on the same points (see SharedKernelStore); null to compute them all here.
+   * Not serialized.
+   */
+  public final transient SharedKernelStore sharedKernelStore;
+
+  /**
+   * How much memory, in MB, a grid search may give the SharedKernelStore it makes for its grid points and folds when no
+   * sharedKernelStore is given; 0 to not share kernel values between them
+   */
+  public final double sharedKernelStoreSize;
   public final double eps;// stopping criteria
   public final int maxIterations;
   public final double nu;// for NU_SVC, ONE_CLASS, and NU_SVR
@@ -39,6 +106,19 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
   public final boolean scaleBinaryMachinesIndependently;
   public final boolean gridsearchBinaryMachinesIndependently;
+
+  /**
+   * How to cross-validate the points of a grid
+   */
+  public final GridSearchMode gridSearchMode;
+
+  /**
+   * For GridSearchMode.SUCCESSIVE_HALVING: the factor by which each round cuts the grid points and grows the examples,
+   * and whether to try the C values around the best one at the end
+   */
+  public final int successiveHalvingRate;
+  public final boolean refineGridAroundBest;
+
   public final boolean normalizeL2;
 
   public final int crossValidationFolds;
@@ -53,6 +133,18 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
   protected ImmutableSvmParameter(Builder<L> copyFrom) {
     cache_size = copyFrom.cache_size;
+    kernelCacheMode = copyFrom.kernelCacheMode;
+    singlePrecisionKernelCache = copyFrom.singlePrecisionKernelCache;
+    kernelSpillDirectory = copyFrom.kernelSpillDirectory;
+    kernelSpillSize = copyFrom.kernelSpillSize;
+    kernelPool = copyFrom.kernelPool;
+    parallelKernelThreshold = copyFrom.parallelKernelThreshold;
+    kernelPrefetchRows = copyFrom.kernelPrefetchRows;
+    parallelScanThreshold = copyFrom.parallelScanThreshold;
+    warmStart = copyFrom.warmStart;
+    sharedKernelStore = copyFrom.sharedKernelStore;
+    sharedKernelStoreSize = copyFrom.sharedKernelStoreSize;
+    kernelCachePolicy = copyFrom.kernelCachePolicy;
     eps = copyFrom.eps;
     weights = new LinkedHashMap<>(copyFrom.weights);
     maxIterations = copyFrom.maxIterations;
@@ -69,6 +161,9 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
     normalizeL2 = copyFrom.normalizeL2;
     redistributeUnbalancedC = copyFrom.redistributeUnbalancedC;
     gridsearchBinaryMachinesIndependently = copyFrom.gridSearchBinaryMachinesIndependently;
+    gridSearchMode = copyFrom.gridSearchMode;
+    successiveHalvingRate = copyFrom.successiveHalvingRate;
+    refineGridAroundBest = copyFrom.refineGridAroundBest;
 
     scalingModelLearner = copyFrom.scalingModelLearner;
     crossValidationFolds = copyFrom.crossValidationFolds;
@@ -76,6 +171,32 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
 // -------------------------- OTHER METHODS --------------------------
 
+  /**
+   * The kernel cache budget in bytes, from cache_size in MB
+   */
+  public long getCacheBytes() {
+    return (long) (cache_size * 1024 * 1024);
+  }
+
+  /**
+   * The disk budget of the TIERED kernel cache in bytes, from kernelSpillSize in MB
+   */
+  public long getKernelSpillBytes() {
+    return (long) (kernelSpillSize * 1024 * 1024);
+  }
+
+  /**
+   * The budget of the SharedKernelStore of a grid search in bytes, from sharedKernelStoreSize in MB
+   */
+  public long getSharedKernelStoreBytes() {
+    return (long) (sharedKernelStoreSize * 1024 * 1024);
+  }
+
+  /**
+   * @deprecated the kernel caches take a byte budget now (see getCacheBytes()).  Note this assumed 4-byte entries, while
+   * the square cache actually stores 8-byte doubles.
+   */
+  @Deprecated
   public int getCacheRows() {
     // assume the O(n) term is in the noise
     double mb = cache_size;
@@ -106,6 +227,67 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
     // these are for training only
     public double cache_size;// in MB
+    public KernelCacheMode kernelCacheMode = KernelCacheMode.SQUARE;
+
+    /**
+     * Which row to evict from the row caches (LRU, LFU, KEEP_FREE and TIERED); null for the one the kernelCacheMode
+     * implies.  Ignored by the square modes, which never evict.
+     */
+    public KernelCachePolicy kernelCachePolicy;
+
+    /**
+     * Cache Q as floats, as LIBSVM does, fitting twice as many values in the same cache_size.  The solver still works
+     * in double precision.
+     */
+    public boolean singlePrecisionKernelCache = false;
+
+    /**
+     * For the TIERED kernel cache: where to spill kernel rows (null for the default temporary directory), and how much
+     * disk they may take, in MB
+     */
+    public File kernelSpillDirectory;
+    public double kernelSpillSize = 1024;
+
+    /**
+     * Compute the missing kernel values of a row in parallel on kernelPool (null for the common pool) once there are at
+     * least parallelKernelThreshold of them; Integer.MAX_VALUE keeps them on the solver thread.  The kernel must then be
+     * thread-safe, as the bundled ones are.
+     */
+    public ForkJoinPool kernelPool;
+    public int parallelKernelThreshold = KernelQMatrix.DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * How many of the likeliest next working set candidates to compute the Q rows of in the background on kernelPool,
+     * while the solver works on the current pair; 0 to not prefetch.  This only pays when there are idle cores.  The
+     * finished rows are held outside cache_size: 8 rows of all the examples per prefetched row.
+     */
+    public int kernelPrefetchRows = 0;
+
+    /**
+     * Split the scans of the active set that the solver makes every iteration across kernelPool once there are at
+     * least this many active SVs; Integer.MAX_VALUE, the default, keeps them on the solver thread.  The models are the
+     * same either way.  This only pays on problems of some 100k examples and more, where the scans take longer than
+     * handing them out.
+     */
+    public int parallelScanThreshold = Integer.MAX_VALUE;
+
+    /**
+     * Where to start the optimization instead of from zero, for the machines that support it (see WarmStart); null to
+     * start from zero.
+     */
+    public WarmStart warmStart;
+
+    /**
+     * Kernel rows to share with other trainings on the same points (see SharedKernelStore); null to compute them all
+     * here.
+     */
+    public SharedKernelStore sharedKernelStore;
+
+    /**
+     * How much memory, in MB, a grid search may give the SharedKernelStore it makes for its grid points and folds when
+     * no sharedKernelStore is given; 0 to not share kernel values between them
+     */
+    public double sharedKernelStoreSize = 0;
     public double eps;// stopping criteria
     public int maxIterations = 50000; // cap the iterations to shrink runtime
     public double nu;// for NU_SVC, ONE_CLASS, and NU_SVR
@@ -128,6 +310,19 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
     public boolean scaleBinaryMachinesIndependently = false;
     public boolean gridSearchBinaryMachinesIndependently = false;
+
+    /**
+     * How to cross-validate the points of a grid
+     */
+    public GridSearchMode gridSearchMode = GridSearchMode.INDEPENDENT;
+
+    /**
+     * For GridSearchMode.SUCCESSIVE_HALVING: the factor by which each round cuts the grid points and grows the
+     * examples, and whether to try the C values around the best one at the end
+     */
+    public int successiveHalvingRate = 3;
+    public boolean refineGridAroundBest = false;
+
     public boolean normalizeL2 = false;
 
     /**
@@ -152,6 +347,18 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
 
     protected Builder(ImmutableSvmParameter<L> copyFrom) {
       cache_size = copyFrom.cache_size;
+      kernelCacheMode = copyFrom.kernelCacheMode;
+      singlePrecisionKernelCache = copyFrom.singlePrecisionKernelCache;
+      kernelSpillDirectory = copyFrom.kernelSpillDirectory;
+      kernelSpillSize = copyFrom.kernelSpillSize;
+      kernelPool = copyFrom.kernelPool;
+      parallelKernelThreshold = copyFrom.parallelKernelThreshold;
+      kernelPrefetchRows = copyFrom.kernelPrefetchRows;
+      parallelScanThreshold = copyFrom.parallelScanThreshold;
+      warmStart = copyFrom.warmStart;
+      sharedKernelStore = copyFrom.sharedKernelStore;
+      sharedKernelStoreSize = copyFrom.sharedKernelStoreSize;
+      kernelCachePolicy = copyFrom.kernelCachePolicy;
       eps = copyFrom.eps;
       weights = new LinkedHashMap<>(copyFrom.weights);
       nu = copyFrom.nu;
@@ -168,12 +375,27 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
       normalizeL2 = copyFrom.normalizeL2;
       redistributeUnbalancedC = copyFrom.redistributeUnbalancedC;
       gridSearchBinaryMachinesIndependently = copyFrom.gridsearchBinaryMachinesIndependently;
+      gridSearchMode = copyFrom.gridSearchMode;
+      successiveHalvingRate = copyFrom.successiveHalvingRate;
+      refineGridAroundBest = copyFrom.refineGridAroundBest;
       crossValidationFolds = copyFrom.crossValidationFolds;
       scalingModelLearner = copyFrom.scalingModelLearner;
     }
 
     protected Builder(Builder<L> copyFrom) {
       cache_size = copyFrom.cache_size;
+      kernelCacheMode = copyFrom.kernelCacheMode;
+      singlePrecisionKernelCache = copyFrom.singlePrecisionKernelCache;
+      kernelSpillDirectory = copyFrom.kernelSpillDirectory;
+      kernelSpillSize = copyFrom.kernelSpillSize;
+      kernelPool = copyFrom.kernelPool;
+      parallelKernelThreshold = copyFrom.parallelKernelThreshold;
+      kernelPrefetchRows = copyFrom.kernelPrefetchRows;
+      parallelScanThreshold = copyFrom.parallelScanThreshold;
+      warmStart = copyFrom.warmStart;
+      sharedKernelStore = copyFrom.sharedKernelStore;
+      sharedKernelStoreSize = copyFrom.sharedKernelStoreSize;
+      kernelCachePolicy = copyFrom.kernelCachePolicy;
       eps = copyFrom.eps;
       weights = new LinkedHashMap<>(copyFrom.weights);
       nu = copyFrom.nu;
@@ -190,6 +412,9 @@ public abstract class ImmutableSvmParameter<L extends Comparable> implements Ser
       normalizeL2 = copyFrom.normalizeL2;
       redistributeUnbalancedC = copyFrom.redistributeUnbalancedC;
       gridSearchBinaryMachinesIndependently = copyFrom.gridSearchBinaryMachinesIndependently;
+      gridSearchMode = copyFrom.gridSearchMode;
+      successiveHalvingRate = copyFrom.successiveHalvingRate;
+      refineGridAroundBest = copyFrom.refineGridAroundBest;
       crossValidationFolds = copyFrom.crossValidationFolds;
       scalingModelLearner = copyFrom.scalingModelLearner;
     }
@@ -67,6 +67,10 @@ public class ImmutableSvmParameterGrid<L extends Comparable> extends
         throw new SvmException("Can't build a grid with no kernels");
       }
 
+      if (gridSearchMode == GridSearchMode.SUCCESSIVE_HALVING && successiveHalvingRate < 2) {
+        throw new SvmException("successiveHalvingRate < 2");
+      }
+
       if (Cset.size() == 1 && kernelSet.size() == 1) {
         builder.C = Cset.iterator().next();
         builder.kernel = kernelSet.iterator().next();
@@ -3,13 +3,25 @@ package edu.berkeley.compbio.jlibsvm;
 import static com.google.common.base.Preconditions.checkState;
 
 import edu.berkeley.compbio.jlibsvm.crossvalidation.CrossValidationResults;
+import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
+import edu.berkeley.compbio.jlibsvm.qmatrix.SharedKernelStore;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -18,6 +30,13 @@ import java.util.stream.Stream;
  */
 public abstract class SVM<L extends Comparable, R extends SvmProblem<L, R>> implements
     Serializable {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * For successive halving: the loosest eps an early round may use, and the fewest examples per fold it may train on
+   */
+  private static final double ROUGH_EPS = 0.1;
+  private static final int MIN_EXAMPLES_PER_FOLD = 20;
 
 // -------------------------- OTHER METHODS --------------------------
 
@@ -94,6 +113,196 @@ public abstract class SVM<L extends Comparable, R extends SvmProblem<L, R>> impl
     return result;
   }
 
+  /**
+   * Cross-validate the points of a grid along the C path of each kernel (see GridSearchMode.C_PATH).  The folds are made
+   * once; on each fold, the points of each kernel are trained in order of increasing C, each starting from the model of
+   * the previous one.
+   *
+   * @param withoutProbability train the folds without the probability sigmoid, as the binary cross-validation does
+   * @param predictor          what to record of a fold model for a held-out point
+   * @return the predictions for the held-out points, by grid point
+   */
+  protected <P> Map<ImmutableSvmParameterPoint<L>, Map<SparseVector, P>> crossValidateAlongCPaths(
+      SvmProblem<L, R> problem, ImmutableSvmParameterGrid<L> grid, boolean withoutProbability,
+      BiFunction<SolutionModel<L>, SparseVector, P> predictor) {
+    if (grid.crossValidationFolds >= problem.getNumExamples()) {
+      throw new SvmException("Can't have more cross-validation folds than there are examples");
+    }
+
+    final List<R> folds = problem.makeFolds(grid.crossValidationFolds).collect(Collectors.toList());
+    final SharedKernelStore store = sharedKernelStoreFor(problem, grid);
+
+    final Map<KernelFunction, List<ImmutableSvmParameterPoint<L>>> paths = new HashMap<>();
+    final Map<ImmutableSvmParameterPoint<L>, Map<SparseVector, P>> predictions = new HashMap<>();
+    for (ImmutableSvmParameterPoint<L> point : grid.getGridParams()) {
+      paths.computeIfAbsent(point.kernel, kernel -> new ArrayList<>()).add(point);
+      // the predictions may be null, which ConcurrentHashMap doesn't allow
+      predictions.put(point, Collections.synchronizedMap(new HashMap<>()));
+    }
+    for (List<ImmutableSvmParameterPoint<L>> path : paths.values()) {
+      path.sort(Comparator.comparingDouble(point -> point.C));
+    }
+
+    paths
+        .values()
+        .parallelStream()
+        .forEach(path -> folds
+            .parallelStream()
+            .forEach(fold -> {
+              WarmStart warmStart = path.get(0).warmStart;
+              for (ImmutableSvmParameterPoint<L> point : path) {
+                final ImmutableSvmParameter.Builder<L> builder =
+                    (withoutProbability ? point.noProbabilityCopy() : point).asBuilder();
+                builder.warmStart = warmStart;
+                builder.sharedKernelStore = store;
+                final SolutionModel<L> model = train(fold, builder.build());
+
+                final Map<SparseVector, P> pointPredictions = predictions.get(point);
+                for (final SparseVector p : fold.getHeldOutPoints()) {
+                  pointPredictions.put(p, predictor.apply(model, p));
+                }
+                warmStart = WarmStart.of(model);
+              }
+            }));
+
+    if (store != null) {
+      Logger.getGlobal().info(store.toString());
+    }
+    return predictions;
+  }
+
+  /**
+   * @return the order in which to prefer grid points that scored exactly alike: the smaller C first, being the
+   * smoother model, and then the kernel whose name sorts first.  The points of a grid are scored in parallel, so
+   * without this the choice between equally good points would depend on which finished first.
+   */
+  protected Comparator<ImmutableSvmParameterPoint<L>> tieOrder() {
+    return Comparator.<ImmutableSvmParameterPoint<L>>comparingDouble(point -> point.C)
+        .thenComparing(point -> point.kernel.toString());
+  }
+
+  /**
+   * @return whether a grid point that scored exactly as well as the best one so far should replace it
+   */
+  protected boolean winsTie(ImmutableSvmParameterPoint<L> candidate, ImmutableSvmParameterPoint<L> best) {
+    return tieOrder().compare(candidate, best) < 0;
+  }
+
+  /**
+   * @return the store through which the grid points and folds of a grid search share their kernel values: the grid's
+   * own sharedKernelStore, or else a new one over the examples of the problem if the grid has a sharedKernelStoreSize,
+   * or else null
+   */
+  protected SharedKernelStore sharedKernelStoreFor(SvmProblem<L, R> problem, ImmutableSvmParameterGrid<L> grid) {
+    if (grid.sharedKernelStore != null) {
+      return grid.sharedKernelStore;
+    }
+    if (grid.sharedKernelStoreSize <= 0) {
+      return null;
+    }
+    return new SharedKernelStore(problem.getExamples().keySet(), grid.getSharedKernelStoreBytes());
+  }
+
+  /**
+   * @return the given grid point, sharing its kernel values through the given store (if not null).  The grid searches
+   * keep the original point for the final training and the results, so that the models don't hold on to the store.
+   */
+  protected ImmutableSvmParameterPoint<L> withSharedKernelStore(ImmutableSvmParameterPoint<L> point,
+      SharedKernelStore store) {
+    if (store == null || point.sharedKernelStore == store) {
+      return point;
+    }
+    final ImmutableSvmParameterPoint.Builder<L> builder = point.asBuilder();
+    builder.sharedKernelStore = store;
+    return builder.build();
+  }
+
+  /**
+   * Search a grid by successive halving (see GridSearchMode.SUCCESSIVE_HALVING).  Each round but the last
+   * cross-validates the remaining grid points on a subsample of the problem, with eps loosened by the same factor as
+   * the examples are cut (up to ROUGH_EPS), and keeps the best 1/successiveHalvingRate of them, breaking ties by
+   * tieOrder().  The last round has as many points as the rounds can cut the grid down to, and uses all the data and
+   * the grid's eps.  A problem that can't be subsampled (see SvmProblem.subsample()) has every round on all the data,
+   * still with the looser eps.
+   *
+   * @param crossValidate the cross-validation of a grid point on a problem
+   * @param score         how good the results of a cross-validation are; higher is better
+   * @param finalResults  receives the grid points of the last round, and the refined ones, with their results
+   */
+  protected <V> void searchBySuccessiveHalving(R problem, ImmutableSvmParameterGrid<L> grid,
+      BiFunction<R, ImmutableSvmParameterPoint<L>, V> crossValidate, ToDoubleFunction<V> score,
+      BiConsumer<ImmutableSvmParameterPoint<L>, V> finalResults) {
+    final int rate = grid.successiveHalvingRate;
+    final SharedKernelStore store = sharedKernelStoreFor(problem, grid);
+
+    List<ImmutableSvmParameterPoint<L>> candidates = new ArrayList<>(grid.getGridParams());
+    final int rounds = (int) Math.floor(Math.log(candidates.size()) / Math.log(rate) + 1e-9);
+
+    // the smallest subsample worth cross-validating
+    final int minExamples = Math.min(problem.getNumExamples(), MIN_EXAMPLES_PER_FOLD * grid.crossValidationFolds);
+
+    for (int round = 0; round < rounds; round++) {
+      final double cut = Math.pow(rate, rounds - round);
+      final int examples = Math.max(minExamples, (int) (problem.getNumExamples() / cut));
+      final R smaller = examples < problem.getNumExamples() ? problem.subsample(examples) : null;
+      final R subsample = smaller == null ? problem : smaller;
+      final double eps = Math.max(grid.eps, Math.min(grid.eps * cut, ROUGH_EPS));
+
+      final Map<ImmutableSvmParameterPoint<L>, Double> scores = new ConcurrentHashMap<>();
+      candidates.parallelStream().forEach(point -> {
+        final ImmutableSvmParameterPoint.Builder<L> builder = withSharedKernelStore(point, store).asBuilder();
+        builder.eps = eps;
+        final double pointScore = score.applyAsDouble(crossValidate.apply(subsample, builder.build()));
+        // NaN (e.g. a class missing from the subsample) ranks last
+        scores.put(point, Double.isNaN(pointScore) ? Double.NEGATIVE_INFINITY : pointScore);
+      });
+
+      candidates.sort(Comparator.<ImmutableSvmParameterPoint<L>>comparingDouble(point -> -scores.get(point))
+          .thenComparing(tieOrder()));
+      candidates = new ArrayList<>(candidates.subList(0, (candidates.size() + rate - 1) / rate));
+      Logger.getGlobal().info("Successive halving round " + round + " on " + subsample.getNumExamples()
+          + " examples kept " + candidates);
+    }
+
+    final Map<ImmutableSvmParameterPoint<L>, Double> scores = new ConcurrentHashMap<>();
+    candidates.parallelStream().forEach(point -> {
+      final V results = crossValidate.apply(problem, withSharedKernelStore(point, store));
+      final double pointScore = score.applyAsDouble(results);
+      scores.put(point, Double.isNaN(pointScore) ? Double.NEGATIVE_INFINITY : pointScore);
+      finalResults.accept(point, results);
+    });
+
+    if (grid.refineGridAroundBest) {
+      final ImmutableSvmParameterPoint<L> best = Collections.min(candidates,
+          Comparator.<ImmutableSvmParameterPoint<L>>comparingDouble(point -> -scores.get(point))
+              .thenComparing(tieOrder()));
+      refineAround(best, grid).parallelStream().forEach(point -> finalResults
+          .accept(point, crossValidate.apply(problem, withSharedKernelStore(point, store))));
+    }
+  }
+
+  /**
+   * @return the grid point between the given one and each of its neighbouring C values in the grid, halfway in log
+   * space, with the same kernel.  Only C is refined, since the kernels are opaque.
+   */
+  protected List<ImmutableSvmParameterPoint<L>> refineAround(ImmutableSvmParameterPoint<L> best,
+      ImmutableSvmParameterGrid<L> grid) {
+    final TreeSet<Double> cs = new TreeSet<>();
+    for (ImmutableSvmParameterPoint<L> point : grid.getGridParams()) {
+      cs.add(point.C);
+    }
+
+    final List<ImmutableSvmParameterPoint<L>> result = new ArrayList<>();
+    for (Double neighbour : new Double[]{cs.lower(best.C), cs.higher(best.C)}) {
+      if (neighbour != null) {
+        final ImmutableSvmParameterPoint.Builder<L> builder = best.asBuilder();
+        builder.C = Math.sqrt(best.C * neighbour);
+        result.add(builder.build());
+      }
+    }
+    return result;
+  }
+
   public abstract String getSvmType();
 
 
@@ -15,6 +15,12 @@ public class SolutionVector implements Comparable<SolutionVector>, Serializable
    */
   public int rank = -1;
 
+  /**
+   * The position of this vector in the training set, assigned once by QMatrix.initRanks().  Unlike the rank, it does not
+   * change when the cache rearranges the active set.
+   */
+  public int slot = -1;
+
   /**
    * keep track of the sample id for mapping to ranks
    */
@@ -76,7 +82,7 @@ public class SolutionVector implements Comparable<SolutionVector>, Serializable
 
 // -------------------------- OTHER METHODS --------------------------
 
-  boolean isFree() {
+  public boolean isFree() {
     return alphaStatus == Status.FREE;
   }
 
@@ -2,12 +2,12 @@ package edu.berkeley.compbio.jlibsvm;
 
 import edu.berkeley.compbio.jlibsvm.binary.AlphaModel;
 import edu.berkeley.compbio.jlibsvm.qmatrix.QMatrix;
+import edu.berkeley.compbio.jlibsvm.qmatrix.KernelCacheStatistics;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
 
@@ -44,12 +44,101 @@ public abstract class Solver<L extends Comparable> implements Serializable {
   boolean shrinking;
 
   protected final List<SolutionVector> allExamples;
-  protected SolutionVector[] active;
-  protected SolutionVector[] inactive;
+
+  /**
+   * How many of the SVs are active; they are byRank[0, activeCount), and the inactive ones are the rest of byRank
+   */
+  protected int activeCount;
+
   protected final double Cp, Cn;
   protected final int numExamples;
   private int maxIterations;
 
+  /**
+   * The state of the optimization by rank, as parallel arrays, so that the loops over the active set stream through
+   * them instead of visiting a SolutionVector per example.  The active SVs always hold the ranks [0, activeCount), in
+   * order; when the cache swaps ranks, maintainCache() moves the state along.
+   * <p/>
+   * The SolutionVectors are a view of this state: their alpha and status are kept up to date as they change, since the
+   * cache eviction policies may look at them, and the rest is written back when optimize() is done.
+   */
+  protected SolutionVector[] byRank;
+  double[] alpha;
+  double[] G;
+  double[] G_bar;
+  double[] linearTerm;
+  double[] QD;
+  byte[] alphaStatus;
+  boolean[] y;
+
+  static final byte LOWER_BOUND = 0;
+  static final byte UPPER_BOUND = 1;
+  static final byte FREE = 2;
+
+  private static final SolutionVector.Status[] STATUSES = SolutionVector.Status.values();
+
+  /**
+   * The rank each SV had before the last maintainCache(), by its new rank, and space to move the state through; the
+   * SVs are moved into rankScratch, which then trades places with byRank
+   */
+  private int[] previousRanks;
+  private SolutionVector[] rankScratch;
+  private double[] doubleScratch;
+  private byte[] byteScratch;
+  private boolean[] booleanScratch;
+
+  /**
+   * Where shrinking partitions the active SVs into those that stay and those that go, in rank order
+   */
+  private SolutionVector[] keptBuffer;
+  private SolutionVector[] shrunkBuffer;
+
+  /**
+   * The bounds on the gradient that SVs must exceed to be shrunk, found by the last do_shrinking()
+   */
+  private double shrinkGmax1;
+  private double shrinkGmax2;
+
+  /**
+   * The working pair returned by selectWorkingPair(), reused from one iteration to the next
+   */
+  private transient SolutionVectorPair workingPair;
+
+  /**
+   * The best candidates for the first SV of the working pair found by the last selectWorkingPair(), by decreasing score,
+   * for the QMatrix to prefetch the rows of (see QMatrix.prefetch()).  Empty if the QMatrix doesn't prefetch.
+   */
+  private SolutionVector[] prefetchCandidates = EMPTY_SV_ARRAY;
+  private double[] prefetchScores;
+  private int numPrefetchCandidates;
+
+  /**
+   * Where to split the scans of the active set made every iteration (null to keep them on the solver thread), and how
+   * large the active set must be for that; see setParallelScans()
+   */
+  private transient ForkJoinPool scanPool;
+  private int scanThreshold = Integer.MAX_VALUE;
+
+  /**
+   * The partial results of the chunks of a scan, one per chunk
+   */
+  private transient ScanResult[] scanResults = {new ScanResult()};
+
+  /**
+   * The scans made by every iteration, made once rather than as capturing lambdas so that the iterations don't
+   * allocate, and what they need to know about the iteration
+   */
+  private transient ActiveScan gradientUpdate = this::updateGradient;
+  private transient ActiveScan firstSelection = this::selectFirst;
+  private transient ActiveScan secondSelection = this::selectSecond;
+  private transient ActiveScan shrinkingBounds = this::findShrinkingBounds;
+
+  private double deltaAlphaI;
+  private double deltaAlphaJ;
+  private double selectedG;
+  private double selectedQD;
+  private double selectedY;
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
   public Solver(
@@ -80,12 +169,30 @@ public abstract class Solver<L extends Comparable> implements Serializable {
 
 // -------------------------- OTHER METHODS --------------------------
 
+  /**
+   * Split the scans of the active set that every iteration makes (the working set selection, the gradient update and
+   * the shrinking) into chunks on the given pool, once the active set has at least threshold SVs.  The chunks are
+   * reduced in order, with the same tie-breaking as the serial loops, so the results are exactly the same.  Prefetching
+   * keeps the scans on the solver thread, since the prefetch candidates are collected as they go.
+   *
+   * @param pool where to run the chunks, or null for the common pool
+   */
+  public void setParallelScans(ForkJoinPool pool, int threshold) {
+    scanPool = pool == null ? ForkJoinPool.commonPool() : pool;
+    scanThreshold = threshold;
+    scanResults = new ScanResult[Math.max(1, scanPool.getParallelism())];
+    for (int c = 0; c < scanResults.length; c++) {
+      scanResults[c] = new ScanResult();
+    }
+  }
+
   protected void calculate_rho(AlphaModel<L> si) {
     double r;
     int nr_free = 0;
     double ub = Double.POSITIVE_INFINITY, lb = Double.NEGATIVE_INFINITY, sum_free = 0;
 
-    for (SolutionVector sv : active) {
+    for (int i = 0; i < activeCount; i++) {
+      final SolutionVector sv = byRank[i];
       double yG = (sv.targetValue ? 1.0 : -1.0) * sv.G;
 
       if (sv.isLowerBound()) {
@@ -116,33 +223,58 @@ public abstract class Solver<L extends Comparable> implements Serializable {
   }
 
   protected int optimize() {
+    try {
+      return optimizeWithCache();
+    } finally {
+      // the cache may hold memory outside the heap, which shouldn't wait for the garbage collector
+      Q.close();
+    }
+  }
+
+  private int optimizeWithCache() {
     Q.initRanks(allExamples);
 
-    for (SolutionVector svA : allExamples) {
-      svA.updateAlphaStatus(Cp, Cn);
+    // one more than is prefetched, since the best candidate is fetched right away
+    final int prefetchRows = Q.getPrefetchRows();
+    if (prefetchRows > 0) {
+      prefetchCandidates = new SolutionVector[prefetchRows + 1];
+      prefetchScores = new double[prefetchRows + 1];
     }
 
+    loadState();
+
     // initialize active set (for shrinking)
 
     initActiveSet();
 
     // initialize gradient
 
-    for (SolutionVector svA : allExamples) {
-      svA.G = svA.linearTerm;
-      svA.G_bar = 0;
+    System.arraycopy(linearTerm, 0, G, 0, numExamples);
+    Arrays.fill(G_bar, 0);
+
+    final int[] sources = new int[numExamples];
+    int numSources = 0;
+    for (int i = 0; i < numExamples; i++) {
+      if (!isLowerBound(i)) {
+        sources[numSources++] = i;
+      }
     }
-    for (SolutionVector svA : allExamples) {
-      if (!svA.isLowerBound()) //is_lower_bound(i))
-      {
-        Q.getQ(svA, active, Q_svA);
-        for (SolutionVector svB : allExamples) {
-          svB.G += svA.alpha * Q_svA[svB.rank];
+
+    final ForkJoinPool pool = Q.getPoolFor((long) numSources * numExamples);
+    if (pool != null) {
+      initializeGradient(pool, sources, numSources);
+    } else {
+      for (int s = 0; s < numSources; s++) {
+        final int i = sources[s];
+        Q.getQ(byRank[i], byRank, activeCount, Q_svA);
+        final double alpha_i = alpha[i];
+        for (int j = 0; j < numExamples; j++) {
+          G[j] += alpha_i * Q_svA[j];
         }
-        if (svA.isUpperBound()) //is_upper_bound(i))
-        {
-          for (SolutionVector svB : allExamples) {
-            svB.G_bar += svA.getC(Cp, Cn) * Q_svA[svB.rank];
+        if (isUpperBound(i)) {
+          final double C_i = getC(i);
+          for (int j = 0; j < numExamples; j++) {
+            G_bar[j] += C_i * Q_svA[j];
           }
         }
       }
@@ -188,6 +320,8 @@ public abstract class Solver<L extends Comparable> implements Serializable {
       }
       svA = pair.svA;
       svB = pair.svB;
+      final int i = svA.rank;
+      final int j = svB.rank;
 
       ++iter;
 
@@ -198,90 +332,88 @@ public abstract class Solver<L extends Comparable> implements Serializable {
 
       // update alpha[i] and alpha[j], handle bounds carefully
 
-      Q.getQ(svA, active, Q_svA);
-      Q.getQ(svB, active, Q_svB);
+      Q.getQ(svA, byRank, activeCount, Q_svA);
+      Q.getQ(svB, byRank, activeCount, Q_svB);
 
-      double C_i = svA.getC(Cp, Cn);
-      double C_j = svB.getC(Cp, Cn);
+      double C_i = getC(i);
+      double C_j = getC(j);
 
-      double old_alpha_i = svA.alpha;
-      double old_alpha_j = svB.alpha;
+      double old_alpha_i = alpha[i];
+      double old_alpha_j = alpha[j];
 
-      if (svA.targetValue != svB.targetValue) {
+      if (y[i] != y[j]) {
 
-        double quad_coef = Q.evaluateDiagonal(svA) + Q.evaluateDiagonal(svB)
-            + 2 * Q_svA[svB.rank];
+        double quad_coef = QD[i] + QD[j] + 2 * Q_svA[j];
 
         if (quad_coef <= 0) {
           quad_coef = 1e-12;
         }
-        double delta = (-svA.G - svB.G) / quad_coef;
-        double diff = svA.alpha - svB.alpha;
-        svA.alpha += delta;
-        svB.alpha += delta;
+        double delta = (-G[i] - G[j]) / quad_coef;
+        double diff = alpha[i] - alpha[j];
+        alpha[i] += delta;
+        alpha[j] += delta;
 
         if (diff > 0) {
-          if (svB.alpha < 0) {
-            svB.alpha = 0;
-            svA.alpha = diff;
+          if (alpha[j] < 0) {
+            alpha[j] = 0;
+            alpha[i] = diff;
           }
         } else {
-          if (svA.alpha < 0) {
-            svA.alpha = 0;
-            svB.alpha = -diff;
+          if (alpha[i] < 0) {
+            alpha[i] = 0;
+            alpha[j] = -diff;
           }
         }
         if (diff > C_i - C_j) {
-          if (svA.alpha > C_i) {
-            svA.alpha = C_i;
-            svB.alpha = C_i - diff;
+          if (alpha[i] > C_i) {
+            alpha[i] = C_i;
+            alpha[j] = C_i - diff;
           }
         } else {
-          if (svB.alpha > C_j) {
-            svB.alpha = C_j;
-            svA.alpha = C_j + diff;
+          if (alpha[j] > C_j) {
+            alpha[j] = C_j;
+            alpha[i] = C_j + diff;
           }
         }
       } else {
-        double quad_coef = Q.evaluateDiagonal(svA) + Q.evaluateDiagonal(svB)
-            - 2 * Q_svA[svB.rank];
+        double quad_coef = QD[i] + QD[j] - 2 * Q_svA[j];
 
         if (quad_coef <= 0) {
           quad_coef = 1e-12;
         }
-        double delta = (svA.G - svB.G) / quad_coef;
-        double sum = svA.alpha + svB.alpha;
-        svA.alpha -= delta;
-        svB.alpha += delta;
+        double delta = (G[i] - G[j]) / quad_coef;
+        double sum = alpha[i] + alpha[j];
+        alpha[i] -= delta;
+        alpha[j] += delta;
 
         if (sum > C_i) {
-          if (svA.alpha > C_i) {
-            svA.alpha = C_i;
-            svB.alpha = sum - C_i;
+          if (alpha[i] > C_i) {
+            alpha[i] = C_i;
+            alpha[j] = sum - C_i;
           }
         } else {
-          if (svB.alpha < 0) {
-            svB.alpha = 0;
-            svA.alpha = sum;
+          if (alpha[j] < 0) {
+            alpha[j] = 0;
+            alpha[i] = sum;
           }
         }
         if (sum > C_j) {
-          if (svB.alpha > C_j) {
-            svB.alpha = C_j;
-            svA.alpha = sum - C_j;
+          if (alpha[j] > C_j) {
+            alpha[j] = C_j;
+            alpha[i] = sum - C_j;
           }
         } else {
-          if (svA.alpha < 0) {
-            svA.alpha = 0;
-            svB.alpha = sum;
+          if (alpha[i] < 0) {
+            alpha[i] = 0;
+            alpha[j] = sum;
           }
         }
       }
 
       // update G
 
-      double delta_alpha_i = svA.alpha - old_alpha_i;
-      double delta_alpha_j = svB.alpha - old_alpha_j;
+      double delta_alpha_i = alpha[i] - old_alpha_i;
+      double delta_alpha_j = alpha[j] - old_alpha_j;
 
       if (delta_alpha_i == 0 && delta_alpha_j == 0) {
         // pair was already optimal, but selectWorkingPair() didn't realize it because the numeric precision of double is insufficient with respect to eps
@@ -292,240 +424,535 @@ public abstract class Solver<L extends Comparable> implements Serializable {
       }
 
       // NO: loop over A first, then B (cache locality)
-      for (int i = 0; i < active.length; i++) {
-        active[i].G += Q_svA[i] * delta_alpha_i + Q_svB[i] * delta_alpha_j;
-      }
+      deltaAlphaI = delta_alpha_i;
+      deltaAlphaJ = delta_alpha_j;
+      scan(scanChunks(), gradientUpdate);
 
       // update alpha_status and G_bar
 
-      boolean ui = svA.isUpperBound(); //is_upper_bound(i);
-      boolean uj = svB.isUpperBound(); //is_upper_bound(j);
-      svA.updateAlphaStatus(Cp, Cn); //update_alpha_status(i);
-      svB.updateAlphaStatus(Cp, Cn); //update_alpha_status(j);			//int k;
+      boolean ui = isUpperBound(i);
+      boolean uj = isUpperBound(j);
+      updateAlphaStatus(i);
+      updateAlphaStatus(j);
 
-      if (ui != svA.isUpperBound()) //is_upper_bound(i))
-      {
-        Q.getQ(svA, active, inactive, Q_all);
+      if (ui != isUpperBound(i)) {
+        Q.getQ(svA, byRank, activeCount, numExamples, Q_all);
         if (ui) {
-          for (SolutionVector svC : allExamples) {
-            svC.G_bar -= C_i * Q_all[svC.rank]; //Q.evaluate(svA, svC);
+          for (int k = 0; k < numExamples; k++) {
+            G_bar[k] -= C_i * Q_all[k];
           }
         } else {
-          for (SolutionVector svC : allExamples) {
-            svC.G_bar += C_i * Q_all[svC.rank]; //Q.evaluate(svA, svC);
+          for (int k = 0; k < numExamples; k++) {
+            G_bar[k] += C_i * Q_all[k];
           }
         }
       }
 
-      if (uj != svB.isUpperBound()) //is_upper_bound(j))
-      {
-        Q.getQ(svB, active, inactive, Q_all);
+      if (uj != isUpperBound(j)) {
+        Q.getQ(svB, byRank, activeCount, numExamples, Q_all);
         if (uj) {
-          for (SolutionVector svC : allExamples) {
-            svC.G_bar -= C_j * Q_all[svC.rank];
+          for (int k = 0; k < numExamples; k++) {
+            G_bar[k] -= C_j * Q_all[k];
           }
         } else {
-          for (SolutionVector svC : allExamples) {
-            svC.G_bar += C_j * Q_all[svC.rank];
+          for (int k = 0; k < numExamples; k++) {
+            G_bar[k] += C_j * Q_all[k];
           }
         }
       }
     }
 
+    storeState();
+
     Logger.getGlobal().info(Q.perfString());
 
     Logger.getGlobal().info("optimization finished, #iter = " + iter);
     return iter;    // activeSet;
   }
 
+  /**
+   * @return how well the kernel cache served the optimization
+   */
+  protected KernelCacheStatistics getCacheStatistics() {
+    return Q.getCacheStatistics();
+  }
+
+  /**
+   * Gather the state of the optimization from the SolutionVectors into the arrays by rank
+   */
+  private void loadState() {
+    byRank = new SolutionVector[numExamples];
+    alpha = new double[numExamples];
+    G = new double[numExamples];
+    G_bar = new double[numExamples];
+    linearTerm = new double[numExamples];
+    QD = new double[numExamples];
+    alphaStatus = new byte[numExamples];
+    y = new boolean[numExamples];
+
+    previousRanks = new int[numExamples];
+    rankScratch = new SolutionVector[numExamples];
+    doubleScratch = new double[numExamples];
+    byteScratch = new byte[numExamples];
+    booleanScratch = new boolean[numExamples];
+    keptBuffer = new SolutionVector[numExamples];
+    shrunkBuffer = new SolutionVector[numExamples];
+
+    for (SolutionVector sv : allExamples) {
+      final int i = sv.rank;
+      byRank[i] = sv;
+      alpha[i] = sv.alpha;
+      linearTerm[i] = sv.linearTerm;
+      y[i] = sv.targetValue;
+      QD[i] = Q.evaluateDiagonal(sv);
+      updateAlphaStatus(i);
+    }
+  }
+
+  /**
+   * Write the state of the optimization back to the SolutionVectors, for calculate_rho() and the subclasses to read
+   */
+  private void storeState() {
+    for (int i = 0; i < numExamples; i++) {
+      final SolutionVector sv = byRank[i];
+      sv.alpha = alpha[i];
+      sv.G = G[i];
+      sv.G_bar = G_bar[i];
+      sv.alphaStatus = STATUSES[alphaStatus[i]];
+    }
+  }
+
+  /**
+   * Have the QMatrix rearrange the ranks so that the active SVs come first, and move the state by rank along with them
+   */
+  void maintainCache(SolutionVector[] active, int activeCount, SolutionVector[] newlyInactive,
+      int newlyInactiveCount) {
+    Q.maintainCache(active, activeCount, newlyInactive, newlyInactiveCount);
+
+    boolean moved = false;
+    for (int i = 0; i < numExamples; i++) {
+      final int rank = byRank[i].rank;
+      previousRanks[rank] = i;
+      moved |= rank != i;
+    }
+    if (!moved) {
+      return;
+    }
+
+    final SolutionVector[] svs = rankScratch;
+    for (int i = 0; i < numExamples; i++) {
+      svs[i] = byRank[previousRanks[i]];
+    }
+    rankScratch = byRank;
+    byRank = svs;
+
+    followRanks(alpha);
+    followRanks(G);
+    followRanks(G_bar);
+    followRanks(linearTerm);
+    followRanks(QD);
+
+    for (int i = 0; i < numExamples; i++) {
+      byteScratch[i] = alphaStatus[previousRanks[i]];
+      booleanScratch[i] = y[previousRanks[i]];
+    }
+    System.arraycopy(byteScratch, 0, alphaStatus, 0, numExamples);
+    System.arraycopy(booleanScratch, 0, y, 0, numExamples);
+  }
+
+  private void followRanks(double[] values) {
+    for (int i = 0; i < numExamples; i++) {
+      doubleScratch[i] = values[previousRanks[i]];
+    }
+    System.arraycopy(doubleScratch, 0, values, 0, numExamples);
+  }
+
+  /**
+   * Update the status of the SV at rank i from its alpha, and bring its view up to date
+   */
+  final void updateAlphaStatus(int i) {
+    if (alpha[i] >= getC(i)) {
+      alphaStatus[i] = UPPER_BOUND;
+    } else if (alpha[i] <= 0) {
+      alphaStatus[i] = LOWER_BOUND;
+    } else {
+      alphaStatus[i] = FREE;
+    }
+
+    final SolutionVector sv = byRank[i];
+    sv.alpha = alpha[i];
+    sv.alphaStatus = STATUSES[alphaStatus[i]];
+  }
+
+  final boolean isUpperBound(int i) {
+    return alphaStatus[i] == UPPER_BOUND;
+  }
+
+  final boolean isLowerBound(int i) {
+    return alphaStatus[i] == LOWER_BOUND;
+  }
+
+  final boolean isFree(int i) {
+    return alphaStatus[i] == FREE;
+  }
+
+  final double getC(int i) {
+    return y[i] ? Cp : Cn;
+  }
+
   protected void initActiveSet() {
     // initial sort order was provided by allExamples.  This is why allExamples must be a List or array, not just a Collection
-    active = allExamples.toArray(EMPTY_SV_ARRAY);
-    inactive = EMPTY_SV_ARRAY;
-    Q_svA = new double[active.length];
-    Q_svB = new double[active.length];
+    activeCount = numExamples;
+    Q_svA = new double[numExamples];
+    Q_svB = new double[numExamples];
   }
 
   void do_shrinking() {
-    int i;
     double Gmax1 = Double.NEGATIVE_INFINITY;// max { -y_i * grad(f)_i | i in I_up(\alpha) }
     double Gmax2 = Double.NEGATIVE_INFINITY;// max { y_i * grad(f)_i | i in I_low(\alpha) }
 
     // find maximal violating pair first
 
-    for (SolutionVector sv : active) {
-      if (sv.targetValue) {
-        if (!sv.isUpperBound()) {
-          if (-sv.G >= Gmax1) {
-            Gmax1 = -sv.G;
+    final int chunks = scanChunks();
+    final ScanResult[] results = scan(chunks, shrinkingBounds);
+
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].max1 >= Gmax1) {
+        Gmax1 = results[c].max1;
+      }
+      if (results[c].max2 >= Gmax2) {
+        Gmax2 = results[c].max2;
+      }
+    }
+
+    if (!unshrink && Gmax1 + Gmax2 <= eps * 10) {
+      unshrink = true;
+      reconstruct_gradient();
+      resetActiveSet();
+    }
+
+    shrinkGmax1 = Gmax1;
+    shrinkGmax2 = Gmax2;
+    shrinkActiveSet();
+  }
+
+  /**
+   * The scan of do_shrinking(): max1 and max2 are Gmax1 and Gmax2 over the chunk
+   */
+  private void findShrinkingBounds(ScanResult result, int from, int to) {
+    double max1 = Double.NEGATIVE_INFINITY;
+    double max2 = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      if (y[i]) {
+        if (!isUpperBound(i)) {
+          if (-G[i] >= max1) {
+            max1 = -G[i];
           }
         }
-        if (!sv.isLowerBound()) {
-          if (sv.G >= Gmax2) {
-            Gmax2 = sv.G;
+        if (!isLowerBound(i)) {
+          if (G[i] >= max2) {
+            max2 = G[i];
           }
         }
       } else {
-        if (!sv.isUpperBound()) {
-          if (-sv.G >= Gmax2) {
-            Gmax2 = -sv.G;
+        if (!isUpperBound(i)) {
+          if (-G[i] >= max2) {
+            max2 = -G[i];
           }
         }
-        if (!sv.isLowerBound()) {
-          if (sv.G >= Gmax1) {
-            Gmax1 = sv.G;
+        if (!isLowerBound(i)) {
+          if (G[i] >= max1) {
+            max1 = G[i];
           }
         }
       }
     }
+    result.max1 = max1;
+    result.max2 = max2;
+  }
 
-    if (!unshrink && Gmax1 + Gmax2 <= eps * 10) {
-      unshrink = true;
-      reconstruct_gradient();
-      resetActiveSet();
+  /**
+   * Move the active SVs that are shrinkable to the inactive set.
+   * <p/>
+   * This class is unfortunately entangled with the cache, because we want Q_get to return the kernel values in buf[] in
+   * the cache-ranked order, so the active and inactive arrays must be kept in rank order as well.  Q.maintainCache
+   * performs a minimal set of swaps to guarantee that all the active SVs are in the active range (the first n ranks) and
+   * all the inactive ones are in the inactive range, but makes no guarantees about the ordering within each of those
+   * regions.  Since the state by rank follows the swaps, the new active set is simply the first kept ranks of byRank
+   * afterwards.
+   * <p/>
+   * The partition goes through preallocated buffers, so shrinking allocates nothing.
+   */
+  final void shrinkActiveSet() {
+    int kept = 0;
+    int shrunk = 0;
+    for (int i = 0; i < activeCount; i++) {
+      if (isShrinkable(i)) {
+        shrunkBuffer[shrunk++] = byRank[i];
+      } else {
+        keptBuffer[kept++] = byRank[i];
+      }
     }
 
-    // There was an extremely messy iteration here before, but I think it served only to separate the shrinkable vectors from the unshrinkable ones.
-
-    // This class is unfortunately entangled with the cache, because we want Q_get to return the kernel values in buf[] in the cache-ranked order.
-    // Since we're going to be calling Q_get with the active and inactive arrays as arguments, we need to make sure to keep those in the cache-ranked order as well.
-    // An intuitive reordering upon partitioning is to "compress" into the order active - newlyInactive - previouslyInactive.
-    // However, that's not what Q.maintainCache does: it performs a minimal set of swaps to guarantee that all the active nodes are in the active range (the first n ranks)
-    // and all the inactive nodes are in the inactive range, but makes no guarantees about the ordering within each of those regions.
-
-    // Thus, we need to sort the arrays according to the ranks after Q.maintainCache is done with them.
-
-    Collection<SolutionVector> activeList = new ArrayList<>(
-        Arrays.asList(active));
+    if (shrunk == 0) {
+      return;
+    }
 
-    // start this off empty, knowing that it will eventually need to contain all the currently inactive elements
-    Collection<SolutionVector> inactiveList = new ArrayList<>(inactive.length);
+    // note maintainCache doesn't need to know about the currently inactive elements
+    maintainCache(keptBuffer, kept, shrunkBuffer, shrunk);
 
-    for (Iterator<SolutionVector> iter = activeList.iterator(); iter.hasNext(); ) {
-      SolutionVector sv = iter.next();
+    activeCount = kept;
+  }
 
-      if (sv.isShrinkable(Gmax1, Gmax2)) {
-        iter.remove();
-        inactiveList.add(sv);
+  boolean isShrinkable(int i) {
+    if (isUpperBound(i)) {
+      if (y[i]) {
+        return -G[i] > shrinkGmax1;
+      } else {
+        return -G[i] > shrinkGmax2;
+      }
+    } else if (isLowerBound(i)) {
+      if (y[i]) {
+        return G[i] > shrinkGmax2;
+      } else {
+        return G[i] > shrinkGmax1;
       }
+    } else {
+      return false;
     }
-
-    active = activeList.toArray(EMPTY_SV_ARRAY);
-
-    Q_svA = new double[active.length];
-    Q_svB = new double[active.length];
-
-    SolutionVector[] newlyInactive = inactiveList.toArray(EMPTY_SV_ARRAY);
-    Q.maintainCache(active,
-        newlyInactive);  // note maintainCache doesn't need to know about the currently inactive elements
-
-    inactiveList
-        .addAll(Arrays.asList(inactive));  // but we do need them on the inactive list going forward
-    inactive = inactiveList.toArray(EMPTY_SV_ARRAY);
-
-    // these must happen after Q.maintainCache, since it modifies the ranks
-    Arrays.sort(active); // SolutionVector.compareTo is based on the ranks!
-    Arrays.sort(inactive); // SolutionVector.compareTo is based on the ranks!
   }
 
   /**
    * reconstruct inactive elements of G from G_bar and free variables
    */
   void reconstruct_gradient() {
-    if (active.length == numExamples) {
+    if (activeCount == numExamples) {
       return;
     }
 
+    int activeSize = activeCount;
     int nr_free = 0;
 
-    for (SolutionVector sv : inactive) {
-      sv.G = sv.G_bar + sv.linearTerm;
+    for (int j = activeSize; j < numExamples; j++) {
+      G[j] = G_bar[j] + linearTerm[j];
     }
 
-    for (SolutionVector sv : active) {
-      if (sv.isFree()) {
+    for (int j = 0; j < activeSize; j++) {
+      if (isFree(j)) {
         nr_free++;
       }
     }
 
-    int activeSize = active.length;
+    final ForkJoinPool pool = Q.getPoolFor((long) nr_free * (numExamples - activeSize));
+    if (pool != null) {
+      reconstructGradient(pool);
+      return;
+    }
 
     if (nr_free * numExamples > 2 * activeSize * (numExamples - activeSize)) {
-      for (SolutionVector svA : inactive) {
-        Q.getQ(svA, active, Q_svA);
-        for (SolutionVector svB : active) {
-          if (svB.isFree()) //is_free(j))
-          {
-            svA.G += svB.alpha * Q_svA[svB.rank];
+      for (int i = activeSize; i < numExamples; i++) {
+        Q.getQ(byRank[i], byRank, activeCount, Q_svA);
+        for (int j = 0; j < activeSize; j++) {
+          if (isFree(j)) {
+            G[i] += alpha[j] * Q_svA[j];
           }
         }
       }
     } else {
-      for (SolutionVector svA : active) {
-        if (svA.isFree()) //is_free(i))
-        {
-          Q.getQ(svA, active, inactive, Q_all);
-          for (SolutionVector svB : inactive) {
-            svB.G += svA.alpha * Q_all[svB.rank];
+      for (int i = 0; i < activeSize; i++) {
+        if (isFree(i)) {
+          Q.getQ(byRank[i], byRank, activeSize, numExamples, Q_all);
+          final double alpha_i = alpha[i];
+          for (int j = activeSize; j < numExamples; j++) {
+            G[j] += alpha_i * Q_all[j];
           }
         }
       }
     }
   }
 
+  /**
+   * The gradient initialization of optimize(), spread across the pool by target.  Each target still adds up the terms
+   * of the sources in the same order, with the same values of Q, so the result is exactly that of the serial loop; the
+   * values are computed without the cache, whose rows could not be shared between threads anyway.
+   */
+  private void initializeGradient(ForkJoinPool pool, final int[] sources, final int numSources) {
+    pool.invoke(new TargetRangeTask(numExamples, pool, (from, to) -> {
+      for (int j = from; j < to; j++) {
+        for (int s = 0; s < numSources; s++) {
+          final int i = sources[s];
+          final double q = Q.evaluateUncached(byRank[i], byRank[j]);
+          G[j] += alpha[i] * q;
+          if (isUpperBound(i)) {
+            G_bar[j] += getC(i) * q;
+          }
+        }
+      }
+    }));
+  }
+
+  /**
+   * reconstruct_gradient(), spread across the pool by inactive SV, each adding up the terms of the free active SVs in
+   * rank order, as the serial loops do.
+   */
+  private void reconstructGradient(ForkJoinPool pool) {
+    final int activeSize = activeCount;
+    pool.invoke(new TargetRangeTask(numExamples - activeSize, pool, (from, to) -> {
+      for (int i = activeSize + from; i < activeSize + to; i++) {
+        for (int j = 0; j < activeSize; j++) {
+          if (isFree(j)) {
+            G[i] += alpha[j] * Q.evaluateUncached(byRank[j], byRank[i]);
+          }
+        }
+      }
+    }));
+  }
+
   protected void resetActiveSet() {
-    active = allExamples.toArray(EMPTY_SV_ARRAY);
-    Arrays.sort(active);
-    inactive = EMPTY_SV_ARRAY;
-    Q_svA = new double[active.length];
-    Q_svB = new double[active.length];
+    activeCount = numExamples;
+  }
+
+  /**
+   * Keep the given SV among the prefetch candidates if its score is among the best so far.  Subclasses call this during
+   * selectWorkingPair() for every SV eligible as the first of the pair, and then prefetchCandidates().
+   */
+  protected final void offerPrefetchCandidate(SolutionVector sv, double score) {
+    if (prefetchCandidates.length == 0) {
+      return;
+    }
+
+    int i = numPrefetchCandidates;
+    if (i == prefetchCandidates.length) {
+      if (score <= prefetchScores[i - 1]) {
+        return;
+      }
+      i--;
+    } else {
+      numPrefetchCandidates++;
+    }
+
+    while (i > 0 && prefetchScores[i - 1] < score) {
+      prefetchCandidates[i] = prefetchCandidates[i - 1];
+      prefetchScores[i] = prefetchScores[i - 1];
+      i--;
+    }
+    prefetchCandidates[i] = sv;
+    prefetchScores[i] = score;
+  }
+
+  /**
+   * Hand the prefetch candidates collected since the last call to the QMatrix, except for the given SVs (either may be
+   * null) whose rows are about to be fetched anyway.
+   */
+  protected final void prefetchCandidates(SolutionVector fetchedA, SolutionVector fetchedB) {
+    int count = 0;
+    for (int i = 0; i < numPrefetchCandidates; i++) {
+      final SolutionVector sv = prefetchCandidates[i];
+      if (sv != fetchedA && sv != fetchedB) {
+        prefetchCandidates[count++] = sv;
+      }
+    }
+    if (count > 0) {
+      Q.prefetch(prefetchCandidates, count, byRank, activeCount);
+    }
+    numPrefetchCandidates = 0;
   }
 
   protected SolutionVectorPair selectWorkingPair() {
+    final int chunks = scanChunks();
+
+    ScanResult[] results = scan(chunks, firstSelection);
+
+    // ties go to the later SV, as within a chunk
     double Gmax = Double.NEGATIVE_INFINITY;
+    int GmaxAt = -1;
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].maxAt1 >= 0 && results[c].max1 >= Gmax) {
+        Gmax = results[c].max1;
+        GmaxAt = results[c].maxAt1;
+      }
+    }
+    final SolutionVector GmaxSV = GmaxAt < 0 ? null : byRank[GmaxAt];
+
+    // the runners-up are likely to be chosen soon, so their rows can be computed while this pair is worked on
+    prefetchCandidates(GmaxSV, null);
+
+    // PERF this is where cache locality issues kick in big time.
+
+    if (GmaxSV != null) {
+      Q.getQ(GmaxSV, byRank, activeCount, Q_svA);
+    }
+
+    selectedG = Gmax;
+    selectedQD = GmaxAt < 0 ? 0 : QD[GmaxAt];
+    selectedY = GmaxAt < 0 || y[GmaxAt] ? 1.0 : -1.0;
+    results = scan(chunks, secondSelection);
+
     double Gmax2 = Double.NEGATIVE_INFINITY;
-    SolutionVector GmaxSV = null; //-1;
-    SolutionVector GminSV = null; //-1;
+    int GminAt = -1;
     double obj_diff_min = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].max2 >= Gmax2) {
+        Gmax2 = results[c].max2;
+      }
+      if (results[c].minAt >= 0 && results[c].min <= obj_diff_min) {
+        obj_diff_min = results[c].min;
+        GminAt = results[c].minAt;
+      }
+    }
+
+    return workingPair(GmaxSV, GminAt < 0 ? null : byRank[GminAt], Gmax + Gmax2 < eps);
+  }
 
-    int l = active.length;
-    for (int i = 0; i < l; i++) {
-      SolutionVector sv = active[i];
-      if (sv.targetValue) {
-        if (!sv.isUpperBound()) {
-          if (-sv.G >= Gmax) {
-            Gmax = -sv.G;
-            GmaxSV = sv;
+  /**
+   * The first scan of selectWorkingPair(): max1 is the best score for the first SV of the pair over the chunk, found at
+   * maxAt1
+   */
+  private void selectFirst(ScanResult result, int from, int to) {
+    double max = Double.NEGATIVE_INFINITY;
+    int maxAt = -1;
+    for (int i = from; i < to; i++) {
+      if (y[i]) {
+        if (!isUpperBound(i)) {
+          offerPrefetchCandidate(byRank[i], -G[i]);
+          if (-G[i] >= max) {
+            max = -G[i];
+            maxAt = i;
           }
         }
       } else {
-        if (!sv.isLowerBound()) {
-          if (sv.G >= Gmax) {
-            Gmax = sv.G;
-            GmaxSV = sv;
+        if (!isLowerBound(i)) {
+          offerPrefetchCandidate(byRank[i], G[i]);
+          if (G[i] >= max) {
+            max = G[i];
+            maxAt = i;
           }
         }
       }
     }
+    result.max1 = max;
+    result.maxAt1 = maxAt;
+  }
 
-    // PERF this is where cache locality issues kick in big time.
-
-    if (GmaxSV != null) {
-      Q.getQ(GmaxSV, active, Q_svA);
-    }
-
-    for (int i = 0; i < l; i++) {
-      SolutionVector sv = active[i];
-      if (sv.targetValue) {
-        if (!sv.isLowerBound()) {
-          double grad_diff = Gmax + sv.G;
-          if (sv.G >= Gmax2) {
-            Gmax2 = sv.G;
+  /**
+   * The second scan of selectWorkingPair(), against the first SV of the pair (whose row is in Q_svA): max2 is Gmax2 over
+   * the chunk, and min the best objective decrease, found at minAt
+   */
+  private void selectSecond(ScanResult result, int from, int to) {
+    final double[] Q_GmaxSV = Q_svA;
+    double max2 = Double.NEGATIVE_INFINITY;
+    double min = Double.POSITIVE_INFINITY;
+    int minAt = -1;
+    for (int i = from; i < to; i++) {
+      if (y[i]) {
+        if (!isLowerBound(i)) {
+          double grad_diff = selectedG + G[i];
+          if (G[i] >= max2) {
+            max2 = G[i];
           }
           if (grad_diff > 0) {
             double obj_diff;
-            double quad_coef = Q.evaluateDiagonal(GmaxSV) + Q.evaluateDiagonal(sv)
-                - 2.0 * (GmaxSV.targetValue ? 1.0 : -1.0) * Q_svA[sv.rank]; //Q_GmaxSV[sv.rank];
+            double quad_coef = selectedQD + QD[i] - 2.0 * selectedY * Q_GmaxSV[i];
 
             if (quad_coef > 0.0) {
               obj_diff = -(grad_diff * grad_diff) / quad_coef;
@@ -533,22 +960,21 @@ public abstract class Solver<L extends Comparable> implements Serializable {
               obj_diff = -(grad_diff * grad_diff) / 1e-12;
             }
 
-            if (obj_diff <= obj_diff_min) {
-              GminSV = sv;
-              obj_diff_min = obj_diff;
+            if (obj_diff <= min) {
+              minAt = i;
+              min = obj_diff;
             }
           }
         }
       } else {
-        if (!sv.isUpperBound()) {
-          double grad_diff = Gmax - sv.G;
-          if (-sv.G >= Gmax2) {
-            Gmax2 = -sv.G;
+        if (!isUpperBound(i)) {
+          double grad_diff = selectedG - G[i];
+          if (-G[i] >= max2) {
+            max2 = -G[i];
           }
           if (grad_diff > 0.0) {
             double obj_diff;
-            double quad_coef = Q.evaluateDiagonal(GmaxSV) + Q.evaluateDiagonal(sv)
-                + 2.0 * (GmaxSV.targetValue ? 1.0 : -1.0) * Q_svA[sv.rank]; //Q_GmaxSV[sv.rank];
+            double quad_coef = selectedQD + QD[i] + 2.0 * selectedY * Q_GmaxSV[i];
 
             if (quad_coef > 0.0) {
               obj_diff = -(grad_diff * grad_diff) / quad_coef;
@@ -556,16 +982,68 @@ public abstract class Solver<L extends Comparable> implements Serializable {
               obj_diff = -(grad_diff * grad_diff) / 1e-12;
             }
 
-            if (obj_diff <= obj_diff_min) {
-              GminSV = sv;
-              obj_diff_min = obj_diff;
+            if (obj_diff <= min) {
+              minAt = i;
+              min = obj_diff;
             }
           }
         }
       }
     }
+    result.max2 = max2;
+    result.min = min;
+    result.minAt = minAt;
+  }
+
+  /**
+   * The gradient update of optimize(), for the change of alpha in the working pair, whose rows are in Q_svA and Q_svB
+   */
+  private void updateGradient(ScanResult result, int from, int to) {
+    final double[] Q_i = Q_svA;
+    final double[] Q_j = Q_svB;
+    for (int k = from; k < to; k++) {
+      G[k] += Q_i[k] * deltaAlphaI + Q_j[k] * deltaAlphaJ;
+    }
+  }
+
+  /**
+   * @return the working pair, reused from one call to the next
+   */
+  protected final SolutionVectorPair workingPair(SolutionVector svA, SolutionVector svB, boolean isOptimal) {
+    if (workingPair == null) {
+      workingPair = new SolutionVectorPair(svA, svB, isOptimal);
+    } else {
+      workingPair.svA = svA;
+      workingPair.svB = svB;
+      workingPair.isOptimal = isOptimal;
+    }
+    return workingPair;
+  }
+
+  /**
+   * @return how many chunks to split the next scan of the active set into; 1 to scan it on the solver thread
+   */
+  final int scanChunks() {
+    if (scanPool == null || activeCount < scanThreshold || prefetchCandidates.length > 0) {
+      return 1;
+    }
+    return Math.max(1, Math.min(scanResults.length, activeCount));
+  }
 
-    return new SolutionVectorPair(GmaxSV, GminSV, Gmax + Gmax2 < eps);
+  /**
+   * Run the given scan over each of the given number of chunks of the active set, on the scan pool if there is more
+   * than one, and return the results of the chunks in order
+   */
+  final ScanResult[] scan(int chunks, ActiveScan body) {
+    for (int c = 0; c < chunks; c++) {
+      scanResults[c].reset();
+    }
+    if (chunks == 1) {
+      body.scan(scanResults[0], 0, activeCount);
+    } else {
+      scanPool.invoke(new ScanTask(body, scanResults, activeCount, chunks, 0, chunks));
+    }
+    return scanResults;
   }
 
 // -------------------------- INNER CLASSES --------------------------
@@ -585,4 +1063,106 @@ public abstract class Solver<L extends Comparable> implements Serializable {
       this.isOptimal = isOptimal;
     }
   }
+
+  /**
+   * Updates the gradient of the targets in [from, to)
+   */
+  private interface TargetRange {
+    void update(int from, int to);
+  }
+
+  /**
+   * Runs a TargetRange over a number of targets by halving it until the pieces are small enough to keep every thread of
+   * the pool busy
+   */
+  private static class TargetRangeTask extends RecursiveAction {
+    private final TargetRange range;
+    private final int from;
+    private final int to;
+    private final int chunk;
+
+    TargetRangeTask(int count, ForkJoinPool pool, TargetRange range) {
+      this(range, 0, count, Math.max(1, count / (4 * pool.getParallelism())));
+    }
+
+    private TargetRangeTask(TargetRange range, int from, int to, int chunk) {
+      this.range = range;
+      this.from = from;
+      this.to = to;
+      this.chunk = chunk;
+    }
+
+    protected void compute() {
+      if (to - from <= chunk) {
+        range.update(from, to);
+      } else {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new TargetRangeTask(range, from, middle, chunk), new TargetRangeTask(range, middle, to, chunk));
+      }
+    }
+  }
+
+  /**
+   * A scan of active[from, to), leaving what it found in result
+   */
+  interface ActiveScan {
+    void scan(ScanResult result, int from, int to);
+  }
+
+  /**
+   * What a chunk of a scan found: up to two maxima with the ranks they were found at, two more without, and a minimum
+   * with its rank (-1 where nothing was found).  Each scan documents its own use of them.
+   */
+  static final class ScanResult {
+    double max1;
+    double max2;
+    double max3;
+    double max4;
+    int maxAt1;
+    int maxAt2;
+    double min;
+    int minAt;
+
+    void reset() {
+      max1 = max2 = max3 = max4 = Double.NEGATIVE_INFINITY;
+      maxAt1 = maxAt2 = -1;
+      min = Double.POSITIVE_INFINITY;
+      minAt = -1;
+    }
+  }
+
+  /**
+   * Runs the chunks [first, last) of a scan by halving them down to single chunks
+   */
+  private static class ScanTask extends RecursiveAction {
+    private final ActiveScan body;
+    private final ScanResult[] results;
+    private final int length;
+    private final int chunks;
+    private final int first;
+    private final int last;
+
+    ScanTask(ActiveScan body, ScanResult[] results, int length, int chunks, int first, int last) {
+      this.body = body;
+      this.results = results;
+      this.length = length;
+      this.chunks = chunks;
+      this.first = first;
+      this.last = last;
+    }
+
+    private int start(int chunk) {
+      return (int) ((long) chunk * length / chunks);
+    }
+
+    protected void compute() {
+      if (last - first == 1) {
+        body.scan(results[first], start(first), start(last));
+      } else {
+        final int middle = (first + last) >>> 1;
+        invokeAll(new ScanTask(body, results, length, chunks, first, middle),
+            new ScanTask(body, results, length, chunks, middle, last));
+      }
+    }
+  }
 }
@@ -3,10 +3,7 @@ package edu.berkeley.compbio.jlibsvm;
 import edu.berkeley.compbio.jlibsvm.binary.AlphaModel;
 import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
 import edu.berkeley.compbio.jlibsvm.qmatrix.QMatrix;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
+import edu.berkeley.compbio.jlibsvm.regression.RegressionModel;
 import java.util.List;
 
 /**
@@ -18,6 +15,28 @@ import java.util.List;
  * @version $Id$
  */
 public class Solver_NU<L extends Comparable> extends Solver<L> {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The bounds on the gradient that SVs must exceed to be shrunk, found by the last do_shrinking()
+   */
+  private double shrinkGmax1;
+  private double shrinkGmax2;
+  private double shrinkGmax3;
+  private double shrinkGmax4;
+
+  /**
+   * The scans made by every iteration, as in Solver, and what they need to know about the iteration
+   */
+  private transient ActiveScan firstSelection = this::selectFirst;
+  private transient ActiveScan secondSelection = this::selectSecond;
+  private transient ActiveScan shrinkingBounds = this::findShrinkingBounds;
+
+  private double selectedGp;
+  private double selectedGn;
+  private double selectedQDp;
+  private double selectedQDn;
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
   public Solver_NU(
@@ -75,7 +94,12 @@ public class Solver_NU<L extends Comparable> extends Solver<L> {
       r2 = (ub2 + lb2) / 2;
     }
 
-    ((BinaryModel) model).r = ((r1 + r2) / 2);
+    // nu-SVR solves for a RegressionModel, which keeps its own r
+    if (model instanceof BinaryModel) {
+      ((BinaryModel) model).r = ((r1 + r2) / 2);
+    } else {
+      ((RegressionModel) model).r = ((r1 + r2) / 2);
+    }
     model.rho = ((r1 - r2) / 2);
   }
 
@@ -86,24 +110,22 @@ public class Solver_NU<L extends Comparable> extends Solver<L> {
     double Gmax4 = Double.NEGATIVE_INFINITY;// max { y_i * grad(f)_i | y_i = -1, i in I_low(\alpha) }
 
     // find maximal violating pair first
-    for (SolutionVector sv : active) {
-      if (!sv.isUpperBound()) {
-        if (sv.targetValue) {
-          if (-sv.G > Gmax1) {
-            Gmax1 = -sv.G;
-          }
-        } else if (-sv.G > Gmax4) {
-          Gmax4 = -sv.G;
-        }
+    final int chunks = scanChunks();
+    final ScanResult[] results = scan(chunks, shrinkingBounds);
+
+    // ties go to the earlier chunk, as within a chunk
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].max1 > Gmax1) {
+        Gmax1 = results[c].max1;
       }
-      if (!sv.isLowerBound()) {
-        if (sv.targetValue) {
-          if (sv.G > Gmax2) {
-            Gmax2 = sv.G;
-          }
-        } else if (sv.G > Gmax3) {
-          Gmax3 = sv.G;
-        }
+      if (results[c].max2 > Gmax2) {
+        Gmax2 = results[c].max2;
+      }
+      if (results[c].max3 > Gmax3) {
+        Gmax3 = results[c].max3;
+      }
+      if (results[c].max4 > Gmax4) {
+        Gmax4 = results[c].max4;
       }
     }
 
@@ -113,30 +135,64 @@ public class Solver_NU<L extends Comparable> extends Solver<L> {
       resetActiveSet();
     }
 
-    // There was an extremely messy iteration here before, but I think it served only to separate the shrinkable vectors from the unshrinkable ones.
-
-    Collection<SolutionVector> activeList =
-        new ArrayList<>(Arrays.asList(active));
-    Collection<SolutionVector> inactiveList = new ArrayList<>();
-
-    // note the ordering: newly inactive SVs go at the beginning of the inactive list, maintaining order
-
-    for (Iterator<SolutionVector> iter = activeList.iterator(); iter.hasNext(); ) {
-      SolutionVector sv = iter.next();
+    shrinkGmax1 = Gmax1;
+    shrinkGmax2 = Gmax2;
+    shrinkGmax3 = Gmax3;
+    shrinkGmax4 = Gmax4;
+    shrinkActiveSet();
+  }
 
-      if (sv.isShrinkable(Gmax1, Gmax2, Gmax3, Gmax4)) {
-        iter.remove();
-        inactiveList.add(sv);
+  /**
+   * The scan of do_shrinking(): max1 to max4 are Gmax1 to Gmax4 over the chunk
+   */
+  private void findShrinkingBounds(ScanResult result, int from, int to) {
+    double max1 = Double.NEGATIVE_INFINITY;
+    double max2 = Double.NEGATIVE_INFINITY;
+    double max3 = Double.NEGATIVE_INFINITY;
+    double max4 = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      if (!isUpperBound(i)) {
+        if (y[i]) {
+          if (-G[i] > max1) {
+            max1 = -G[i];
+          }
+        } else if (-G[i] > max4) {
+          max4 = -G[i];
+        }
+      }
+      if (!isLowerBound(i)) {
+        if (y[i]) {
+          if (G[i] > max2) {
+            max2 = G[i];
+          }
+        } else if (G[i] > max3) {
+          max3 = G[i];
+        }
       }
     }
+    result.max1 = max1;
+    result.max2 = max2;
+    result.max3 = max3;
+    result.max4 = max4;
+  }
 
-    active = activeList.toArray(EMPTY_SV_ARRAY);
-    SolutionVector[] newlyInactive = inactiveList.toArray(EMPTY_SV_ARRAY);
-    Q.maintainCache(active, newlyInactive);
-
-    // previously inactive SVs come after that
-    inactiveList.addAll(Arrays.asList(inactive));
-    inactive = inactiveList.toArray(EMPTY_SV_ARRAY);
+  @Override
+  boolean isShrinkable(int i) {
+    if (isUpperBound(i)) {
+      if (y[i]) {
+        return (-G[i] > shrinkGmax1);
+      } else {
+        return (-G[i] > shrinkGmax4);
+      }
+    } else if (isLowerBound(i)) {
+      if (y[i]) {
+        return (G[i] > shrinkGmax2);
+      } else {
+        return (G[i] > shrinkGmax3);
+      }
+    } else {
+      return false;
+    }
   }
 
   // return null if optimal
@@ -149,74 +205,136 @@ public class Solver_NU<L extends Comparable> extends Solver<L> {
     //    (if quadratic coefficeint <= 0, replace it with tau)
     //    -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
 
-    double Gmaxp = Double.NEGATIVE_INFINITY;
-    double Gmaxp2 = Double.NEGATIVE_INFINITY;
+    final int chunks = scanChunks();
+
+    ScanResult[] results = scan(chunks, firstSelection);
 
+    // ties go to the later SV, as within a chunk
+    double Gmaxp = Double.NEGATIVE_INFINITY;
     double Gmaxn = Double.NEGATIVE_INFINITY;
-    double Gmaxn2 = Double.NEGATIVE_INFINITY;
+    int GmaxpAt = -1;
+    int GmaxnAt = -1;
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].maxAt1 >= 0 && results[c].max1 >= Gmaxp) {
+        Gmaxp = results[c].max1;
+        GmaxpAt = results[c].maxAt1;
+      }
+      if (results[c].maxAt2 >= 0 && results[c].max2 >= Gmaxn) {
+        Gmaxn = results[c].max2;
+        GmaxnAt = results[c].maxAt2;
+      }
+    }
+    final SolutionVector GmaxpSV = GmaxpAt < 0 ? null : byRank[GmaxpAt];
+    final SolutionVector GmaxnSV = GmaxnAt < 0 ? null : byRank[GmaxnAt];
+
+    prefetchCandidates(GmaxpSV, GmaxnSV);
 
-    SolutionVector GmaxnSV = null;
-    SolutionVector GmaxpSV = null;
+    Q.getQ(GmaxpSV, byRank, activeCount, Q_svA);
+    Q.getQ(GmaxnSV, byRank, activeCount, Q_svB);
 
-    SolutionVector GminSV = null;
+    selectedGp = Gmaxp;
+    selectedGn = Gmaxn;
+    selectedQDp = GmaxpAt < 0 ? 0 : QD[GmaxpAt];
+    selectedQDn = GmaxnAt < 0 ? 0 : QD[GmaxnAt];
+    results = scan(chunks, secondSelection);
 
+    double Gmaxp2 = Double.NEGATIVE_INFINITY;
+    double Gmaxn2 = Double.NEGATIVE_INFINITY;
+    int GminAt = -1;
     double obj_diff_min = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < chunks; c++) {
+      if (results[c].max1 >= Gmaxp2) {
+        Gmaxp2 = results[c].max1;
+      }
+      if (results[c].max2 >= Gmaxn2) {
+        Gmaxn2 = results[c].max2;
+      }
+      if (results[c].minAt >= 0 && results[c].min <= obj_diff_min) {
+        obj_diff_min = results[c].min;
+        GminAt = results[c].minAt;
+      }
+    }
 
-    for (SolutionVector sv : active) {
-      if (sv.targetValue) {
-        if (!sv.isUpperBound()) {
-          if (-sv.G >= Gmaxp) {
-            Gmaxp = -sv.G;
-            GmaxpSV = sv;
+    return workingPair(y[GminAt] ? GmaxpSV : GmaxnSV, byRank[GminAt],
+        Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps);
+  }
+
+  /**
+   * The first scan of selectWorkingPair(): max1 and max2 are the best scores for the first SV of the pair among the
+   * positive and the negative SVs of the chunk, found at maxAt1 and maxAt2
+   */
+  private void selectFirst(ScanResult result, int from, int to) {
+    double maxp = Double.NEGATIVE_INFINITY;
+    double maxn = Double.NEGATIVE_INFINITY;
+    int maxpAt = -1;
+    int maxnAt = -1;
+    for (int i = from; i < to; i++) {
+      if (y[i]) {
+        if (!isUpperBound(i)) {
+          offerPrefetchCandidate(byRank[i], -G[i]);
+          if (-G[i] >= maxp) {
+            maxp = -G[i];
+            maxpAt = i;
           }
         }
       } else {
-        if (!sv.isLowerBound()) {
-          if (sv.G >= Gmaxn) {
-            Gmaxn = sv.G;
-            GmaxnSV = sv;
+        if (!isLowerBound(i)) {
+          offerPrefetchCandidate(byRank[i], G[i]);
+          if (G[i] >= maxn) {
+            maxn = G[i];
+            maxnAt = i;
           }
         }
       }
     }
+    result.max1 = maxp;
+    result.maxAt1 = maxpAt;
+    result.max2 = maxn;
+    result.maxAt2 = maxnAt;
+  }
 
-    Q.getQ(GmaxpSV, active, Q_svA);
-    Q.getQ(GmaxnSV, active, Q_svB);
-
-    for (SolutionVector sv : active) {
-      if (sv.targetValue) {
-        if (!sv.isLowerBound()) {
-          double grad_diff = Gmaxp + sv.G;
-          if (sv.G >= Gmaxp2) {
-            Gmaxp2 = sv.G;
+  /**
+   * The second scan of selectWorkingPair(), against both candidates for the first SV (whose rows are in Q_svA and
+   * Q_svB): max1 and max2 are Gmaxp2 and Gmaxn2 over the chunk, and min the best objective decrease, found at minAt
+   */
+  private void selectSecond(ScanResult result, int from, int to) {
+    final double[] Q_GmaxpSV = Q_svA;
+    final double[] Q_GmaxnSV = Q_svB;
+    double maxp2 = Double.NEGATIVE_INFINITY;
+    double maxn2 = Double.NEGATIVE_INFINITY;
+    double min = Double.POSITIVE_INFINITY;
+    int minAt = -1;
+    for (int i = from; i < to; i++) {
+      if (y[i]) {
+        if (!isLowerBound(i)) {
+          double grad_diff = selectedGp + G[i];
+          if (G[i] >= maxp2) {
+            maxp2 = G[i];
           }
           if (grad_diff > 0) {
             double obj_diff;
-            double quad_coef = Q.evaluateDiagonal(GmaxpSV) + Q.evaluateDiagonal(sv)
-                - 2.0 * Q_svA[sv.rank];
+            double quad_coef = selectedQDp + QD[i] - 2.0 * Q_GmaxpSV[i];
             if (quad_coef > 0) {
               obj_diff = -(grad_diff * grad_diff) / quad_coef;
             } else {
               obj_diff = -(grad_diff * grad_diff) / 1e-12;
             }
 
-            if (obj_diff <= obj_diff_min) {
-              GminSV = sv;
-              obj_diff_min = obj_diff;
+            if (obj_diff <= min) {
+              minAt = i;
+              min = obj_diff;
             }
           }
         }
       } else {
-        if (!sv.isUpperBound()) {
-          double grad_diff = Gmaxn - sv.G;
-          if (-sv.G >= Gmaxn2) {
-            Gmaxn2 = -sv.G;
+        if (!isUpperBound(i)) {
+          double grad_diff = selectedGn - G[i];
+          if (-G[i] >= maxn2) {
+            maxn2 = -G[i];
           }
           if (grad_diff > 0) {
             double obj_diff;
-
-            double quad_coef = Q.evaluateDiagonal(GmaxnSV) + Q.evaluateDiagonal(sv)
-                - 2.0 * Q_svB[sv.rank];
+            double quad_coef = selectedQDn + QD[i] - 2.0 * Q_GmaxnSV[i];
 
             if (quad_coef > 0) {
               obj_diff = -(grad_diff * grad_diff) / quad_coef;
@@ -224,16 +342,17 @@ public class Solver_NU<L extends Comparable> extends Solver<L> {
               obj_diff = -(grad_diff * grad_diff) / 1e-12;
             }
 
-            if (obj_diff <= obj_diff_min) {
-              GminSV = sv;
-              obj_diff_min = obj_diff;
+            if (obj_diff <= min) {
+              minAt = i;
+              min = obj_diff;
             }
           }
         }
       }
     }
-
-    return new SolutionVectorPair(GminSV.targetValue ? GmaxpSV : GmaxnSV, GminSV,
-        Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps);
+    result.max1 = maxp2;
+    result.max2 = maxn2;
+    result.min = min;
+    result.minAt = minAt;
   }
 }
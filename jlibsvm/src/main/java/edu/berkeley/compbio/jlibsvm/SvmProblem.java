@@ -35,5 +35,13 @@ public interface SvmProblem<L extends Comparable, R> {
 
   Stream<R> makeFolds(int numberOfFolds);
 
+  /**
+   * @return a problem made of the given number of examples of this one, chosen at random; or null if this problem can't
+   * be subsampled, in which case successive halving cross-validates every round on all of it
+   */
+  default R subsample(int numberOfExamples) {
+    return null;
+  }
+
   Set<SparseVector> getHeldOutPoints();
 }
@@ -0,0 +1,148 @@
+package edu.berkeley.compbio.jlibsvm;
+
+import edu.berkeley.compbio.jlibsvm.binary.AlphaModel;
+import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
+import edu.berkeley.compbio.jlibsvm.multi.MultiClassModel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where to start the optimization instead of from zero: the coefficient of each training example from an earlier
+ * solution, by the id of its point, with the sign convention of the models (y_i alpha_i for classification, alpha_i -
+ * alpha_i* for regression).  Retraining after a small change of the data, or at a neighbouring C, then usually takes a
+ * fraction of the iterations.
+ * <p/>
+ * Examples without a coefficient start from zero, and a coefficient whose sign disagrees with the current label is
+ * dropped.  The rest are clipped to the new bounds, and then the heavier class is scaled down until the equality
+ * constraint holds again, so the start is always feasible.  Only C_SVC and EpsilonSVR make use of this; the nu machines
+ * and the one-class SVM have starting points of their own.
+ *
+ * @version $Id$
+ */
+public class WarmStart {
+// ------------------------------ FIELDS ------------------------------
+
+  private final Map<Long, Double> coefficients;
+
+  /**
+   * For a multiclass model, the warm starts of its binary machines by their true and false labels
+   */
+  private final Map<List<Object>, WarmStart> machines;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  private WarmStart(Map<Long, Double> coefficients, Map<List<Object>, WarmStart> machines) {
+    this.coefficients = coefficients;
+    this.machines = machines;
+  }
+
+  /**
+   * @param coefficients the coefficient of each example by the id of its point
+   */
+  public static WarmStart of(Map<Long, Double> coefficients) {
+    return new WarmStart(new HashMap<>(coefficients), Collections.emptyMap());
+  }
+
+  /**
+   * Start from the solution of a binary or regression model trained earlier in this process, whose SVs still carry the
+   * ids of the training points
+   */
+  public static WarmStart of(AlphaModel<?> model) {
+    final Map<Long, Double> coefficients = new HashMap<>();
+    if (model.SVs != null) {
+      for (int i = 0; i < model.numSVs; i++) {
+        coefficients.put(model.SVs[i].getId(), model.alphas[i]);
+      }
+    } else {
+      model.supportVectors.forEach((point, alpha) -> coefficients.put(point.getId(), alpha));
+    }
+    return new WarmStart(coefficients, Collections.emptyMap());
+  }
+
+  /**
+   * Start each binary machine of a multiclass model from the machine with the same labels in the given model
+   */
+  public static WarmStart of(MultiClassModel<?> model) {
+    final Map<List<Object>, WarmStart> machines = new HashMap<>();
+    for (BinaryModel<?> binaryModel : model.getBinaryModels()) {
+      machines.put(Arrays.asList(binaryModel.getTrueLabel(), binaryModel.getFalseLabel()), of(binaryModel));
+    }
+    return new WarmStart(Collections.emptyMap(), machines);
+  }
+
+  /**
+   * Start from a binary, regression or multiclass model, as the other factories do
+   */
+  public static WarmStart of(SolutionModel<?> model) {
+    if (model instanceof MultiClassModel) {
+      return of((MultiClassModel<?>) model);
+    }
+    return of((AlphaModel<?>) model);
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the warm start for the binary machine separating the given labels; this one unless it was made from a
+   * multiclass model.  A machine found with its labels the other way around gets its coefficients negated.
+   */
+  public WarmStart forMachine(Object trueLabel, Object falseLabel) {
+    if (machines.isEmpty()) {
+      return this;
+    }
+
+    final WarmStart machine = machines.get(Arrays.asList(trueLabel, falseLabel));
+    if (machine != null) {
+      return machine;
+    }
+
+    final WarmStart inverse = machines.get(Arrays.asList(falseLabel, trueLabel));
+    if (inverse == null) {
+      return new WarmStart(Collections.emptyMap(), Collections.emptyMap());
+    }
+    final Map<Long, Double> negated = new HashMap<>();
+    inverse.coefficients.forEach((id, coefficient) -> negated.put(id, -coefficient));
+    return new WarmStart(negated, Collections.emptyMap());
+  }
+
+  /**
+   * Set the initial alpha of each of the given SVs from its coefficient, within [0, Cp] for the positive SVs and [0, Cn]
+   * for the negative ones, keeping sum y_i alpha_i at zero.  The regression SVs of a point are looked up by the same
+   * id, whatever its sign.
+   */
+  public void seed(List<SolutionVector> solutionVectors, double Cp, double Cn) {
+    double positive = 0;
+    double negative = 0;
+
+    for (SolutionVector sv : solutionVectors) {
+      final Double coefficient = coefficients.get(Math.abs(sv.id));
+      if (coefficient == null) {
+        sv.alpha = 0;
+      } else if (sv.targetValue) {
+        sv.alpha = Math.min(Math.max(coefficient, 0), Cp);
+        positive += sv.alpha;
+      } else {
+        sv.alpha = Math.min(Math.max(-coefficient, 0), Cn);
+        negative += sv.alpha;
+      }
+    }
+
+    // clipping and missing examples may have unbalanced the classes; scaling the heavier one down keeps it within bounds
+    if (positive > negative) {
+      scale(solutionVectors, true, negative / positive);
+    } else if (negative > positive) {
+      scale(solutionVectors, false, positive / negative);
+    }
+  }
+
+  private static void scale(List<SolutionVector> solutionVectors, boolean targetValue, double factor) {
+    for (SolutionVector sv : solutionVectors) {
+      if (sv.targetValue == targetValue) {
+        sv.alpha *= factor;
+      }
+    }
+  }
+}
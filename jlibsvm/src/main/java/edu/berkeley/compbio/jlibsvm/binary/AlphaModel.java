@@ -1,6 +1,7 @@
 package edu.berkeley.compbio.jlibsvm.binary;
 
 import edu.berkeley.compbio.jlibsvm.SolutionModel;
+import edu.berkeley.compbio.jlibsvm.qmatrix.KernelCacheStatistics;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import java.io.Serializable;
 import java.util.Map;
@@ -23,6 +24,12 @@ public abstract class AlphaModel<L extends Comparable> extends SolutionModel<L>
 
   public double rho;
 
+  /**
+   * How well the kernel cache served the training, or null if unknown (as for a model that was loaded).  Not written by
+   * the model file format.
+   */
+  public KernelCacheStatistics kernelCacheStatistics;
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
   protected AlphaModel() {
@@ -1,11 +1,14 @@
 package edu.berkeley.compbio.jlibsvm.binary;
 
 import com.google.common.base.Throwables;
+import edu.berkeley.compbio.jlibsvm.ContinuousModel;
+import edu.berkeley.compbio.jlibsvm.GridSearchMode;
 import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameter;
 import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterGrid;
 import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterPoint;
 import edu.berkeley.compbio.jlibsvm.SVM;
 import edu.berkeley.compbio.jlibsvm.SvmException;
+import edu.berkeley.compbio.jlibsvm.qmatrix.SharedKernelStore;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import java.io.Serializable;
 import java.util.Map;
@@ -48,18 +51,42 @@ public abstract class BinaryClassificationSVM<L extends Comparable>
        ImmutableSvmParameterGrid<L> param) {
     final GridTrainingResult gtresult = new GridTrainingResult();
 
-    param
-        .getGridParams()
-        .parallelStream()
-        .forEach(point -> {
-          // note we must use the CV variant in order to know which parameter set is best
-          SvmBinaryCrossValidationResults<L> crossValidationResults =
-              performCrossValidation(problem, point);
-          Logger.getGlobal()
-              .info("CV results for grid point " + point + ": " + crossValidationResults);
-          gtresult.update(point, crossValidationResults);
-
-        });
+    if (param.gridSearchMode == GridSearchMode.C_PATH) {
+      crossValidateAlongCPaths(problem, param, true,
+          (model, p) -> ((ContinuousModel) model).predictValue(p))
+          .forEach((point, decisionValues) -> {
+            SvmBinaryCrossValidationResults<L> crossValidationResults =
+                new SvmBinaryCrossValidationResults<L>(problem, decisionValues, point.probability);
+            Logger.getGlobal()
+                .info("CV results for grid point " + point + ": " + crossValidationResults);
+            gtresult.update(point, crossValidationResults);
+          });
+    } else if (param.gridSearchMode == GridSearchMode.SUCCESSIVE_HALVING) {
+      searchBySuccessiveHalving(problem, param, this::performCrossValidation,
+          SvmBinaryCrossValidationResults::classNormalizedSensitivity,
+          (point, crossValidationResults) -> {
+            Logger.getGlobal()
+                .info("CV results for grid point " + point + ": " + crossValidationResults);
+            gtresult.update(point, crossValidationResults);
+          });
+    } else {
+      final SharedKernelStore store = sharedKernelStoreFor(problem, param);
+      param
+          .getGridParams()
+          .parallelStream()
+          .forEach(point -> {
+            // note we must use the CV variant in order to know which parameter set is best
+            SvmBinaryCrossValidationResults<L> crossValidationResults =
+                performCrossValidation(problem, withSharedKernelStore(point, store));
+            Logger.getGlobal()
+                .info("CV results for grid point " + point + ": " + crossValidationResults);
+            gtresult.update(point, crossValidationResults);
+
+          });
+      if (store != null) {
+        Logger.getGlobal().info(store.toString());
+      }
+    }
 
     // no need for the iterator version here; the set of params doesn't require too much memory
     Logger.getGlobal().info("Chose grid point: " + gtresult.bestParam);
@@ -81,7 +108,7 @@ public abstract class BinaryClassificationSVM<L extends Comparable>
     synchronized void update(ImmutableSvmParameterPoint<L> gridParam,
         SvmBinaryCrossValidationResults<L> crossValidationResults) {
       double sensitivity = crossValidationResults.classNormalizedSensitivity();
-      if (sensitivity > bestSensitivity) {
+      if (sensitivity > bestSensitivity || (sensitivity == bestSensitivity && winsTie(gridParam, bestParam))) {
         bestParam = gridParam;
         bestSensitivity = sensitivity;
         bestCrossValidationResults = crossValidationResults;
@@ -153,9 +153,11 @@ public class BinaryModel<L extends Comparable> extends AlphaModel<L>
 
     SparseVector scaledX = scalingModel.scaledCopy(x);
 
+    double[] kvalues = new double[numSVs];
+    param.kernel.evaluateRow(scaledX, SVs, 0, numSVs, kvalues);
+
     for (int i = 0; i < numSVs; i++) {
-      double kvalue = param.kernel.evaluate(scaledX, SVs[i]);
-      sum += alphas[i] * kvalue;
+      sum += alphas[i] * kvalues[i];
     }
 
     sum -= rho;
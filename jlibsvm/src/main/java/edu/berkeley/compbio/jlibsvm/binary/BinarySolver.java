@@ -30,6 +30,7 @@ public class BinarySolver<L extends Comparable> extends Solver<L> {
     optimize();
 
     BinaryModel<L> model = new BinaryModel<>();
+    model.kernelCacheStatistics = getCacheStatistics();
 
     // calculate rho
     calculate_rho(model);
@@ -33,6 +33,7 @@ public class BinarySolverNu<L extends Comparable> extends Solver_NU<L> {
     int iter = optimize();
 
     BinaryModel<L> model = new BinaryModel<>();
+    model.kernelCacheStatistics = getCacheStatistics();
 
     // calculate rho
 
@@ -41,7 +42,8 @@ public class BinarySolverNu<L extends Comparable> extends Solver_NU<L> {
     // calculate objective value
 
     double v = 0;
-    for (SolutionVector svC : active) {
+    for (int i = 0; i < activeCount; i++) {
+      final SolutionVector svC = byRank[i];
       v += svC.alpha * (svC.G + svC.linearTerm);
     }
 
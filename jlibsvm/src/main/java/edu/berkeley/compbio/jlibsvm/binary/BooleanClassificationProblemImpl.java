@@ -4,7 +4,6 @@ import com.google.common.collect.HashMultiset;
 import edu.berkeley.compbio.jlibsvm.scaler.ScalingModelLearner;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -126,7 +125,7 @@ public class BooleanClassificationProblemImpl<L extends Comparable> extends
 
     List<SparseVector> points = new ArrayList<>(getBooleanExamples().keySet());
 
-    Collections.shuffle(points);
+    shuffle(points);
 
     // PERF this is maybe overwrought, but ensures the best possible balance among folds (unlike examples.size() / numberOfFolds)
 
@@ -149,6 +148,16 @@ public class BooleanClassificationProblemImpl<L extends Comparable> extends
   }
 
 
+  // need to override this because of the examples == null hack
+  public BinaryClassificationProblem<L> subsample(int numberOfExamples) {
+    List<SparseVector> points = new ArrayList<>(getBooleanExamples().keySet());
+
+    shuffle(points);
+
+    return makeFold(new HashSet<>(points.subList(numberOfExamples, points.size())));
+  }
+
+
   protected BooleanClassificationProblemImpl<L> makeFold(Set<SparseVector> heldOutPoints) {
     return new BooleanClassificationProblemImpl(this, heldOutPoints);
   }
@@ -35,9 +35,12 @@ public class C_SVC<L extends Comparable> extends BinaryClassificationSVM<L> {
       solutionVectors.add(sv);
     }
 
+    if (param.warmStart != null) {
+      param.warmStart.forMachine(problem.getTrueLabel(), problem.getFalseLabel()).seed(solutionVectors, Cp, Cn);
+    }
+
     QMatrix qMatrix =
-        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(),
-            param.getCacheRows());
+        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(), param);
 
     BinarySolver<L> s = new BinarySolver<L>(
         solutionVectors,
@@ -48,6 +51,7 @@ public class C_SVC<L extends Comparable> extends BinaryClassificationSVM<L> {
         param.shrinking,
         param.maxIterations);
 
+    s.setParallelScans(param.kernelPool, param.parallelScanThreshold);
     BinaryModel<L> model = s.solve();
 
     model.param = param;
@@ -23,7 +23,7 @@ public class MutableBinaryClassificationProblemImpl<L extends Comparable>
 // --------------------- Interface MutableSvmProblem ---------------------
 
   public void addExample(SparseVector point, L label) {
-    examples.put(point, label);
+    examples.put(point.withPreferredStorage(), label);
   }
 
   public void addExampleFloat(SparseVector point, Double x) {
@@ -63,12 +63,12 @@ public class Nu_SVC<L extends Comparable> extends BinaryClassificationSVM<L> {
     }
 
     QMatrix qMatrix =
-        new BooleanInvertingKernelQMatrix(param.kernel, problem.getNumExamples(),
-            param.getCacheRows());
+        new BooleanInvertingKernelQMatrix(param.kernel, problem.getNumExamples(), param);
     BinarySolverNu<L> s =
         new BinarySolverNu<>(solutionVectors, qMatrix, 1.0, 1.0, param.eps, param.shrinking,
             param.maxIterations);
 
+    s.setParallelScans(param.kernelPool, param.parallelScanThreshold);
     BinaryModel<L> model = s.solve();
 
     model.param = param;
@@ -1,5 +1,8 @@
 package edu.berkeley.compbio.jlibsvm.kernel;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 
 /**
@@ -9,13 +12,22 @@ import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 public class CompositeGaussianRBFKernel extends GammaKernel {
 // ------------------------------ FIELDS ------------------------------
 
-  KernelFunction underlyingKernel;
+  final KernelFunction underlyingKernel;
+
+  /**
+   * underlyingKernel(x, x) for each vector seen so far.  Weak keys compare by identity and let the entries go when the
+   * vectors do.  Not used for a LinearKernel, whose squares the vectors cache themselves.
+   */
+  private final LoadingCache<SparseVector, Double> squares;
 
 // --------------------------- CONSTRUCTORS ---------------------------
 
   public CompositeGaussianRBFKernel(double gamma, KernelFunction underlyingKernel) {
     super(gamma);
     this.underlyingKernel = underlyingKernel;
+    this.squares = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(CacheLoader.from(x -> underlyingKernel.evaluate(x, x)));
   }
 
 // ------------------------ INTERFACE METHODS ------------------------
@@ -26,9 +38,8 @@ public class CompositeGaussianRBFKernel extends GammaKernel {
     // we're looking for the square of the distance between x and y in the original space
     // which equals x_square + y_square - 2 * dot(x, y);
 
-    // ** should cache the squares?
-    double xSquare = underlyingKernel.evaluate(x, x);
-    double ySquare = underlyingKernel.evaluate(y, y);
+    double xSquare = square(x);
+    double ySquare = square(y);
 
     double differenceNormSquared = xSquare + ySquare - (2.0 * underlyingKernel.evaluate(x, y));
 
@@ -36,4 +47,13 @@ public class CompositeGaussianRBFKernel extends GammaKernel {
 
     return result;
   }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  private double square(SparseVector x) {
+    if (underlyingKernel instanceof LinearKernel) {
+      return x.squaredNorm();
+    }
+    return squares.getUnchecked(x);
+  }
 }
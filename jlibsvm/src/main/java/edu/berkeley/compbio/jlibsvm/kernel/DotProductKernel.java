@@ -0,0 +1,17 @@
+package edu.berkeley.compbio.jlibsvm.kernel;
+
+/**
+ * A kernel whose value depends on its arguments only through their dot product and their squared norms.  Callers that
+ * can get many dot products at once more cheaply than by evaluating the kernel pairwise (e.g. from a column index of
+ * the training set) can then apply the kernel to those directly.
+ *
+ * @version $Id$
+ */
+public interface DotProductKernel extends KernelFunction {
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the kernel value for vectors x and y, given x.y, x.x and y.y
+   */
+  double evaluateFromDot(double dot, double xSquaredNorm, double ySquaredNorm);
+}
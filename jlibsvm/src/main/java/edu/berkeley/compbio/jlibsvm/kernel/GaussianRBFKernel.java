@@ -7,7 +7,7 @@ import java.util.Properties;
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
  */
-public class GaussianRBFKernel extends GammaKernel {
+public class GaussianRBFKernel extends GammaKernel implements DotProductKernel {
 
 
   // --------------------------- CONSTRUCTORS ---------------------------
@@ -39,10 +39,31 @@ public class GaussianRBFKernel extends GammaKernel {
 
 // --------------------- Interface KernelFunction ---------------------
 
-  public double evaluate( SparseVector x,  SparseVector y) {
-    // try doing the internal stuff at double precision
+  public double evaluate(SparseVector x, SparseVector y) {
+    // ||x-y||^2 = ||x||^2 + ||y||^2 - 2 x.y, as in LIBSVM.  The squared norms are cached on the vectors, so this costs
+    // one sparse dot product.  Rounding can push the distance of (nearly) identical points slightly below zero.
 
-    return Math.exp(-gamma * SparseVector.squareNorm(x, y));
+    double differenceNormSquared = x.squaredNorm() + y.squaredNorm() - 2.0 * SparseVector.dot(x, y);
 
+    return Math.exp(-gamma * Math.max(differenceNormSquared, 0.0));
+  }
+
+  @Override
+  public void evaluateRow(SparseVector x, SparseVector[] ys, int from, int to, double[] out) {
+    final double xSquare = x.squaredNorm();
+    final double negativeGamma = -gamma;
+
+    for (int i = from; i < to; i++) {
+      final SparseVector y = ys[i];
+      final double differenceNormSquared = xSquare + y.squaredNorm() - 2.0 * SparseVector.dot(x, y);
+      out[i] = Math.exp(negativeGamma * Math.max(differenceNormSquared, 0.0));
+    }
+  }
+
+// --------------------- Interface DotProductKernel ---------------------
+
+  public double evaluateFromDot(double dot, double xSquaredNorm, double ySquaredNorm) {
+    final double differenceNormSquared = xSquaredNorm + ySquaredNorm - 2.0 * dot;
+    return Math.exp(-gamma * Math.max(differenceNormSquared, 0.0));
   }
 }
@@ -11,4 +11,19 @@ public interface KernelFunction {
 
   double evaluate(SparseVector x, SparseVector y);
 
+  /**
+   * Evaluate the kernel between x and each of ys[from, to), writing the results to the same positions of out.
+   * <p/>
+   * The default just calls evaluate() once per element; kernels override this to do the work that depends only on x
+   * once per row instead of once per element.
+   */
+  default void evaluateRow(SparseVector x, SparseVector[] ys, int from, int to, double[] out) {
+    for (int i = from; i < to; i++) {
+      out[i] = evaluate(x, ys[i]);
+    }
+  }
+
+  default void evaluateRow(SparseVector x, SparseVector[] ys, double[] out) {
+    evaluateRow(x, ys, 0, ys.length, out);
+  }
 }
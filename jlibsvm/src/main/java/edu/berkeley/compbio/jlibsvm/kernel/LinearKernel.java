@@ -6,7 +6,7 @@ import edu.berkeley.compbio.jlibsvm.util.SparseVector;
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
  */
-public class LinearKernel implements KernelFunction {
+public class LinearKernel implements DotProductKernel {
 // ------------------------ CANONICAL METHODS ------------------------
 
   public String toString() {
@@ -22,4 +22,17 @@ public class LinearKernel implements KernelFunction {
   public double evaluate(SparseVector x, SparseVector y) {
     return SparseVector.dot(x, y);
   }
+
+  @Override
+  public void evaluateRow(SparseVector x, SparseVector[] ys, int from, int to, double[] out) {
+    for (int i = from; i < to; i++) {
+      out[i] = SparseVector.dot(x, ys[i]);
+    }
+  }
+
+// --------------------- Interface DotProductKernel ---------------------
+
+  public double evaluateFromDot(double dot, double xSquaredNorm, double ySquaredNorm) {
+    return dot;
+  }
 }
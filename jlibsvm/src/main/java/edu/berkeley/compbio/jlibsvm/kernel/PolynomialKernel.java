@@ -8,7 +8,7 @@ import edu.berkeley.compbio.jlibsvm.util.SparseVector;
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
  */
-public class PolynomialKernel extends GammaKernel {
+public class PolynomialKernel extends GammaKernel implements DotProductKernel {
 // ------------------------------ FIELDS ------------------------------
 
   public int degree;
@@ -44,4 +44,21 @@ public class PolynomialKernel extends GammaKernel {
   public double evaluate(SparseVector x, SparseVector y) {
     return MathSupport.powi(gamma * SparseVector.dot(x, y) + coef0, degree);
   }
+
+  @Override
+  public void evaluateRow(SparseVector x, SparseVector[] ys, int from, int to, double[] out) {
+    final double gamma = this.gamma;
+    final double coef0 = this.coef0;
+    final int degree = this.degree;
+
+    for (int i = from; i < to; i++) {
+      out[i] = MathSupport.powi(gamma * SparseVector.dot(x, ys[i]) + coef0, degree);
+    }
+  }
+
+// --------------------- Interface DotProductKernel ---------------------
+
+  public double evaluateFromDot(double dot, double xSquaredNorm, double ySquaredNorm) {
+    return MathSupport.powi(gamma * dot + coef0, degree);
+  }
 }
@@ -7,7 +7,7 @@ import java.util.Properties;
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
  */
-public class SigmoidKernel extends GammaKernel {
+public class SigmoidKernel extends GammaKernel implements DotProductKernel {
 // ------------------------------ FIELDS ------------------------------
 
   public double coef0;
@@ -41,4 +41,20 @@ public class SigmoidKernel extends GammaKernel {
   public double evaluate(SparseVector x, SparseVector y) {
     return Math.tanh(gamma * SparseVector.dot(x, y) + coef0);
   }
+
+  @Override
+  public void evaluateRow(SparseVector x, SparseVector[] ys, int from, int to, double[] out) {
+    final double gamma = this.gamma;
+    final double coef0 = this.coef0;
+
+    for (int i = from; i < to; i++) {
+      out[i] = Math.tanh(gamma * SparseVector.dot(x, ys[i]) + coef0);
+    }
+  }
+
+// --------------------- Interface DotProductKernel ---------------------
+
+  public double evaluateFromDot(double dot, double xSquaredNorm, double ySquaredNorm) {
+    return Math.tanh(gamma * dot + coef0);
+  }
 }
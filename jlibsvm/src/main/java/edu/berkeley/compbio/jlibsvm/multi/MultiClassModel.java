@@ -150,11 +150,7 @@ public class MultiClassModel<L extends Comparable> extends SolutionModel<L> impl
       @Override
       public double[] load(KernelFunction kernel) {
         double[] kvalues = new double[allSVs.length];
-        int i = 0;
-        for (SparseVector sv : allSVs) {
-          kvalues[i] = kernel.evaluate(scaledX, sv);
-          i++;
-        }
+        kernel.evaluateRow(scaledX, allSVs, kvalues);
         return kvalues;
       }
     };
@@ -486,6 +482,17 @@ public class MultiClassModel<L extends Comparable> extends SolutionModel<L> impl
     oneVsOneModels.put(label1, label2, binaryModel);
   }
 
+  /**
+   * @return the one-vs-all machines, then the one-vs-one machines
+   */
+  public synchronized Collection<BinaryModel<L>> getBinaryModels() {
+    final List<BinaryModel<L>> result = new ArrayList<>(oneVsAllModels.values());
+    for (BinaryModel<L> binaryModel : oneVsOneModels.values()) {
+      result.add(binaryModel);
+    }
+    return result;
+  }
+
   protected void readSupportVectors(BufferedReader fp) {
     //BAD Implement support vector I/O
     throw new UnsupportedOperationException();
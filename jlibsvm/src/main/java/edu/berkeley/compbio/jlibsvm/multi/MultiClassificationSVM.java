@@ -1,13 +1,16 @@
 package edu.berkeley.compbio.jlibsvm.multi;
 
+import edu.berkeley.compbio.jlibsvm.GridSearchMode;
 import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameter;
 import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterGrid;
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterPoint;
 import edu.berkeley.compbio.jlibsvm.SVM;
 import edu.berkeley.compbio.jlibsvm.binary.BinaryClassificationProblem;
 import edu.berkeley.compbio.jlibsvm.binary.BinaryClassificationSVM;
 import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
 import edu.berkeley.compbio.jlibsvm.binary.BooleanClassificationProblemImpl;
 import edu.berkeley.compbio.jlibsvm.labelinverter.LabelInverter;
+import edu.berkeley.compbio.jlibsvm.qmatrix.SharedKernelStore;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 import edu.berkeley.compbio.jlibsvm.util.SubtractionMap;
 import java.util.ArrayList;
@@ -74,18 +77,42 @@ public class MultiClassificationSVM<L extends Comparable<L>> extends
        final ImmutableSvmParameterGrid<L> param) {
     final GridTrainingResult gtresult = new GridTrainingResult();
 
-    param
-        .getGridParams()
-        .stream()
-        .parallel()
-        .forEach(point -> {
-          // note we must use the CV variant in order to know which parameter set is best
-          SvmMultiClassCrossValidationResults<L> crossValidationResults =
-              performCrossValidation(problem, point); //, execService);
-          gtresult.update(crossValidationResults); //
-          // if we did a grid search, keep track of which parameter set was used for these results
+    if (param.gridSearchMode == GridSearchMode.C_PATH) {
+      // as in discreteCrossValidation, the fold models keep the probability setting of the grid point
+      crossValidateAlongCPaths(problem, param, false,
+          (model, p) -> ((MultiClassModel<L>) model).predictLabel(p))
+          .forEach((point, predictions) -> {
+            SvmMultiClassCrossValidationResults<L> crossValidationResults =
+                new SvmMultiClassCrossValidationResults<>(problem, predictions);
+            crossValidationResults.param = point;
+            gtresult.update(crossValidationResults);
+          });
+    } else if (param.gridSearchMode == GridSearchMode.SUCCESSIVE_HALVING) {
+      searchBySuccessiveHalving(problem, param, this::performCrossValidation,
+          SvmMultiClassCrossValidationResults::classNormalizedSensitivity,
+          (point, crossValidationResults) -> {
+            crossValidationResults.param = point;
+            gtresult.update(crossValidationResults);
+          });
+    } else {
+      final SharedKernelStore store = sharedKernelStoreFor(problem, param);
+      param
+          .getGridParams()
+          .stream()
+          .parallel()
+          .forEach(point -> {
+            // note we must use the CV variant in order to know which parameter set is best
+            SvmMultiClassCrossValidationResults<L> crossValidationResults =
+                performCrossValidation(problem, withSharedKernelStore(point, store)); //, execService);
+            // if we did a grid search, keep track of which parameter set was used for these results
+            crossValidationResults.param = point;
+            gtresult.update(crossValidationResults); //
 
-        });
+          });
+      if (store != null) {
+        Logger.getGlobal().info(store.toString());
+      }
+    }
 
     Logger.getGlobal().info("Chose grid point: " + gtresult.bestCrossValidationResults.param);
 
@@ -105,7 +132,9 @@ public class MultiClassificationSVM<L extends Comparable<L>> extends
     synchronized void update(
         SvmMultiClassCrossValidationResults<L> crossValidationResults) {
       double sensitivity = crossValidationResults.classNormalizedSensitivity();
-      if (sensitivity > bestSensitivity) {
+      if (sensitivity > bestSensitivity || (sensitivity == bestSensitivity
+          && winsTie((ImmutableSvmParameterPoint<L>) crossValidationResults.param,
+          (ImmutableSvmParameterPoint<L>) bestCrossValidationResults.param))) {
         bestSensitivity = sensitivity;
         bestCrossValidationResults = crossValidationResults;
       }
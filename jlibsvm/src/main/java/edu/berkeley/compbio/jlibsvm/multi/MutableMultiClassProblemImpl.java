@@ -33,7 +33,7 @@ public class MutableMultiClassProblemImpl<L extends Comparable> extends
 // --------------------- Interface MutableSvmProblem ---------------------
 
   public void addExample(SparseVector point, L label) {
-    examples.put(point, label);
+    examples.put(point.withPreferredStorage(), label);
   }
 
   public void addExampleFloat(SparseVector point, Double x) {
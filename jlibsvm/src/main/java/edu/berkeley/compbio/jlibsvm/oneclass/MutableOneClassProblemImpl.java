@@ -21,7 +21,7 @@ public class MutableOneClassProblemImpl<L> extends OneClassProblemImpl<L>
 // --------------------- Interface MutableSvmProblem ---------------------
 
   public void addExample(SparseVector point, Double label) {
-    examples.put(point, label);
+    examples.put(point.withPreferredStorage(), label);
   }
 
   public void addExampleFloat(SparseVector point, Double x) {
@@ -66,8 +66,7 @@ public class OneClassSVC<L extends Comparable> extends RegressionSVM<OneClassPro
     }
 
     QMatrix qMatrix =
-        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(),
-            param.getCacheRows());
+        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(), param);
     OneClassSolver<L> s = new OneClassSolver<>(
         solutionVectors,
         qMatrix,
@@ -76,6 +75,7 @@ public class OneClassSVC<L extends Comparable> extends RegressionSVM<OneClassPro
         param.shrinking,
         param.maxIterations);
 
+    s.setParallelScans(param.kernelPool, param.parallelScanThreshold);
     OneClassModel<L> model = s.solve();
 
     model.param = param;
@@ -29,6 +29,7 @@ public class OneClassSolver<L> extends Solver<Double> {
     optimize();
 
     OneClassModel<L> model = new OneClassModel<L>();
+    model.kernelCacheStatistics = getCacheStatistics();
 
     calculate_rho(model);
 
@@ -1,5 +1,6 @@
 package edu.berkeley.compbio.jlibsvm.qmatrix;
 
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameter;
 import edu.berkeley.compbio.jlibsvm.SolutionVector;
 import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
 
@@ -10,13 +11,46 @@ import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
 public class BasicKernelQMatrix extends KernelQMatrix {
 // --------------------------- CONSTRUCTORS ---------------------------
 
-  public BasicKernelQMatrix( KernelFunction kernel, int numExamples, int maxCachedRank) {
-    super(kernel, numExamples, maxCachedRank);
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   */
+  public BasicKernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes) {
+    super(kernel, numExamples, cacheBytes);
+  }
+
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   * @param cacheMode  how the cached values are organized within that budget
+   */
+  public BasicKernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes,
+      KernelCacheMode cacheMode) {
+    super(kernel, numExamples, cacheBytes, cacheMode);
+  }
+
+  /**
+   * Cache according to the cache_size, kernelCacheMode, singlePrecisionKernelCache, kernelSpillDirectory and
+   * kernelSpillSize of the given parameters
+   */
+  public BasicKernelQMatrix(KernelFunction kernel, int numExamples, ImmutableSvmParameter<?> param) {
+    super(kernel, numExamples, param);
+  }
+
+  /**
+   * @deprecated the cache is now sized in bytes; use the constructor taking a long cacheBytes
+   */
+  @Deprecated
+  public BasicKernelQMatrix(KernelFunction kernel, int numExamples, int maxCachedRank) {
+    this(kernel, numExamples, (long) maxCachedRank * maxCachedRank * Double.BYTES);
   }
 
 // -------------------------- OTHER METHODS --------------------------
 
   public double computeQ(SolutionVector a, SolutionVector b) {
-    return kernel.evaluate(a.point, b.point);
+    return evaluateKernel(a, b);
+  }
+
+  @Override
+  public void computeQ(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    evaluateKernelRow(a, bs, from, to, out);
   }
 }
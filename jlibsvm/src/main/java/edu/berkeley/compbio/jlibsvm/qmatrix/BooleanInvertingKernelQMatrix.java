@@ -1,5 +1,6 @@
 package edu.berkeley.compbio.jlibsvm.qmatrix;
 
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameter;
 import edu.berkeley.compbio.jlibsvm.SolutionVector;
 import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
 
@@ -10,15 +11,52 @@ import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
 public class BooleanInvertingKernelQMatrix extends BasicKernelQMatrix {
 // --------------------------- CONSTRUCTORS ---------------------------
 
-  public BooleanInvertingKernelQMatrix( KernelFunction kernel, int numExamples,
-      int maxCachedRank) {
-    super(kernel, numExamples, maxCachedRank);
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   */
+  public BooleanInvertingKernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes) {
+    super(kernel, numExamples, cacheBytes);
+  }
+
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   * @param cacheMode  how the cached values are organized within that budget
+   */
+  public BooleanInvertingKernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes,
+      KernelCacheMode cacheMode) {
+    super(kernel, numExamples, cacheBytes, cacheMode);
+  }
+
+  /**
+   * Cache according to the cache_size, kernelCacheMode, singlePrecisionKernelCache, kernelSpillDirectory and
+   * kernelSpillSize of the given parameters
+   */
+  public BooleanInvertingKernelQMatrix(KernelFunction kernel, int numExamples, ImmutableSvmParameter<?> param) {
+    super(kernel, numExamples, param);
+  }
+
+  /**
+   * @deprecated the cache is now sized in bytes; use the constructor taking a long cacheBytes
+   */
+  @Deprecated
+  public BooleanInvertingKernelQMatrix(KernelFunction kernel, int numExamples, int maxCachedRank) {
+    this(kernel, numExamples, (long) maxCachedRank * maxCachedRank * Double.BYTES);
   }
 
 // -------------------------- OTHER METHODS --------------------------
 
   public double computeQ(SolutionVector a, SolutionVector b) {
-    return (((a.targetValue == b.targetValue) ? 1 : -1) * kernel
-        .evaluate(a.point, b.point));
+    return (((a.targetValue == b.targetValue) ? 1 : -1) * evaluateKernel(a, b));
+  }
+
+  @Override
+  public void computeQ(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    evaluateKernelRow(a, bs, from, to, out);
+
+    for (int i = from; i < to; i++) {
+      if (a.targetValue != bs[i].targetValue) {
+        out[i] = -out[i];
+      }
+    }
   }
 }
@@ -1,11 +1,16 @@
 package edu.berkeley.compbio.jlibsvm.qmatrix;
 
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
 import edu.berkeley.compbio.jlibsvm.SvmException;
 
 /**
  * Kernel Cache
  * <p/>
  * l is the number of total data items size is the cache size limit in bytes
+ * <p/>
+ * Each entry holds a prefix [0, len) of one row of Q, evicting the least recently used rows when the budget runs out.
+ * Unlike the C++ original the entries are doubles unless singlePrecision is requested, and each head_t is a separate
+ * object, so the budget is counted accordingly.
  *
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
@@ -14,28 +19,61 @@ import edu.berkeley.compbio.jlibsvm.SvmException;
 class Cache {
 // ------------------------------ FIELDS ------------------------------
 
+  /**
+   * A head_t object plus the header of its data array, on a 64-bit JVM with compressed oops
+   */
+  private static final long HEAD_BYTES = 48;
+
   private final int l;
+  private final boolean singlePrecision;
   private long size;
+  private final long capacity;
 
   private final head_t[] head;
   private head_t lru_head;
 
+  private EvictionListener evictionListener;
+
+  /**
+   * Chooses the rows to evict, or null to evict the least recently used one directly.  It is shown the SVs of the
+   * cached rows, by way of svByRank, which the owner keeps up to date.
+   */
+  private KernelCachePolicy policy;
+  private SolutionVector[] svByRank;
+
+  // scratch space for presenting the cached rows to the policy
+  private head_t[] candidates;
+  private SolutionVector[] candidateSVs;
+  private long[] candidateUses;
+
+  long evictions = 0;
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
   Cache(int l_, long size_) {
+    this(l_, size_, false);
+  }
+
+  /**
+   * @param singlePrecision whether to store floats instead of doubles, fitting twice as many entries in the budget
+   */
+  Cache(int l_, long size_, boolean singlePrecision) {
     if (size_ < 0) {
       throw new SvmException("Cache size < 0");
     }
     l = l_;
+    this.singlePrecision = singlePrecision;
     size = size_;
     head = new head_t[l];
     for (int i = 0; i < l; i++) {
-      head[i] = new head_t();
+      head[i] = new head_t(i);
     }
-    size /= 4;
-    size -= l * (16L / 4L);// sizeof(head_t) == 16
+    final int entryBytes = singlePrecision ? Float.BYTES : Double.BYTES;
+    size /= entryBytes;
+    size -= l * (HEAD_BYTES / entryBytes);
     size = Math.max(size, 2 * (long) l);// cache must be large enough for two columns
-    lru_head = new head_t();
+    capacity = size;
+    lru_head = new head_t(-1);
     lru_head.next = lru_head.prev = lru_head;
   }
 
@@ -48,6 +86,19 @@ class Cache {
 
   int get_data(int index, double[][] data, int len) {
     head_t h = head[index];
+    len = reserve(h, len);
+    data[0] = h.data;
+    return len;
+  }
+
+  int get_data(int index, float[][] data, int len) {
+    head_t h = head[index];
+    len = reserve(h, len);
+    data[0] = h.floatData;
+    return len;
+  }
+
+  private int reserve(head_t h, int len) {
     if (h.len > 0) {
       lru_delete(h);
     }
@@ -56,19 +107,33 @@ class Cache {
     if (more > 0) {
       // free old space
       while (size < more) {
-        head_t old = lru_head.next;
+        head_t old = policy == null ? lru_head.next : selectVictim();
         lru_delete(old);
+        evictions++;
+        if (evictionListener != null) {
+          evictionListener.evicted(old.index, old.data, old.floatData, old.len);
+        }
         size += old.len;
         old.data = null;
+        old.floatData = null;
         old.len = 0;
+        old.uses = 0;
       }
 
       // allocate new space
-      double[] new_data = new double[len];
-      if (h.data != null) {
-        System.arraycopy(h.data, 0, new_data, 0, h.len);
+      if (singlePrecision) {
+        float[] new_data = new float[len];
+        if (h.floatData != null) {
+          System.arraycopy(h.floatData, 0, new_data, 0, h.len);
+        }
+        h.floatData = new_data;
+      } else {
+        double[] new_data = new double[len];
+        if (h.data != null) {
+          System.arraycopy(h.data, 0, new_data, 0, h.len);
+        }
+        h.data = new_data;
       }
-      h.data = new_data;
       size -= more;
       do {
         int temp = h.len;
@@ -78,11 +143,70 @@ class Cache {
       while (false);
     }
 
+    h.uses++;
     lru_insert(h);
-    data[0] = h.data;
     return len;
   }
 
+  /**
+   * Ask the policy which of the cached rows to evict
+   */
+  private head_t selectVictim() {
+    int count = 0;
+    for (head_t h = lru_head.next; h != lru_head; h = h.next) {
+      candidates[count] = h;
+      candidateSVs[count] = svByRank[h.index];
+      candidateUses[count] = h.uses;
+      count++;
+    }
+    return candidates[policy.selectVictim(candidateSVs, candidateUses, count)];
+  }
+
+  /**
+   * Let the given policy choose the rows to evict
+   *
+   * @param svByRank the SV at each rank, which the caller must keep up to date as ranks are swapped
+   */
+  void setPolicy(KernelCachePolicy policy, SolutionVector[] svByRank) {
+    this.policy = policy;
+    this.svByRank = svByRank;
+    candidates = new head_t[l];
+    candidateSVs = new SolutionVector[l];
+    candidateUses = new long[l];
+  }
+
+  /**
+   * Be told about each row that is evicted to make room for another.  (Rows given up by swap_index are not reported,
+   * since their columns are no longer consistent.)
+   */
+  void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * The cached data of the given index if it covers [0,len), else null.  Unlike get_data this does not count as a use.
+   */
+  double[] peek_data(int index, int len) {
+    head_t h = head[index];
+    return h.len >= len ? h.data : null;
+  }
+
+  float[] peek_float_data(int index, int len) {
+    head_t h = head[index];
+    return h.len >= len ? h.floatData : null;
+  }
+
+  /**
+   * The number of entries allocated to rows, out of the budget
+   */
+  long used() {
+    return capacity - size;
+  }
+
+  long capacity() {
+    return capacity;
+  }
+
   private void lru_delete(head_t h) {
     // delete from current location
     h.prev.next = h.next;
@@ -114,12 +238,24 @@ class Cache {
       head[j].data = temp;
     }
     while (false);
+    do {
+      float[] temp = head[i].floatData;
+      head[i].floatData = head[j].floatData;
+      head[j].floatData = temp;
+    }
+    while (false);
     do {
       int temp = head[i].len;
       head[i].len = head[j].len;
       head[j].len = temp;
     }
     while (false);
+    do {
+      long temp = head[i].uses;
+      head[i].uses = head[j].uses;
+      head[j].uses = temp;
+    }
+    while (false);
     if (head[i].len > 0) {
       lru_insert(head[i]);
     }
@@ -138,18 +274,23 @@ class Cache {
     for (head_t h = lru_head.next; h != lru_head; h = h.next) {
       if (h.len > i) {
         if (h.len > j) {
-          do {
+          if (singlePrecision) {
+            float temp = h.floatData[i];
+            h.floatData[i] = h.floatData[j];
+            h.floatData[j] = temp;
+          } else {
             double temp = h.data[i];
             h.data[i] = h.data[j];
             h.data[j] = temp;
           }
-          while (false);
         } else {
           // give up
           lru_delete(h);
           size += h.len;
           h.data = null;
+          h.floatData = null;
           h.len = 0;
+          h.uses = 0;
         }
       }
     }
@@ -157,11 +298,27 @@ class Cache {
 
 // -------------------------- INNER CLASSES --------------------------
 
+  interface EvictionListener {
+    /**
+     * @param index     the row being evicted
+     * @param data      its entries [0,len), if it is double precision
+     * @param floatData its entries [0,len), if it is single precision
+     */
+    void evicted(int index, double[] data, float[] floatData, int len);
+  }
+
   private static final class head_t {
 // ------------------------------ FIELDS ------------------------------
 
+    final int index;// the row that this head always describes, though its data moves around
     head_t prev, next;// a circular list
     double[] data;
+    float[] floatData;// instead of data, if singlePrecision
     int len;// data[0,len) is cached in this entry
+    long uses;// requests for this row since it was cached
+
+    head_t(int index) {
+      this.index = index;
+    }
   }
 }
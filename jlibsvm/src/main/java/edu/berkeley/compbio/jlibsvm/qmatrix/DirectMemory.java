@@ -0,0 +1,62 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * There's no public API for freeing a direct or mapped buffer before it is collected.  Java 9+ offers
+ * Unsafe.invokeCleaner(), and Java 8 exposes the buffer's Cleaner; if neither is reachable, the memory is left to the
+ * garbage collector.
+ *
+ * @version $Id$
+ */
+final class DirectMemory {
+// ------------------------------ FIELDS ------------------------------
+
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  private DirectMemory() {
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  /**
+   * Free the memory of the given direct or mapped buffer now.  Neither it nor any view of it may be used afterwards.
+   */
+  static void free(ByteBuffer buffer) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+        final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        final Object cleaner = cleanerMethod.invoke(buffer);
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      Logger.getGlobal().log(Level.FINE, "Direct memory will be freed by the garbage collector", e);
+    }
+  }
+}
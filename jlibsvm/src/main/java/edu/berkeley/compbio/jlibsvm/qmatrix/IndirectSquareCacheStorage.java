@@ -0,0 +1,259 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+/**
+ * Square cache storage that swaps ranks through a map from each rank to the physical row and column holding its values,
+ * instead of moving the values.  A swap is then O(1) rather than a pass over every cached row; the price is that reading
+ * a row gathers it through the map, instead of copying it as a block.
+ * <p/>
+ * Once enough ranks are away from home that the gather costs more than it saves, the next read compacts the storage,
+ * moving the values back to the physical positions of their ranks in one pass over the cached rows.
+ *
+ * @version $Id$
+ */
+class IndirectSquareCacheStorage extends SquareCacheStorage {
+// ------------------------------ FIELDS ------------------------------
+
+  private static final float FLOAT_NOTCACHED = Float.NEGATIVE_INFINITY;
+
+  private final boolean singlePrecision;
+
+  // the rows by physical position, as doubles or as floats depending on singlePrecision
+  private final double[][] doubleRows;
+  private final float[][] floatRows;
+
+  /**
+   * The physical row and column of each rank
+   */
+  private final int[] physical;
+
+  /**
+   * How many ranks are away from their own physical position
+   */
+  private int displaced = 0;
+
+  /**
+   * Compact on the next read once more than this many ranks are displaced
+   */
+  private final int compactionThreshold;
+
+  private final double[] doubleScratch;
+  private final float[] floatScratch;
+
+  int compactions = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  IndirectSquareCacheStorage(int size, boolean singlePrecision) {
+    super(size);
+    this.singlePrecision = singlePrecision;
+
+    doubleRows = singlePrecision ? null : new double[size][];
+    floatRows = singlePrecision ? new float[size][] : null;
+    doubleScratch = singlePrecision ? null : new double[size];
+    floatScratch = singlePrecision ? new float[size] : null;
+
+    physical = new int[size];
+    for (int i = 0; i < size; i++) {
+      physical[i] = i;
+    }
+
+    compactionThreshold = size / 4;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  void allocate(int row) {
+    final int p = physical[row];
+    if (singlePrecision) {
+      if (floatRows[p] == null) {
+        final float[] values = new float[size];
+        for (int q = 0; q < size; q++) {
+          final float[] other = floatRows[q];
+          values[q] = other == null ? FLOAT_NOTCACHED : other[p];
+        }
+        floatRows[p] = values;
+        allocatedRows++;
+      }
+    } else {
+      if (doubleRows[p] == null) {
+        final double[] values = new double[size];
+        for (int q = 0; q < size; q++) {
+          final double[] other = doubleRows[q];
+          values[q] = other == null ? KernelCache.NOTCACHED : other[p];
+        }
+        doubleRows[p] = values;
+        allocatedRows++;
+      }
+    }
+  }
+
+  double get(int row, int column) {
+    final int p = physical[row];
+    if (singlePrecision) {
+      final float[] values = floatRows[p];
+      // a float NEGATIVE_INFINITY widens to NOTCACHED
+      return values == null ? KernelCache.NOTCACHED : values[physical[column]];
+    }
+    final double[] values = doubleRows[p];
+    return values == null ? KernelCache.NOTCACHED : values[physical[column]];
+  }
+
+  void set(int row, int column, double value) {
+    final int p = physical[row];
+    if (singlePrecision) {
+      final float[] values = floatRows[p];
+      if (values != null) {
+        values[physical[column]] = (float) value;
+      }
+    } else {
+      final double[] values = doubleRows[p];
+      if (values != null) {
+        values[physical[column]] = value;
+      }
+    }
+  }
+
+  int findMissing(int row, int len, int[] positions) {
+    compactIfNeeded();
+
+    int count = 0;
+    if (singlePrecision) {
+      final float[] values = floatRows[physical[row]];
+      if (displaced == 0) {
+        for (int i = 0; i < len; i++) {
+          if (values[i] == FLOAT_NOTCACHED) {
+            positions[count++] = i;
+          }
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          if (values[physical[i]] == FLOAT_NOTCACHED) {
+            positions[count++] = i;
+          }
+        }
+      }
+    } else {
+      final double[] values = doubleRows[physical[row]];
+      if (displaced == 0) {
+        for (int i = 0; i < len; i++) {
+          if (values[i] == KernelCache.NOTCACHED) {
+            positions[count++] = i;
+          }
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          if (values[physical[i]] == KernelCache.NOTCACHED) {
+            positions[count++] = i;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  void copy(int row, double[] buf, int len) {
+    compactIfNeeded();
+
+    if (singlePrecision) {
+      final float[] values = floatRows[physical[row]];
+      if (displaced == 0) {
+        for (int i = 0; i < len; i++) {
+          buf[i] = values[i];
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          buf[i] = values[physical[i]];
+        }
+      }
+    } else {
+      final double[] values = doubleRows[physical[row]];
+      if (displaced == 0) {
+        System.arraycopy(values, 0, buf, 0, len);
+      } else {
+        for (int i = 0; i < len; i++) {
+          buf[i] = values[physical[i]];
+        }
+      }
+    }
+  }
+
+  void swap(int rankA, int rankB) {
+    final int pA = physical[rankA];
+    final int pB = physical[rankB];
+
+    displaced -= (pA != rankA ? 1 : 0) + (pB != rankB ? 1 : 0);
+    physical[rankA] = pB;
+    physical[rankB] = pA;
+    displaced += (pB != rankA ? 1 : 0) + (pA != rankB ? 1 : 0);
+  }
+
+  void forget(int rank) {
+    final int p = physical[rank];
+    if (singlePrecision) {
+      if (floatRows[p] != null) {
+        floatRows[p] = null;
+        allocatedRows--;
+      }
+      for (float[] values : floatRows) {
+        if (values != null) {
+          values[p] = FLOAT_NOTCACHED;
+        }
+      }
+    } else {
+      if (doubleRows[p] != null) {
+        doubleRows[p] = null;
+        allocatedRows--;
+      }
+      for (double[] values : doubleRows) {
+        if (values != null) {
+          values[p] = KernelCache.NOTCACHED;
+        }
+      }
+    }
+  }
+
+  private void compactIfNeeded() {
+    if (displaced > compactionThreshold) {
+      compact();
+    }
+  }
+
+  /**
+   * Move every value to the physical row and column of its ranks, so that the map is the identity again
+   */
+  private void compact() {
+    if (singlePrecision) {
+      final float[][] byRank = new float[size][];
+      for (int r = 0; r < size; r++) {
+        final float[] values = floatRows[physical[r]];
+        if (values != null) {
+          for (int c = 0; c < size; c++) {
+            floatScratch[c] = values[physical[c]];
+          }
+          System.arraycopy(floatScratch, 0, values, 0, size);
+        }
+        byRank[r] = values;
+      }
+      System.arraycopy(byRank, 0, floatRows, 0, size);
+    } else {
+      final double[][] byRank = new double[size][];
+      for (int r = 0; r < size; r++) {
+        final double[] values = doubleRows[physical[r]];
+        if (values != null) {
+          for (int c = 0; c < size; c++) {
+            doubleScratch[c] = values[physical[c]];
+          }
+          System.arraycopy(doubleScratch, 0, values, 0, size);
+        }
+        byRank[r] = values;
+      }
+      System.arraycopy(byRank, 0, doubleRows, 0, size);
+    }
+
+    for (int i = 0; i < size; i++) {
+      physical[i] = i;
+    }
+    displaced = 0;
+    compactions++;
+  }
+}
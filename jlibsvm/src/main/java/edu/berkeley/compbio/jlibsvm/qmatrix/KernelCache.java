@@ -0,0 +1,213 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The cached kernel values behind a KernelQMatrix, addressed by rank.  Misses are computed through the QMatrix's
+ * computeQ methods.
+ * <p/>
+ * The diagonal is cached here for every implementation, and the rank bookkeeping of maintainCache() is shared; the
+ * implementations decide how the off-diagonal values are stored, and rearrange them in swapByRank().
+ *
+ * @version $Id$
+ */
+abstract class KernelCache {
+// ------------------------------ FIELDS ------------------------------
+
+  public final static double NOTCACHED = Double.NEGATIVE_INFINITY;
+
+  final KernelQMatrix qMatrix;
+
+  /**
+   * Whether the off-diagonal values are rounded to float precision.  Every value handed out is rounded, not just the
+   * ones that came from the cache, so that the results don't depend on what happened to be cached.
+   */
+  final boolean singlePrecision;
+
+  /**
+   * Redundant with the cached rows, but this way it can sit in the processor cache sequentially.
+   */
+  final double[] diagonal;
+
+  long hits = 0;
+  long misses = 0;
+  long widemisses = 0;
+  long diagonalhits = 0;
+  long diagonalmisses = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  KernelCache(KernelQMatrix qMatrix, int numExamples, boolean singlePrecision) {
+    this.qMatrix = qMatrix;
+    this.singlePrecision = singlePrecision;
+    diagonal = new double[numExamples];
+    Arrays.fill(diagonal, NOTCACHED);
+  }
+
+// ------------------------ CANONICAL METHODS ------------------------
+
+  public String toString() {
+    return "QMatrix hits = " + hits + ", misses = " + misses + ", widemisses = " + widemisses
+        + ", diagonalhits = " + diagonalhits + ", diagonalmisses = " + diagonalmisses
+        + ", rate = "
+        + (double) (hits + diagonalhits) / (double) (hits + diagonalhits + misses + widemisses
+        + diagonalmisses) + ", size = " + sizeString();
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  public abstract double get(SolutionVector a, SolutionVector b);
+
+  /**
+   * Get the kernel value from a given SV to the first activeCount of those provided in the active array, computing any
+   * that are not already cached.  Requires that those are in rank order, including all ranks from 0 to activeCount!
+   */
+  public abstract void get(SolutionVector a, SolutionVector[] active, int activeCount, double[] buf);
+
+  /**
+   * Get the kernel value from a given SV to svs[0, count), where svs[0, activeCount) are the active SVs and
+   * svs[activeCount, count) the inactive ones.  Requires that the active part is in rank order, including all ranks
+   * from 0 to activeCount. Does not require that the inactive part has any particular order, but does return the
+   * results in buf to match the requested order.
+   */
+  public abstract void get(SolutionVector a, SolutionVector[] svs, int activeCount, int count, double[] buf);
+
+  /**
+   * Compute an off-diagonal value of Q, rounded if need be
+   */
+  final double computeQ(SolutionVector a, SolutionVector b) {
+    final double result = qMatrix.computeQ(a, b);
+    return singlePrecision ? (float) result : result;
+  }
+
+  /**
+   * Compute the values of Q between a and each of bs[from, to), rounded if need be.  Large batches are computed in
+   * parallel (see KernelQMatrix.computeQBatch()).
+   */
+  final void computeQ(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    qMatrix.computeQBatch(a, bs, from, to, out);
+    if (singlePrecision) {
+      for (int i = from; i < to; i++) {
+        out[i] = (float) out[i];
+      }
+    }
+  }
+
+  /**
+   * @return whether a request for the row of a up to rank len would be answered entirely from the cache, as far as can
+   * be told cheaply
+   */
+  boolean isCached(SolutionVector a, int len) {
+    return false;
+  }
+
+  public double getDiagonal(SolutionVector a) {
+    double result = diagonal[a.rank];
+    if (result == NOTCACHED) {
+      result = qMatrix.computeQ(a, a);
+      diagonal[a.rank] = result;
+      diagonalmisses++;
+    } else {
+      diagonalhits++;
+    }
+    return result;
+  }
+
+  /**
+   * Rearrange the ranks so that all active SVs come before all inactive SVs, moving the cached values along with them.
+   * The provided arrays are in the correct rank order already; only the first activeCount and newlyInactiveCount of them
+   * are considered, so that the caller may keep them around.
+   */
+  public void maintainCache(SolutionVector[] active, int activeCount,
+      SolutionVector[] newlyInactive, int newlyInactiveCount) {
+    // the desired partitioning is provided by the arguments; the current partitioning is buried inside each element as SV.rank.
+
+    // note the ranks of the previously inactive SVs don't change, so we don't have to touch them or their cache entries at all
+
+    // the partitioning mechanism is similar to that used in quicksort:
+    //    find all elements of newlyInactive with prior rank less than the partition rank
+    //    find all elements of active that with prior rank greater than the partition rank
+    //    exchange these pairwise until done
+
+    // it doesn't matter which pairs we choose to achieve partitioning, but it may improve things some to maintain order as well as possible.
+    // thus, we exchange them in order.
+
+    // Once we're done with this we want the SVs to know their new ranks, so we tkae this opportunity to reassign those.
+
+    int partitionRank = activeCount;
+
+    int i = 0;
+    int j = 0;
+
+    while (true) {
+      // find the first active element that was previously ranked too poorly
+      while (i < activeCount && active[i].rank < partitionRank) {
+        // this one is OK, leave it in place
+        i++;
+      }
+
+      // find the first newly inactive element that was previously ranked too well
+      while (j < newlyInactiveCount && newlyInactive[j].rank >= partitionRank) {
+        // this one is OK, leave it in place
+        j++;
+      }
+
+      if (i < activeCount && j < newlyInactiveCount) {
+        // now we're pointing at the first available pair that should be swapped
+
+        swapBySolutionVector(active[i], newlyInactive[j]);
+
+        // now the pair is swapped, advance the counters past it
+
+        i++;
+        j++;
+      } else {
+        break;
+      }
+    }
+  }
+
+  private void swapBySolutionVector(SolutionVector svA, SolutionVector svB) {
+    double tmp = diagonal[svA.rank];
+    diagonal[svA.rank] = diagonal[svB.rank];
+    diagonal[svB.rank] = tmp;
+
+    swapByRank(svA.rank, svB.rank);
+
+    int rank = svA.rank;
+    svA.rank = svB.rank;
+    svB.rank = rank;
+  }
+
+  /**
+   * Learn the SVs of the initial ranks, for implementations that need to know them
+   */
+  void initRanks(Collection<SolutionVector> allExamples) {
+  }
+
+  /**
+   * @return how many cached rows have been evicted to make room for others
+   */
+  long evictions() {
+    return 0;
+  }
+
+  /**
+   * Release any resources the garbage collector wouldn't reclaim promptly, such as memory outside the heap.  The cache
+   * may not be used afterwards.
+   */
+  void close() {
+  }
+
+  /**
+   * Exchange the cached values of two ranks, both as rows and as columns.
+   */
+  abstract void swapByRank(int rankA, int rankB);
+
+  /**
+   * How much of the budget is in use, for toString()
+   */
+  abstract String sizeString();
+}
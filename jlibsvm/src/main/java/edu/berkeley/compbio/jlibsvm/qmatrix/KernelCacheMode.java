@@ -0,0 +1,52 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+/**
+ * How a KernelQMatrix caches the values of Q within its byte budget.
+ *
+ * @version $Id$
+ */
+public enum KernelCacheMode {
+  /**
+   * A square block of Q over the most active ranks, of side sqrt(budget / 8).  Anything involving a rank beyond that is
+   * recomputed every time it is needed.  Best when the whole problem, or at least its active set, fits in the square.
+   */
+  SQUARE,
+
+  /**
+   * LIBSVM's cache of least recently used rows, each as long as the active set.  Keeps caching the most recently used
+   * rows on problems far larger than the square root of the budget.
+   */
+  LRU,
+
+  /**
+   * Like LRU, but evicting the least often requested row instead (StandardKernelCachePolicy.LEAST_FREQUENTLY_USED), so
+   * that the rows the solver keeps coming back to survive a burst of rows it wants only once.
+   */
+  LFU,
+
+  /**
+   * Like LRU, but evicting the rows of SVs at a bound before those of free SVs (StandardKernelCachePolicy.KEEP_FREE).
+   * The free SVs are the ones the working set selection keeps picking, and the ones shrinking never removes.
+   */
+  KEEP_FREE,
+
+  /**
+   * Like SQUARE, but in direct memory outside the Java heap, freed as soon as the solver is done.  The cache can then be
+   * sized to the machine's memory without raising -Xmx or burdening the garbage collector.
+   */
+  OFF_HEAP,
+
+  /**
+   * Like LRU, but rows evicted from memory are spilled to a memory-mapped file of up to kernelSpillSize in
+   * kernelSpillDirectory, and read back from there rather than recomputed.  Worthwhile when the kernel is expensive and
+   * Q is far too large for memory.
+   */
+  TIERED,
+
+  /**
+   * Like SQUARE, but shrinking swaps ranks through a map instead of moving their values around the cached rows, at the
+   * price of gathering each row through that map until the map is compacted.  Best when shrinking is frequent and the
+   * square is large.
+   */
+  INDIRECT
+}
@@ -0,0 +1,25 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.io.Serializable;
+
+/**
+ * Chooses which row to evict from a row cache (the LRU and TIERED kernel cache modes) when it needs room for another.
+ * The built-in policies are in StandardKernelCachePolicy; KernelCacheMode.LFU and KEEP_FREE select two of them.
+ * <p/>
+ * A policy is shared by every training that uses the same parameters, possibly at once, so it should keep no state of
+ * its own; what it needs to know is passed in.
+ *
+ * @version $Id$
+ */
+public interface KernelCachePolicy extends Serializable {
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @param rows  the SVs whose rows are cached, least recently used first
+   * @param uses  how many times the row of each has been requested since it was last cached, in the same order
+   * @param count how many rows there are to choose from
+   * @return the position in rows of the one to evict
+   */
+  int selectVictim(SolutionVector[] rows, long[] uses, int count);
+}
@@ -0,0 +1,75 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import java.io.Serializable;
+
+/**
+ * A snapshot of how well a kernel cache served one training, for comparing cache modes and policies on a workload.
+ * Attached to the trained model as kernelCacheStatistics.
+ *
+ * @version $Id$
+ */
+public final class KernelCacheStatistics implements Serializable {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The cache mode, and the eviction policy if there was one to choose
+   */
+  public final KernelCacheMode mode;
+  public final KernelCachePolicy policy;
+
+  /**
+   * Off-diagonal values served from the cache, computed and cached, and computed without being cached (for the square
+   * modes, those beyond the cached ranks; for the row caches, single values from rows that aren't cached)
+   */
+  public final long hits;
+  public final long misses;
+  public final long widemisses;
+
+  public final long diagonalHits;
+  public final long diagonalMisses;
+
+  /**
+   * Rows evicted to make room for others; always 0 for the square modes, which never evict
+   */
+  public final long evictions;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  KernelCacheStatistics(KernelCacheMode mode, KernelCachePolicy policy, long hits, long misses, long widemisses,
+      long diagonalHits, long diagonalMisses, long evictions) {
+    this.mode = mode;
+    this.policy = policy;
+    this.hits = hits;
+    this.misses = misses;
+    this.widemisses = widemisses;
+    this.diagonalHits = diagonalHits;
+    this.diagonalMisses = diagonalMisses;
+    this.evictions = evictions;
+  }
+
+// ------------------------ CANONICAL METHODS ------------------------
+
+  public String toString() {
+    return mode + (policy == null ? "" : " (" + policy + ")") + " hits = " + hits + ", misses = " + misses
+        + ", widemisses = " + widemisses + ", diagonalhits = " + diagonalHits + ", diagonalmisses = " + diagonalMisses
+        + ", evictions = " + evictions + ", rate = " + getHitRate();
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the fraction of all requested values, diagonal included, that came from the cache
+   */
+  public double getHitRate() {
+    final long requests = hits + misses + widemisses + diagonalHits + diagonalMisses;
+    return requests == 0 ? 0 : (double) (hits + diagonalHits) / requests;
+  }
+
+  /**
+   * @return the fraction of the requested off-diagonal values that came from the cache
+   */
+  public double getOffDiagonalHitRate() {
+    final long requests = hits + misses + widemisses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+}
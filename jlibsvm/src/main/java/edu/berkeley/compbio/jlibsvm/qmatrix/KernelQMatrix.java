@@ -1,9 +1,22 @@
 package edu.berkeley.compbio.jlibsvm.qmatrix;
 
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameter;
 import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import edu.berkeley.compbio.jlibsvm.kernel.DotProductKernel;
 import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
+import edu.berkeley.compbio.jlibsvm.util.CsrMatrix;
+import edu.berkeley.compbio.jlibsvm.util.DenseVector;
+import edu.berkeley.compbio.jlibsvm.util.SparseColumnIndex;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
@@ -12,15 +25,175 @@ import java.util.Collection;
 public abstract class KernelQMatrix implements QMatrix {
 // ------------------------------ FIELDS ------------------------------
 
+  /**
+   * The fewest values in a batch worth splitting across threads by default
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 2048;
+
+  /**
+   * The smallest piece of a batch to hand to one thread
+   */
+  private static final int MIN_CHUNK = 256;
+
   protected KernelFunction kernel;
 
-  private RecentActivitySquareCache cache;
+  private final KernelCache cache;
+
+  /**
+   * How the cache is organized, and which rows it evicts (null for the square modes, which never evict), for
+   * getCacheStatistics()
+   */
+  private final KernelCacheMode cacheMode;
+  private final KernelCachePolicy cachePolicy;
+
+  /**
+   * Where to compute large batches of missing values in parallel (null for the common pool), and how large a batch must
+   * be for that
+   */
+  private final ForkJoinPool pool;
+  private final int parallelThreshold;
+
+  /**
+   * Computes the rows the solver will probably want next in the background, or null if prefetching is off
+   */
+  private final KernelRowPrefetcher prefetcher;
+  private final int prefetchRows;
+
+  // scratch space for collecting the values that a prefetched row lacks, so that they can be computed as one batch
+  private final int[] missPositions;
+  private final SolutionVector[] missVectors;
+  private final double[] missValues;
+
+  /**
+   * Scratch space for gathering the points of a batch of SolutionVectors to pass to the kernel in one call.  Callers
+   * working on disjoint ranges of a batch touch disjoint ranges of this array.
+   */
+  private final SparseVector[] rowPoints;
+
+  /**
+   * For a DotProductKernel, the distinct training points packed into contiguous rows by initRanks(), so that computing
+   * Q reads only these arrays.  slotRows maps each slot to its row, since several SolutionVectors may share a point (as
+   * in regression).
+   * <p/>
+   * The points themselves are still needed, by the problem and for the support vectors of the model, so the matrix adds
+   * to the heap for as long as this Q matrix lives rather than replacing the per-example objects; what it buys is that
+   * the kernel evaluations stream through contiguous memory.
+   */
+  private CsrMatrix matrix;
+  private int[] slotRows;
+
+  /**
+   * The packed training set by feature, for computing the dot products of one row with all the others at once.  Only
+   * built for sparse data.
+   */
+  private SparseColumnIndex columnIndex;
+
+  /**
+   * Scratch space for the dot products from the column index, by row, and the row they are for (-1 if none).  While a
+   * batch is split across threads, rowDots is only read: it is filled beforehand if the batch wants it (see
+   * computeQBatch()), and frozen keeps the threads from refilling it for another row.
+   */
+  private double[] rowDots;
+  private int rowDotsRow = -1;
+  private boolean rowDotsFrozen = false;
+
+  private double averageNonZeros;
+
+  /**
+   * Kernel rows shared with the other Q matrices over the same points (null if none), and the position of the point of
+   * each slot in them (-1 if the store doesn't have it)
+   */
+  private final SharedKernelStore sharedStore;
+  private final SharedKernelStore.Rows sharedRows;
+  private int[] sharedIndexes;
 
 // --------------------------- CONSTRUCTORS ---------------------------
 
-  KernelQMatrix( KernelFunction kernel, int numExamples, int cacheRows) {
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   */
+  KernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes) {
+    this(kernel, numExamples, cacheBytes, KernelCacheMode.SQUARE);
+  }
+
+  /**
+   * @param cacheBytes the most memory the cached kernel rows may occupy
+   * @param cacheMode  how the cached values are organized within that budget
+   */
+  KernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes, KernelCacheMode cacheMode) {
+    this(kernel, numExamples, cacheBytes, cacheMode, null, false, null, 0, null, DEFAULT_PARALLEL_THRESHOLD, 0, null);
+  }
+
+  /**
+   * Cache according to the cache_size, kernelCacheMode, kernelCachePolicy, singlePrecisionKernelCache,
+   * kernelSpillDirectory and kernelSpillSize of the given parameters, and compute misses according to kernelPool,
+   * parallelKernelThreshold and kernelPrefetchRows, taking what rows it can from the sharedKernelStore
+   */
+  KernelQMatrix(KernelFunction kernel, int numExamples, ImmutableSvmParameter<?> param) {
+    this(kernel, numExamples, param.getCacheBytes(), param.kernelCacheMode, param.kernelCachePolicy,
+        param.singlePrecisionKernelCache, param.kernelSpillDirectory, param.getKernelSpillBytes(), param.kernelPool,
+        param.parallelKernelThreshold, param.kernelPrefetchRows, param.sharedKernelStore);
+  }
+
+  private KernelQMatrix(KernelFunction kernel, int numExamples, long cacheBytes, KernelCacheMode cacheMode,
+      KernelCachePolicy cachePolicy, boolean singlePrecision, File spillDirectory, long spillBytes, ForkJoinPool pool,
+      int parallelThreshold, int prefetchRows, SharedKernelStore sharedStore) {
     this.kernel = kernel;
-    this.cache = new RecentActivitySquareCache(numExamples, cacheRows);
+    this.sharedStore = sharedStore;
+    this.sharedRows = sharedStore == null ? null : sharedStore.rowsFor(kernel);
+    this.rowPoints = new SparseVector[numExamples];
+    this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+    this.parallelThreshold = Math.max(parallelThreshold, 2 * MIN_CHUNK);
+
+    this.prefetchRows = Math.max(prefetchRows, 0);
+    if (this.prefetchRows > 0) {
+      // the finished rows double as a small cache of recently wanted rows, which is where most of the gain comes from;
+      // keeping too few of them throws most of them away before they are asked for
+      prefetcher = new KernelRowPrefetcher(this, numExamples, 8 * this.prefetchRows, this.pool);
+      missPositions = new int[numExamples];
+      missVectors = new SolutionVector[numExamples];
+      missValues = new double[numExamples];
+    } else {
+      prefetcher = null;
+      missPositions = null;
+      missVectors = null;
+      missValues = null;
+    }
+
+    switch (cacheMode) {
+      case LRU:
+      case LFU:
+      case KEEP_FREE:
+        this.cachePolicy = cachePolicy != null ? cachePolicy : defaultPolicy(cacheMode);
+        this.cache = new LruKernelCache(this, numExamples, cacheBytes, singlePrecision, this.cachePolicy);
+        break;
+      case OFF_HEAP:
+      case INDIRECT:
+        this.cachePolicy = null;
+        this.cache = new RecentActivitySquareCache(this, numExamples, cacheBytes, singlePrecision, cacheMode);
+        break;
+      case TIERED:
+        this.cachePolicy = cachePolicy != null ? cachePolicy : StandardKernelCachePolicy.LEAST_RECENTLY_USED;
+        this.cache = new TieredKernelCache(this, numExamples, cacheBytes, spillDirectory, spillBytes,
+            singlePrecision, this.cachePolicy);
+        break;
+      default:
+        cacheMode = KernelCacheMode.SQUARE;
+        this.cachePolicy = null;
+        this.cache = new RecentActivitySquareCache(this, numExamples, cacheBytes, singlePrecision, cacheMode);
+    }
+    this.cacheMode = cacheMode;
+  }
+
+  private static KernelCachePolicy defaultPolicy(KernelCacheMode cacheMode) {
+    switch (cacheMode) {
+      case LFU:
+        return StandardKernelCachePolicy.LEAST_FREQUENTLY_USED;
+      case KEEP_FREE:
+        return StandardKernelCachePolicy.KEEP_FREE;
+      default:
+        return StandardKernelCachePolicy.LEAST_RECENTLY_USED;
+    }
   }
 
 // ------------------------ INTERFACE METHODS ------------------------
@@ -32,305 +205,339 @@ public abstract class KernelQMatrix implements QMatrix {
   }
 
   public void getQ(SolutionVector svA, SolutionVector[] active, double[] buf) {
-    cache.get(svA, active, buf);
+    cache.get(svA, active, active.length, buf);
   }
 
   public void getQ(SolutionVector svA, SolutionVector[] active, SolutionVector[] inactive,
       double[] buf) {
-    cache.get(svA, active, inactive, buf);
+    final SolutionVector[] svs = Arrays.copyOf(active, active.length + inactive.length);
+    System.arraycopy(inactive, 0, svs, active.length, inactive.length);
+    cache.get(svA, svs, active.length, svs.length, buf);
   }
 
   public void initRanks(Collection<SolutionVector> allExamples) {
     int c = 0;
     for (SolutionVector a : allExamples) {
-      a.rank = c++;
+      a.rank = c;
+      a.slot = c;
+      c++;
+    }
+
+    if (kernel instanceof DotProductKernel) {
+      packTrainingSet(allExamples);
+    }
+
+    if (sharedStore != null) {
+      sharedIndexes = new int[allExamples.size()];
+      for (SolutionVector a : allExamples) {
+        sharedIndexes[a.slot] = sharedStore.indexOf(a.point);
+      }
     }
+
+    cache.initRanks(allExamples);
   }
 
-  public void maintainCache(SolutionVector[] active, SolutionVector[] newlyInactive) {
-    cache.maintainCache(active, newlyInactive);
+  public void maintainCache(SolutionVector[] active, int activeCount, SolutionVector[] newlyInactive,
+      int newlyInactiveCount) {
+    cache.maintainCache(active, activeCount, newlyInactive, newlyInactiveCount);
   }
 
   public String perfString() {
-    return cache.toString();
+    return prefetcher == null ? cache.toString() : cache + ", " + prefetcher;
   }
 
-// -------------------------- OTHER METHODS --------------------------
-
-  public abstract double computeQ(SolutionVector a, SolutionVector b);
-
-  public final double evaluate(SolutionVector a, SolutionVector b) {
-    return cache.get(a, b);
+  public double evaluateUncached(SolutionVector a, SolutionVector b) {
+    final double result = computeQ(a, b);
+    return cache.singlePrecision ? (float) result : result;
   }
 
-// -------------------------- INNER CLASSES --------------------------
-
-  /**
-   * I had written a SlowRecentActivitySquareCache that was supposed to be clever by leaving entries in place to avoid
-   * moving things around in memory; but that turns out to be the opposite of what we want due to cache locality issues.
-   * The original LIBSVM strategy of rearranging the actual entries, and of referring to them directly by rank instead of
-   * by id, is really good in this regard-- the cost of the memory rearrangement is apparently much less than the cache
-   * locality gain since the cache is read far more than it is written or rearranged.
-   * <p/>
-   * This one is more like the original LIBSVM cache, rearranging the entries in memory according to which SVs are
-   * currently active
-   */
-  private class RecentActivitySquareCache {
-// ------------------------------ FIELDS ------------------------------
-
-    public final static double NOTCACHED = Double.NEGATIVE_INFINITY;
-    double[][] data;
-
-    double[] diagonal;
-
-    int maxCachedRank;
-
-    long hits = 0;
-    long misses = 0;
-    long widemisses = 0;
-    long diagonalhits = 0;
-    long diagonalmisses = 0;
+  public ForkJoinPool getPoolFor(long count) {
+    // Integer.MAX_VALUE promises to stay on the solver thread, however much there is to compute
+    if (parallelThreshold == Integer.MAX_VALUE || count < parallelThreshold || pool.getParallelism() < 2) {
+      return null;
+    }
+    return pool;
+  }
 
-// --------------------------- CONSTRUCTORS ---------------------------
+  public KernelCacheStatistics getCacheStatistics() {
+    return new KernelCacheStatistics(cacheMode, cachePolicy, cache.hits, cache.misses, cache.widemisses,
+        cache.diagonalhits, cache.diagonalmisses, cache.evictions());
+  }
 
-    public RecentActivitySquareCache(int numExamples, int cacheRows) {
-      // how big should the cache really be
-      maxCachedRank = Math.min(numExamples, cacheRows);
+  public int getPrefetchRows() {
+    return prefetchRows;
+  }
 
-      // PERF maybe we don't need to preallocate the whole thing?
+  public void getQ(SolutionVector svA, SolutionVector[] active, int activeCount, double[] buf) {
+    cache.get(svA, active, activeCount, buf);
+  }
 
-      // allocate square cache.
-      data = new double[maxCachedRank][];
-      for (int i = 0; i < maxCachedRank; i++) {
-        data[i] = new double[maxCachedRank];
-        Arrays.fill(data[i], NOTCACHED);
-      }
+  public void getQ(SolutionVector svA, SolutionVector[] svs, int activeCount, int count, double[] buf) {
+    cache.get(svA, svs, activeCount, count, buf);
+  }
 
-      // allocate diagonal.  Redundant with the square cache, but this way it can sit in the processor cache sequentially.
-      diagonal = new double[numExamples];
-      Arrays.fill(diagonal, NOTCACHED);
+  public void prefetch(SolutionVector[] svs, int count, SolutionVector[] active, int activeCount) {
+    if (prefetcher != null) {
+      prefetcher.prefetch(svs, count, active, activeCount);
     }
+  }
 
-// ------------------------ CANONICAL METHODS ------------------------
-
-    public String toString() {
-      return "QMatrix hits = " + hits + ", misses = " + misses + ", widemisses = " + widemisses
-          + ", diagonalhits = " + diagonalhits + ", diagonalmisses = " + diagonalmisses
-          + ", rate = "
-          + (double) (hits + diagonalhits) / (double) (hits + diagonalhits + misses + widemisses
-          + diagonalmisses) + ", size = " + data.length;
+  @Override
+  public void close() {
+    if (prefetcher != null) {
+      prefetcher.close();
     }
+    cache.close();
+  }
 
 // -------------------------- OTHER METHODS --------------------------
 
-    public double get(SolutionVector a, SolutionVector b) {
-      //assert a != b;
-      // the diagonal entries should always stay empty; use getDiagonal instead
-      if (a == b) {
-        return getDiagonal(a);
-      }
+  public abstract double computeQ(SolutionVector a, SolutionVector b);
 
-      // note the use of the redundant sv.rank field here instead of idToRankMap[sv.id].  This is just for cache locality.
+  /**
+   * Compute Q between a and each of bs[from, to), writing the results to the same positions of out.  Subclasses that can
+   * hand the whole batch to the kernel at once should override this; the default just calls computeQ(a, b) per element.
+   */
+  public void computeQ(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    for (int i = from; i < to; i++) {
+      out[i] = computeQ(a, bs[i]);
+    }
+  }
 
-      if (a.rank >= maxCachedRank || b.rank >= maxCachedRank) {
-        //return NOTCACHED;
-        widemisses++;
-        return computeQ(a, b);
-      }
+  /**
+   * Compute Q between a and each of bs[from, to) as computeQ() does, taking whatever values were prefetched for a.
+   */
+  final void computeQBatch(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    if (sharedIndexes != null && sharedIndexes[a.slot] >= 0) {
+      // fetched once here, so that the pieces of a split batch don't each compute it
+      sharedRows.get(sharedIndexes[a.slot]);
+    }
 
-      double result = data[a.rank][b.rank];
-      if (result == NOTCACHED) {
-        result = computeQ(a, b);
-        data[a.rank][b.rank] = result;
-        data[b.rank][a.rank] = result;
-        misses++;
-      } else {
-        hits++;
-      }
-      return result;
+    final double[] prefetched = prefetcher == null ? null : prefetcher.take(a);
+    if (prefetched == null) {
+      computeQSplit(a, bs, from, to, out);
+      return;
     }
 
-    public double getDiagonal(SolutionVector a) {
-      double result = diagonal[a.rank];
-      if (result == NOTCACHED) {
-        result = computeQ(a, a);
-        diagonal[a.rank] = result;
-        diagonalmisses++;
+    int missCount = 0;
+    for (int i = from; i < to; i++) {
+      final double value = prefetched[bs[i].slot];
+      if (value == KernelCache.NOTCACHED) {
+        missPositions[missCount] = i;
+        missVectors[missCount] = bs[i];
+        missCount++;
       } else {
-        diagonalhits++;
+        out[i] = value;
       }
-      return result;
     }
 
-    /**
-     * Get the kernel value from a given SV to all those provided in the active array, computing any that are not already
-     * cached.  Requires that the active array is in rank order, including all ranks from 0 to n!
-     */
-    public void get(SolutionVector a, SolutionVector[] active, double[] buf) {
-      // active array is in rank order
-
-      if (a.rank >= maxCachedRank) {
-        for (int i = 0; i < active.length; i++) {
-          buf[i] = computeQ(a, active[i]);
-          widemisses++;
-        }
-        return;
+    if (missCount > 0) {
+      computeQSplit(a, missVectors, 0, missCount, missValues);
+      for (int k = 0; k < missCount; k++) {
+        out[missPositions[k]] = missValues[k];
       }
+    }
+  }
 
-      double[] row = data[a.rank];
+  /**
+   * Compute Q between a and each of bs[from, to) as computeQ() does, but split across the pool if the batch is at least
+   * parallelThreshold long.  The pieces are computed independently, so the results don't depend on the split.
+   */
+  private void computeQSplit(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out) {
+    final int count = to - from;
+    if (count < parallelThreshold || pool.getParallelism() < 2 || sharedRow(a) != null) {
+      computeQ(a, bs, from, to, out);
+      return;
+    }
 
-      int cachedAndActive = Math.min(row.length, active.length);
+    if (matrix != null && columnIndex != null) {
+      final int aRow = slotRows[a.slot];
+      if (aRow != rowDotsRow && prefersColumnIndex(aRow, count)) {
+        columnIndex.dotAll(matrix, aRow, rowDots);
+        rowDotsRow = aRow;
+      }
+    }
 
-      for (int i = 0; i < cachedAndActive; i++) {
-        if (row[i] == NOTCACHED) {
-          final SolutionVector b = active[i];
-          row[i] = computeQ(a, b);
+    final int chunk = Math.max(MIN_CHUNK, (count + pool.getParallelism() - 1) / pool.getParallelism());
+    rowDotsFrozen = true;
+    try {
+      pool.invoke(new ComputeQTask(a, bs, from, to, out, chunk));
+    } finally {
+      rowDotsFrozen = false;
+    }
+  }
 
-          data[b.rank][a.rank] = row[i];
-          misses++;
-        } else {
-          hits++;
-        }
-      }
+  /**
+   * Evaluate the raw kernel between a and b, from the packed training set if there is one.
+   */
+  protected final double evaluateKernel(SolutionVector a, SolutionVector b) {
+    final double[] sharedRow = sharedRow(a);
+    if (sharedRow != null && sharedIndexes[b.slot] >= 0) {
+      return sharedRow[sharedIndexes[b.slot]];
+    }
 
-      System.arraycopy(row, 0, buf, 0,
-          cachedAndActive);  // PERF test whether this really helps (cache locality?)
+    if (matrix == null) {
+      return kernel.evaluate(a.point, b.point);
+    }
 
-      for (int i = cachedAndActive; i < active.length; i++) {
-        final SolutionVector b = active[i];
-        buf[i] = computeQ(a, b);
-        widemisses++;
-      }
+    final int aRow = slotRows[a.slot];
+    final int bRow = slotRows[b.slot];
+    return ((DotProductKernel) kernel).evaluateFromDot(matrix.dot(aRow, bRow), matrix.squaredNorm(aRow),
+        matrix.squaredNorm(bRow));
+  }
+
+  /**
+   * Evaluate the raw kernel between a and each of bs[from, to).  With a packed training set, the dot products come from
+   * the column index when scattering over a's features is expected to be cheaper than a merge-join with each of the
+   * bs, and from the rows directly otherwise; without one, the kernel's batched row evaluation is used.
+   */
+  protected final void evaluateKernelRow(SolutionVector a, SolutionVector[] bs, int from, int to,
+      double[] out) {
+    final double[] sharedRow = sharedRow(a);
+    if (sharedRow != null && copySharedRow(sharedRow, bs, from, to, out)) {
+      return;
     }
 
-    /**
-     * pass active and inactive instead of allExamples to guarantee rank order. Requires that the active array is in rank
-     * order, including all ranks from 0 to n. Does not require that the inactive array has any particular order, but does
-     * return the results in buf to match the requested order.
-     */
-    public void get(SolutionVector a, SolutionVector[] active, SolutionVector[] inactive,
-        double[] buf) {
-      // first fill the active portion.  Here the requested order must match the rank order anyway
-      get(a, active, buf);
-
-      // then fill the inactive portion one element at a time in the requested order, not the rank order
-
-      if (a.rank >= maxCachedRank) {
-        int i = active.length;
-        for (SolutionVector b : inactive) {
-          buf[i] = computeQ(a, b);
-          widemisses++;
-          i++;
+    if (matrix != null) {
+      final DotProductKernel dotProductKernel = (DotProductKernel) kernel;
+      final int aRow = slotRows[a.slot];
+      final double aSquare = matrix.squaredNorm(aRow);
+
+      if (columnIndex != null && (aRow == rowDotsRow
+          || (!rowDotsFrozen && prefersColumnIndex(aRow, to - from)))) {
+        if (aRow != rowDotsRow) {
+          columnIndex.dotAll(matrix, aRow, rowDots);
+          rowDotsRow = aRow;
+        }
+        for (int i = from; i < to; i++) {
+          final int bRow = slotRows[bs[i].slot];
+          out[i] = dotProductKernel.evaluateFromDot(rowDots[bRow], aSquare, matrix.squaredNorm(bRow));
         }
       } else {
-        double[] row = data[a.rank];
-
-        int i = active.length;
-        for (SolutionVector b : inactive) {
-          if (b.rank >= maxCachedRank) {
-            buf[i] = computeQ(a, b);
-            widemisses++;
-          } else {
-            if (row[b.rank] == NOTCACHED) {
-              row[b.rank] = computeQ(a, b);
-              data[b.rank][a.rank] = row[b.rank];
-              misses++;
-            } else {
-              hits++;
-            }
-            buf[i] = row[b.rank];
-          }
-          i++;
+        for (int i = from; i < to; i++) {
+          final int bRow = slotRows[bs[i].slot];
+          out[i] = dotProductKernel.evaluateFromDot(matrix.dot(aRow, bRow), aSquare,
+              matrix.squaredNorm(bRow));
         }
       }
+      return;
     }
 
-    /**
-     * Rearrange the ranks so that all active SVs come before all inactive SVs. Sort the data[][] and diagonal[] arrays
-     * according to the new ranking. The provided arrays are in the correct rank order already.
-     */
-    public void maintainCache(SolutionVector[] active,
-        SolutionVector[] newlyInactive) {
-      // the desired partitioning is provided by the arguments; the current partitioning is buried inside each element as SV.rank.
-
-      // note the ranks of the previously inactive SVs don't change, so we don't have to touch them or their cache entries at all
-
-      // the partitioning mechanism is similar to that used in quicksort:
-      //    find all elements of newlyInactive with prior rank less than the partition rank
-      //    find all elements of active that with prior rank greater than the partition rank
-      //    exchange these pairwise until done
+    for (int i = from; i < to; i++) {
+      rowPoints[i] = bs[i].point;
+    }
+    kernel.evaluateRow(a.point, rowPoints, from, to, out);
+  }
 
-      // it doesn't matter which pairs we choose to achieve partitioning, but it may improve things some to maintain order as well as possible.
-      // thus, we exchange them in order.
+  /**
+   * @return the row of a in the shared store if it has been computed, null otherwise
+   */
+  private double[] sharedRow(SolutionVector a) {
+    if (sharedIndexes == null || sharedIndexes[a.slot] < 0) {
+      return null;
+    }
+    return sharedRows.peek(sharedIndexes[a.slot]);
+  }
 
-      // Once we're done with this we want the SVs to know their new ranks, so we tkae this opportunity to reassign those.
+  /**
+   * Copy the values of bs[from, to) from a shared row, unless some of the bs aren't in the store
+   *
+   * @return whether all of them were
+   */
+  private boolean copySharedRow(double[] sharedRow, SolutionVector[] bs, int from, int to, double[] out) {
+    for (int i = from; i < to; i++) {
+      final int index = sharedIndexes[bs[i].slot];
+      if (index < 0) {
+        return false;
+      }
+      out[i] = sharedRow[index];
+    }
+    return true;
+  }
 
-      int partitionRank = active.length;
+  boolean isCached(SolutionVector a, int len) {
+    return cache.isCached(a, len);
+  }
 
-      int i = 0;
-      int j = 0;
+  public final double evaluate(SolutionVector a, SolutionVector b) {
+    return cache.get(a, b);
+  }
 
-      while (true) {
-        // find the first active element that was previously ranked too poorly
-        while (i < active.length && active[i].rank < partitionRank) {
-          // this one is OK, leave it in place
-          //	active[i].rank = i;
-          i++;
-        }
+  private void packTrainingSet(Collection<SolutionVector> allExamples) {
+    final Map<SparseVector, Integer> rows = new IdentityHashMap<>();
+    final List<SparseVector> points = new ArrayList<>();
 
-        // find the first newly inactive element that was previously ranked too well
-        while (j < newlyInactive.length && newlyInactive[j].rank >= partitionRank) {
-          // this one is OK, leave it in place
-          //	newlyInactive[j].rank = partitionRank + j;
-          j++;
-        }
+    slotRows = new int[allExamples.size()];
+    for (SolutionVector a : allExamples) {
+      Integer row = rows.get(a.point);
+      if (row == null) {
+        row = points.size();
+        rows.put(a.point, row);
+        points.add(a.point);
+      }
+      slotRows[a.slot] = row;
+    }
 
-        if (i < active.length && j < newlyInactive.length) {
-          // now we're pointing at the first available pair that should be swapped
+    matrix = CsrMatrix.of(points.toArray(new SparseVector[points.size()]));
+    if (matrix == null) {
+      // too large to pack; the kernel works on the points themselves
+      slotRows = null;
+      return;
+    }
 
-          swapBySolutionVector(active[i], newlyInactive[j]);
+    // dense data is better served by the dense dot product loops
+    final long nonZeros = matrix.getStorage() == CsrMatrix.Storage.DENSE ? 0
+        : matrix.nonZeros(0, matrix.getNumRows());
+    final long cells = (long) matrix.getNumRows() * matrix.getNumColumns();
+    if (matrix.getStorage() == CsrMatrix.Storage.DENSE || nonZeros >= DenseVector.DENSITY_THRESHOLD * cells) {
+      return;
+    }
 
-          // now the pair is swapped, advance the counters past it
+    columnIndex = new SparseColumnIndex(matrix);
+    rowDots = new double[matrix.getNumRows()];
+    rowDotsRow = -1;
+    averageNonZeros = (double) nonZeros / matrix.getNumRows();
+  }
 
-          i++;
-          j++;
-        } else {
-          break;
-        }
-      }
+  /**
+   * A scatter over the column index costs about one step per posting of the row's features plus one per row; computing
+   * count dot products by merge-joins costs about count * (nnz(row) + average nnz) steps.
+   */
+  private boolean prefersColumnIndex(int row, int count) {
+    final double mergeCost = count * (matrix.nonZeros(row) + averageNonZeros);
+    final double scatterCost = columnIndex.postingsFor(matrix, row) + columnIndex.getNumRows();
+    return scatterCost < mergeCost;
+  }
 
-    }
+// -------------------------- INNER CLASSES --------------------------
 
-    private void swapBySolutionVector(SolutionVector svA, SolutionVector svB) {
-      swapByRank(svA.rank, svB.rank);
-      int tmp = svA.rank;
-      svA.rank = svB.rank;
-      svB.rank = tmp;
+  /**
+   * Computes a batch by halving it until the pieces are at most chunk long
+   */
+  private class ComputeQTask extends RecursiveAction {
+    private final SolutionVector a;
+    private final SolutionVector[] bs;
+    private final int from;
+    private final int to;
+    private final double[] out;
+    private final int chunk;
+
+    ComputeQTask(SolutionVector a, SolutionVector[] bs, int from, int to, double[] out, int chunk) {
+      this.a = a;
+      this.bs = bs;
+      this.from = from;
+      this.to = to;
+      this.out = out;
+      this.chunk = chunk;
     }
 
-    private void swapByRank(int rankA, int rankB) {
-      double tmp = diagonal[rankA];
-      diagonal[rankA] = diagonal[rankB];
-      diagonal[rankB] = tmp;
-
-      if (rankA >= maxCachedRank && rankB >= maxCachedRank) {
-        // do nothing
-      } else if (rankA < maxCachedRank && rankB < maxCachedRank) {
-        double[] dtmp = data[rankA];
-        data[rankA] = data[rankB];
-        data[rankB] = dtmp;
-
-        for (double[] drow : data) {
-          double d = drow[rankA];
-          drow[rankA] = drow[rankB];
-          drow[rankB] = d;
-        }
-      } else if (rankA < maxCachedRank)  // && rankB > maxCachedRank
-      {
-        Arrays.fill(data[rankA], NOTCACHED);
-      } else //if (rankB < maxCachedRank && rankA > maxCachedRank
-      {
-        Arrays.fill(data[rankB], NOTCACHED);
+    protected void compute() {
+      if (to - from <= chunk) {
+        computeQ(a, bs, from, to, out);
+      } else {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new ComputeQTask(a, bs, from, middle, out, chunk),
+            new ComputeQTask(a, bs, middle, to, out, chunk));
       }
     }
   }
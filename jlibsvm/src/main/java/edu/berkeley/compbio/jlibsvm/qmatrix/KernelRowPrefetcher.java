@@ -0,0 +1,207 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes Q rows that the solver will probably ask for soon on a background pool, while the solver thread gets on with
+ * the current iteration.  The KernelQMatrix then takes the values from here instead of computing its misses.
+ * <p/>
+ * The background threads share nothing with the solver thread but the finished rows: they compute each value through
+ * KernelQMatrix.computeQ(a, b), which only reads the packed training set, and never touch the cache.  A row is indexed
+ * by SolutionVector.slot, so it stays valid whatever happens to the ranks in the meantime; and since a value of Q never
+ * changes, a finished row is kept until its space is needed for another.
+ *
+ * @version $Id$
+ */
+class KernelRowPrefetcher {
+// ------------------------------ FIELDS ------------------------------
+
+  private static final int IDLE = 0;
+  private static final int QUEUED = 1;
+  private static final int RUNNING = 2;
+  private static final int DONE = 3;
+
+  private final KernelQMatrix qMatrix;
+  private final ForkJoinPool pool;
+
+  private final Row[] rows;
+  private int nextRow = 0;
+
+  /**
+   * The row prefetched for each slot, or -1 if none
+   */
+  private final int[] rowOfSlot;
+
+  long prefetched = 0;
+  long used = 0;
+  long waited = 0;
+  long cancelled = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param numRows how many rows to hold; a few more than are prefetched per iteration lets finished rows survive a while
+   */
+  KernelRowPrefetcher(KernelQMatrix qMatrix, int numExamples, int numRows, ForkJoinPool pool) {
+    this.qMatrix = qMatrix;
+    this.pool = pool;
+
+    rows = new Row[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = new Row(i, numExamples);
+    }
+    rowOfSlot = new int[numExamples];
+    Arrays.fill(rowOfSlot, -1);
+  }
+
+// ------------------------ CANONICAL METHODS ------------------------
+
+  public String toString() {
+    return "prefetched rows = " + prefetched + ", used = " + used + ", waited for = " + waited + ", cancelled = "
+        + cancelled;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * Start computing the row of each of the given SVs against the first activeCount of the given active SVs, unless it
+   * is on its way already, is cached already, or there is no free row to put it in.  Called on the solver thread only.
+   */
+  void prefetch(SolutionVector[] svs, int count, SolutionVector[] active, int activeCount) {
+    for (int k = 0; k < count; k++) {
+      final SolutionVector a = svs[k];
+      if (rowOfSlot[a.slot] >= 0 || qMatrix.isCached(a, activeCount)) {
+        continue;
+      }
+
+      final Row row = claimRow();
+      if (row == null) {
+        // the background threads are behind already
+        return;
+      }
+
+      row.slot = a.slot;
+      rowOfSlot[a.slot] = row.index;
+      // the solver goes on rearranging the active array in place, so the task works from a copy of its own
+      row.start(a, active, activeCount);
+      prefetched++;
+    }
+  }
+
+  /**
+   * @return the values of Q between a and the SVs of its prefetched row by slot, NOTCACHED where there are none; or null
+   * if a has no row.  A row still queued is cancelled, since the caller is about to compute it anyway; one being
+   * computed is waited for.
+   */
+  double[] take(SolutionVector a) {
+    final int index = rowOfSlot[a.slot];
+    if (index < 0) {
+      return null;
+    }
+
+    final Row row = rows[index];
+    if (row.cancel()) {
+      rowOfSlot[a.slot] = -1;
+      cancelled++;
+      return null;
+    }
+    if (row.state.get() != DONE) {
+      waited++;
+    }
+    row.task.join();
+    used++;
+    return row.values;
+  }
+
+  /**
+   * Cancel the queued rows and wait for the ones being computed, so that nothing runs after the solver is done.
+   */
+  void close() {
+    for (Row row : rows) {
+      if (!row.cancel() && row.state.get() == RUNNING) {
+        row.task.join();
+      }
+    }
+  }
+
+  /**
+   * Take the next row in turn that isn't queued or being computed, forgetting whatever it held
+   */
+  private Row claimRow() {
+    for (int i = 0; i < rows.length; i++) {
+      final Row row = rows[nextRow];
+      nextRow = (nextRow + 1) % rows.length;
+
+      final int state = row.state.get();
+      if (state == IDLE || state == DONE) {
+        if (row.slot >= 0 && rowOfSlot[row.slot] == row.index) {
+          rowOfSlot[row.slot] = -1;
+        }
+        return row;
+      }
+    }
+    return null;
+  }
+
+// -------------------------- INNER CLASSES --------------------------
+
+  /**
+   * A row of Q for one slot, and the task filling it in.  Each task gets its own state, so that a cancelled task which
+   * runs anyway can't take over a later task's row.
+   */
+  private class Row {
+    final int index;
+    final double[] values;
+
+    /**
+     * The SVs to compute the row against, copied when the task is started
+     */
+    final SolutionVector[] svs;
+    int svCount;
+    AtomicInteger state = new AtomicInteger(IDLE);
+    int slot = -1;
+    ForkJoinTask<?> task;
+
+    Row(int index, int numExamples) {
+      this.index = index;
+      values = new double[numExamples];
+      svs = new SolutionVector[numExamples];
+    }
+
+    /**
+     * Only called once any previous task of this row is done or will never run, so that svs is free to overwrite
+     */
+    void start(SolutionVector a, SolutionVector[] active, int activeCount) {
+      System.arraycopy(active, 0, svs, 0, activeCount);
+      svCount = activeCount;
+
+      final AtomicInteger taskState = new AtomicInteger(QUEUED);
+      state = taskState;
+      task = pool.submit(() -> {
+        if (!taskState.compareAndSet(QUEUED, RUNNING)) {
+          return;
+        }
+        Arrays.fill(values, KernelCache.NOTCACHED);
+        for (int i = 0; i < svCount; i++) {
+          values[svs[i].slot] = qMatrix.computeQ(a, svs[i]);
+        }
+        taskState.set(DONE);
+      });
+    }
+
+    /**
+     * @return whether the row was still queued, and now never will be computed
+     */
+    boolean cancel() {
+      if (state.compareAndSet(QUEUED, IDLE)) {
+        task.cancel(false);
+        return true;
+      }
+      return false;
+    }
+  }
+}
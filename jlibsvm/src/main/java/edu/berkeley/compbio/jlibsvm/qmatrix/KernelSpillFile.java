@@ -0,0 +1,244 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SvmException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * The on-disk tier of a TieredKernelCache: rows evicted from memory are written to a memory-mapped temporary file, so
+ * that they can be read back instead of recomputed.
+ * <p/>
+ * The file holds full rows of Q, indexed by SolutionVector.slot rather than by rank in both directions, so that the
+ * rank swaps of shrinking never have to touch it.  Entries that were never spilled hold NOTCACHED.  When the file is
+ * full, the rows that were spilled first are overwritten first.
+ *
+ * @version $Id$
+ */
+class KernelSpillFile implements Cache.EvictionListener {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The largest region to map at once; a single mapping can't exceed 2 GB anyway
+   */
+  private static final long SEGMENT_BYTES = 1L << 30;
+
+  private final int numExamples;
+  private final boolean singlePrecision;
+  private final int entryBytes;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+
+  private final int numRows;
+  private final int rowsPerSegment;
+  private final MappedByteBuffer[] segments;
+
+  // views of the segments, as doubles or as floats depending on singlePrecision
+  private final DoubleBuffer[] doubleSegments;
+  private final FloatBuffer[] floatSegments;
+
+  /**
+   * The slot of the SolutionVector currently at each rank.  Kept in step with the ranks by swapRanks().
+   */
+  private final int[] slotOfRank;
+
+  private final int[] fileRowOfSlot;
+  private final int[] slotOfFileRow;
+  private int nextFileRow = 0;
+
+  long spills = 0;
+  long spillhits = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param directory where to create the file, or null for the default temporary directory
+   * @param spillBytes the most disk space the spilled rows may occupy
+   */
+  KernelSpillFile(File directory, int numExamples, long spillBytes, boolean singlePrecision) {
+    this.numExamples = numExamples;
+    this.singlePrecision = singlePrecision;
+    entryBytes = singlePrecision ? Float.BYTES : Double.BYTES;
+
+    final long rowBytes = Math.max(1L, (long) numExamples * entryBytes);
+    numRows = (int) Math.min(numExamples, spillBytes / rowBytes);
+    rowsPerSegment = (int) Math.max(1, Math.min(Math.max(numRows, 1), SEGMENT_BYTES / rowBytes));
+
+    final int numSegments = numRows == 0 ? 0 : (numRows + rowsPerSegment - 1) / rowsPerSegment;
+    segments = new MappedByteBuffer[numSegments];
+    doubleSegments = singlePrecision ? null : new DoubleBuffer[numSegments];
+    floatSegments = singlePrecision ? new FloatBuffer[numSegments] : null;
+
+    slotOfRank = new int[numExamples];
+    for (int i = 0; i < numExamples; i++) {
+      slotOfRank[i] = i;
+    }
+    fileRowOfSlot = new int[numExamples];
+    Arrays.fill(fileRowOfSlot, -1);
+    slotOfFileRow = new int[numRows];
+    Arrays.fill(slotOfFileRow, -1);
+
+    try {
+      file = File.createTempFile("jlibsvm-kernel", ".spill", directory);
+      file.deleteOnExit();
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+    } catch (IOException e) {
+      throw new SvmException("Could not create a kernel spill file in " + directory, e);
+    }
+  }
+
+// ------------------------ CANONICAL METHODS ------------------------
+
+  public String toString() {
+    return "spilled rows = " + Math.min(spills, numRows) + "/" + numRows + ", spills = " + spills
+        + ", spillhits = " + spillhits;
+  }
+
+// ------------------------ INTERFACE METHODS ------------------------
+
+// --------------------- Interface EvictionListener ---------------------
+
+  public void evicted(int rank, double[] data, float[] floatData, int len) {
+    if (numRows == 0) {
+      return;
+    }
+
+    final int slot = slotOfRank[rank];
+    int fileRow = fileRowOfSlot[slot];
+    if (fileRow < 0) {
+      fileRow = claimRow(slot);
+    }
+
+    // values spilled earlier beyond len stay valid, since the file is indexed by slot
+    final int base = offset(fileRow);
+    if (singlePrecision) {
+      final FloatBuffer segment = floatSegments[fileRow / rowsPerSegment];
+      for (int c = 0; c < len; c++) {
+        segment.put(base + slotOfRank[c], floatData[c]);
+      }
+    } else {
+      final DoubleBuffer segment = doubleSegments[fileRow / rowsPerSegment];
+      for (int c = 0; c < len; c++) {
+        segment.put(base + slotOfRank[c], data[c]);
+      }
+    }
+    spills++;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the spilled value of Q for the given ranks, or NOTCACHED
+   */
+  double get(int rowRank, int columnRank) {
+    final int fileRow = fileRowOfSlot[slotOfRank[rowRank]];
+    if (fileRow < 0) {
+      return KernelCache.NOTCACHED;
+    }
+
+    final int index = offset(fileRow) + slotOfRank[columnRank];
+    // a float NEGATIVE_INFINITY widens to NOTCACHED
+    return singlePrecision ? floatSegments[fileRow / rowsPerSegment].get(index)
+        : doubleSegments[fileRow / rowsPerSegment].get(index);
+  }
+
+  void swapRanks(int rankA, int rankB) {
+    final int tmp = slotOfRank[rankA];
+    slotOfRank[rankA] = slotOfRank[rankB];
+    slotOfRank[rankB] = tmp;
+  }
+
+  /**
+   * Assign a file row to the given slot, taking it from whichever slot has held its row the longest if need be, and
+   * fill it with NOTCACHED.
+   */
+  private int claimRow(int slot) {
+    final int fileRow = nextFileRow;
+    nextFileRow = (nextFileRow + 1) % numRows;
+
+    final int previous = slotOfFileRow[fileRow];
+    if (previous >= 0) {
+      fileRowOfSlot[previous] = -1;
+    }
+    slotOfFileRow[fileRow] = slot;
+    fileRowOfSlot[slot] = fileRow;
+
+    final int segment = fileRow / rowsPerSegment;
+    if (segments[segment] == null) {
+      map(segment);
+    }
+
+    final int base = offset(fileRow);
+    for (int c = 0; c < numExamples; c++) {
+      if (singlePrecision) {
+        floatSegments[segment].put(base + c, Float.NEGATIVE_INFINITY);
+      } else {
+        doubleSegments[segment].put(base + c, KernelCache.NOTCACHED);
+      }
+    }
+    return fileRow;
+  }
+
+  private void map(int segment) {
+    final int rows = Math.min(rowsPerSegment, numRows - segment * rowsPerSegment);
+    final long rowBytes = (long) numExamples * entryBytes;
+    try {
+      final MappedByteBuffer buffer = channel
+          .map(FileChannel.MapMode.READ_WRITE, segment * rowsPerSegment * rowBytes, rows * rowBytes);
+      buffer.order(ByteOrder.nativeOrder());
+      segments[segment] = buffer;
+      if (singlePrecision) {
+        floatSegments[segment] = buffer.asFloatBuffer();
+      } else {
+        doubleSegments[segment] = buffer.asDoubleBuffer();
+      }
+    } catch (IOException e) {
+      throw new SvmException("Could not map the kernel spill file " + file, e);
+    }
+  }
+
+  /**
+   * The position of the first entry of the given file row within its segment
+   */
+  private int offset(int fileRow) {
+    return (fileRow % rowsPerSegment) * numExamples;
+  }
+
+  /**
+   * Unmap and delete the file.
+   */
+  void close() {
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] != null) {
+        DirectMemory.free(segments[i]);
+        segments[i] = null;
+        if (singlePrecision) {
+          floatSegments[i] = null;
+        } else {
+          doubleSegments[i] = null;
+        }
+      }
+    }
+    Arrays.fill(fileRowOfSlot, -1);
+
+    try {
+      channel.close();
+      randomAccessFile.close();
+    } catch (IOException e) {
+      Logger.getGlobal().warning("Could not close the kernel spill file " + file + ": " + e);
+    }
+    if (!file.delete()) {
+      Logger.getGlobal().warning("Could not delete the kernel spill file " + file);
+    }
+  }
+}
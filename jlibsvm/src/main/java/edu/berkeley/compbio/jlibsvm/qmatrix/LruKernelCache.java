@@ -0,0 +1,202 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.util.Collection;
+
+/**
+ * The original LIBSVM caching strategy: the budget holds prefixes of Q rows of whatever length was last requested,
+ * evicting the least recently used rows as needed.  Unlike the square cache, any rank can have a cached row, so a
+ * problem much larger than the square root of the budget still gets its most recently used rows cached, rather than
+ * recomputing everything beyond a fixed rank.
+ * <p/>
+ * The values are not shared symmetrically between rows, as in LIBSVM; but a row request never needs more than one batch
+ * of kernel evaluations, for the part of the row beyond what is already cached.
+ * <p/>
+ * Which row to evict is up to a KernelCachePolicy; the least recently used one, by default.
+ *
+ * @version $Id$
+ */
+class LruKernelCache extends KernelCache {
+// ------------------------------ FIELDS ------------------------------
+
+  final Cache cache;
+
+  // java: simulate pointer using single-element array
+  private final double[][] rowHolder = new double[1][];
+  private final float[][] floatRowHolder = new float[1][];
+
+  /**
+   * Scratch space for a full row in rank order, before the inactive part is rearranged
+   */
+  private final double[] rankedValues;
+
+  /**
+   * Scratch space for the SVs of every rank, for requests that span the inactive ranks too
+   */
+  private final SolutionVector[] byRank;
+
+  /**
+   * The SV of every rank, kept up to date for the eviction policy to look at; null for plain LRU, which doesn't need it
+   */
+  private final SolutionVector[] svByRank;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param policy which row to evict, or null for the least recently used one
+   */
+  LruKernelCache(KernelQMatrix qMatrix, int numExamples, long cacheBytes, boolean singlePrecision,
+      KernelCachePolicy policy) {
+    super(qMatrix, numExamples, singlePrecision);
+    cache = new Cache(numExamples, cacheBytes, singlePrecision);
+    byRank = new SolutionVector[numExamples];
+    rankedValues = new double[numExamples];
+
+    // evicting the head of the list directly is cheaper than presenting the whole list to a policy that picks it anyway
+    if (policy == null || policy == StandardKernelCachePolicy.LEAST_RECENTLY_USED) {
+      svByRank = null;
+    } else {
+      svByRank = new SolutionVector[numExamples];
+      cache.setPolicy(policy, svByRank);
+    }
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  String sizeString() {
+    return cache.used() + "/" + cache.capacity() + " entries";
+  }
+
+  long evictions() {
+    return cache.evictions;
+  }
+
+  void initRanks(Collection<SolutionVector> allExamples) {
+    if (svByRank != null) {
+      for (SolutionVector a : allExamples) {
+        svByRank[a.rank] = a;
+      }
+    }
+  }
+
+  public double get(SolutionVector a, SolutionVector b) {
+    if (a == b) {
+      return getDiagonal(a);
+    }
+
+    if (singlePrecision) {
+      float[] row = cache.peek_float_data(a.rank, b.rank + 1);
+      if (row != null) {
+        hits++;
+        return row[b.rank];
+      }
+
+      row = cache.peek_float_data(b.rank, a.rank + 1);
+      if (row != null) {
+        hits++;
+        return row[a.rank];
+      }
+    } else {
+      double[] row = cache.peek_data(a.rank, b.rank + 1);
+      if (row != null) {
+        hits++;
+        return row[b.rank];
+      }
+
+      row = cache.peek_data(b.rank, a.rank + 1);
+      if (row != null) {
+        hits++;
+        return row[a.rank];
+      }
+    }
+
+    // a single value isn't worth evicting a row for
+    widemisses++;
+    return computeMissing(a, b);
+  }
+
+  public void get(SolutionVector a, SolutionVector[] active, int activeCount, double[] buf) {
+    // active array is in rank order
+    fill(a, active, activeCount, buf);
+  }
+
+  public void get(SolutionVector a, SolutionVector[] svs, int activeCount, int count, double[] buf) {
+    // the ranks are contiguous, so a full-length row covers both parts
+    System.arraycopy(svs, 0, byRank, 0, activeCount);
+    for (int i = activeCount; i < count; i++) {
+      byRank[svs[i].rank] = svs[i];
+    }
+
+    fill(a, byRank, count, rankedValues);
+
+    // the inactive part goes in the requested order
+    System.arraycopy(rankedValues, 0, buf, 0, activeCount);
+    for (int i = activeCount; i < count; i++) {
+      buf[i] = rankedValues[svs[i].rank];
+    }
+  }
+
+  /**
+   * Make sure [0, len) of the cached row of a is filled in, and copy it to buf
+   */
+  private void fill(SolutionVector a, SolutionVector[] ranked, int len, double[] buf) {
+    final int start;
+    if (singlePrecision) {
+      start = cache.get_data(a.rank, floatRowHolder, len);
+      final float[] row = floatRowHolder[0];
+
+      if (start < len) {
+        computeMissing(a, ranked, start, len, buf);
+        for (int i = start; i < len; i++) {
+          row[i] = (float) buf[i];
+        }
+      }
+      for (int i = 0; i < Math.min(start, len); i++) {
+        buf[i] = row[i];
+      }
+    } else {
+      start = cache.get_data(a.rank, rowHolder, len);
+      final double[] row = rowHolder[0];
+
+      if (start < len) {
+        computeMissing(a, ranked, start, len, row);
+      }
+      System.arraycopy(row, 0, buf, 0, len);
+    }
+
+    if (start < len) {
+      hits += start;
+      misses += len - start;
+    } else {
+      hits += len;
+    }
+  }
+
+  boolean isCached(SolutionVector a, int len) {
+    return singlePrecision ? cache.peek_float_data(a.rank, len) != null : cache.peek_data(a.rank, len) != null;
+  }
+
+  /**
+   * Provide a value of Q that the cached rows lack
+   */
+  double computeMissing(SolutionVector a, SolutionVector b) {
+    return computeQ(a, b);
+  }
+
+  /**
+   * Provide the values of Q between a and each of ranked[start, len) that the cached row lacks, writing them to the
+   * same positions of out
+   */
+  void computeMissing(SolutionVector a, SolutionVector[] ranked, int start, int len, double[] out) {
+    computeQ(a, ranked, start, len, out);
+  }
+
+  void swapByRank(int rankA, int rankB) {
+    cache.swap_index(rankA, rankB);
+    if (svByRank != null) {
+      final SolutionVector tmp = svByRank[rankA];
+      svByRank[rankA] = svByRank[rankB];
+      svByRank[rankB] = tmp;
+    }
+  }
+}
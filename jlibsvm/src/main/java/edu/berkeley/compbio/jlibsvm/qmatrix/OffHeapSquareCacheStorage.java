@@ -0,0 +1,207 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Square cache storage in direct memory, outside the Java heap, so that a large cache neither needs a larger -Xmx nor
+ * gives the garbage collector a huge old-generation array to trace and copy.
+ * <p/>
+ * The rows live in slabs of direct memory of up to SLAB_BYTES each, allocated as rows are first needed.  Each rank maps
+ * to the slot holding its row, so swapping two rows just swaps their slots.  Since direct memory is only returned when
+ * its buffer is collected, which may be much later, close() frees the slabs explicitly where the JVM allows it (see
+ * DirectMemory).
+ *
+ * @version $Id$
+ */
+class OffHeapSquareCacheStorage extends SquareCacheStorage {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The largest slab to allocate; a single direct buffer can't exceed 2 GB anyway
+   */
+  private static final long SLAB_BYTES = 1L << 30;
+
+  private final boolean singlePrecision;
+  private final int rowsPerSlab;
+
+  private final ByteBuffer[] slabs;
+
+  // views of the slabs, as doubles or as floats depending on singlePrecision
+  private final DoubleBuffer[] doubleSlabs;
+  private final FloatBuffer[] floatSlabs;
+
+  /**
+   * The slot holding each rank's row, or -1 if it has none
+   */
+  private final int[] rowSlots;
+
+  // slots released by forget(), to be reused before any new ones
+  private final int[] freeSlots;
+  private int numFreeSlots = 0;
+  private int numSlots = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  OffHeapSquareCacheStorage(int size, boolean singlePrecision) {
+    super(size);
+    this.singlePrecision = singlePrecision;
+
+    final long rowBytes = Math.max(1L, (long) size * (singlePrecision ? Float.BYTES : Double.BYTES));
+    rowsPerSlab = (int) Math.max(1, Math.min(size, SLAB_BYTES / rowBytes));
+
+    final int numSlabs = size == 0 ? 0 : (size + rowsPerSlab - 1) / rowsPerSlab;
+    slabs = new ByteBuffer[numSlabs];
+    doubleSlabs = singlePrecision ? null : new DoubleBuffer[numSlabs];
+    floatSlabs = singlePrecision ? new FloatBuffer[numSlabs] : null;
+
+    rowSlots = new int[size];
+    Arrays.fill(rowSlots, -1);
+    freeSlots = new int[size];
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  void allocate(int row) {
+    if (rowSlots[row] >= 0) {
+      return;
+    }
+
+    final int slot = numFreeSlots > 0 ? freeSlots[--numFreeSlots] : newSlot();
+
+    final int base = offset(slot);
+    for (int j = 0; j < size; j++) {
+      put(slot, base + j, get(j, row));
+    }
+
+    rowSlots[row] = slot;
+    allocatedRows++;
+  }
+
+  private int newSlot() {
+    final int slot = numSlots++;
+    final int slab = slot / rowsPerSlab;
+    if (slabs[slab] == null) {
+      final int rows = Math.min(rowsPerSlab, size - slab * rowsPerSlab);
+      final ByteBuffer buffer = ByteBuffer
+          .allocateDirect(rows * size * (singlePrecision ? Float.BYTES : Double.BYTES))
+          .order(ByteOrder.nativeOrder());
+      slabs[slab] = buffer;
+      if (singlePrecision) {
+        floatSlabs[slab] = buffer.asFloatBuffer();
+      } else {
+        doubleSlabs[slab] = buffer.asDoubleBuffer();
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * The position of the first entry of the given slot within its slab
+   */
+  private int offset(int slot) {
+    return (slot % rowsPerSlab) * size;
+  }
+
+  private double read(int slot, int index) {
+    return singlePrecision ? floatSlabs[slot / rowsPerSlab].get(index)
+        : doubleSlabs[slot / rowsPerSlab].get(index);
+  }
+
+  private void put(int slot, int index, double value) {
+    if (singlePrecision) {
+      floatSlabs[slot / rowsPerSlab].put(index, (float) value);
+    } else {
+      doubleSlabs[slot / rowsPerSlab].put(index, value);
+    }
+  }
+
+  double get(int row, int column) {
+    final int slot = rowSlots[row];
+    // a float NEGATIVE_INFINITY widens to NOTCACHED
+    return slot < 0 ? KernelCache.NOTCACHED : read(slot, offset(slot) + column);
+  }
+
+  void set(int row, int column, double value) {
+    final int slot = rowSlots[row];
+    if (slot >= 0) {
+      put(slot, offset(slot) + column, value);
+    }
+  }
+
+  int findMissing(int row, int len, int[] positions) {
+    final int slot = rowSlots[row];
+    final int base = offset(slot);
+    int count = 0;
+    for (int i = 0; i < len; i++) {
+      if (read(slot, base + i) == KernelCache.NOTCACHED) {
+        positions[count++] = i;
+      }
+    }
+    return count;
+  }
+
+  void copy(int row, double[] buf, int len) {
+    final int slot = rowSlots[row];
+    final int base = offset(slot);
+    if (singlePrecision) {
+      final FloatBuffer slab = floatSlabs[slot / rowsPerSlab];
+      for (int i = 0; i < len; i++) {
+        buf[i] = slab.get(base + i);
+      }
+    } else {
+      final DoubleBuffer slab = doubleSlabs[slot / rowsPerSlab];
+      slab.position(base);
+      slab.get(buf, 0, len);
+    }
+  }
+
+  void swap(int rankA, int rankB) {
+    final int tmp = rowSlots[rankA];
+    rowSlots[rankA] = rowSlots[rankB];
+    rowSlots[rankB] = tmp;
+
+    for (int slot : rowSlots) {
+      if (slot >= 0) {
+        final int base = offset(slot);
+        final double d = read(slot, base + rankA);
+        put(slot, base + rankA, read(slot, base + rankB));
+        put(slot, base + rankB, d);
+      }
+    }
+  }
+
+  void forget(int rank) {
+    final int freed = rowSlots[rank];
+    if (freed >= 0) {
+      rowSlots[rank] = -1;
+      freeSlots[numFreeSlots++] = freed;
+      allocatedRows--;
+    }
+
+    for (int slot : rowSlots) {
+      if (slot >= 0) {
+        put(slot, offset(slot) + rank, KernelCache.NOTCACHED);
+      }
+    }
+  }
+
+  void close() {
+    for (int i = 0; i < slabs.length; i++) {
+      if (slabs[i] != null) {
+        DirectMemory.free(slabs[i]);
+        slabs[i] = null;
+        if (singlePrecision) {
+          floatSlabs[i] = null;
+        } else {
+          doubleSlabs[i] = null;
+        }
+      }
+    }
+    Arrays.fill(rowSlots, -1);
+    allocatedRows = 0;
+  }
+}
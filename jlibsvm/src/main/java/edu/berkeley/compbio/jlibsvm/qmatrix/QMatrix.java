@@ -1,7 +1,9 @@
 package edu.berkeley.compbio.jlibsvm.qmatrix;
 
 import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -17,7 +19,7 @@ import java.util.Collection;
  * @version $Id$
  */
 
-public interface QMatrix {
+public interface QMatrix extends AutoCloseable {
 // -------------------------- OTHER METHODS --------------------------
 
   double evaluateDiagonal(SolutionVector a);
@@ -29,7 +31,77 @@ public interface QMatrix {
 
   void initRanks(Collection<SolutionVector> allExamples);
 
-  void maintainCache(SolutionVector[] active, SolutionVector[] newlyInactive);
+  /**
+   * Rearrange the ranks so that the first activeCount of active come before the first newlyInactiveCount of
+   * newlyInactive, each given in rank order
+   */
+  void maintainCache(SolutionVector[] active, int activeCount, SolutionVector[] newlyInactive, int newlyInactiveCount);
 
   public String perfString();
+
+  /**
+   * As getQ(svA, active, buf), for just the first activeCount of the active SVs
+   */
+  default void getQ(SolutionVector svA, SolutionVector[] active, int activeCount, double[] buf) {
+    getQ(svA, activeCount == active.length ? active : Arrays.copyOf(active, activeCount), buf);
+  }
+
+  /**
+   * As getQ(svA, active, inactive, buf), with the active SVs in svs[0, activeCount) and the inactive ones in
+   * svs[activeCount, count), so that the caller can keep both in one array
+   */
+  default void getQ(SolutionVector svA, SolutionVector[] svs, int activeCount, int count, double[] buf) {
+    getQ(svA, Arrays.copyOf(svs, activeCount), Arrays.copyOfRange(svs, activeCount, count), buf);
+  }
+
+  /**
+   * @return how well the kernel cache has served so far, or null if there is no cache
+   */
+  default KernelCacheStatistics getCacheStatistics() {
+    return null;
+  }
+
+  /**
+   * Compute a value of Q exactly as getQ() would hand it out, such that several threads may call this at once.  By
+   * default this asks getQ() for b alone, as an inactive SV, holding the lock on this QMatrix so that the threads take
+   * turns; KernelQMatrix computes the value without touching the cache instead.
+   */
+  default double evaluateUncached(SolutionVector a, SolutionVector b) {
+    final double[] buf = new double[1];
+    synchronized (this) {
+      getQ(a, new SolutionVector[]{b}, 0, 1, buf);
+    }
+    return buf[0];
+  }
+
+  /**
+   * @return the pool on which to spread the computation of count values of Q through evaluateUncached(), or null if
+   * they are better computed on the calling thread
+   */
+  default ForkJoinPool getPoolFor(long count) {
+    return null;
+  }
+
+  /**
+   * @return how many SVs per iteration prefetch() can make use of; 0 if it does nothing
+   */
+  default int getPrefetchRows() {
+    return 0;
+  }
+
+  /**
+   * Hint that the rows of the first count of the given SVs against the first activeCount of the given active SVs will
+   * probably be requested soon, so that they can be computed in the background meanwhile.  The active array may change
+   * as soon as this returns.
+   */
+  default void prefetch(SolutionVector[] svs, int count, SolutionVector[] active, int activeCount) {
+  }
+
+  /**
+   * Release whatever the cache holds outside the Java heap.  The Solver calls this when it is done optimizing; the
+   * QMatrix may not be used afterwards.
+   */
+  @Override
+  default void close() {
+  }
 }
@@ -0,0 +1,189 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+
+/**
+ * I had written a SlowRecentActivitySquareCache that was supposed to be clever by leaving entries in place to avoid
+ * moving things around in memory; but that turns out to be the opposite of what we want due to cache locality issues.
+ * The original LIBSVM strategy of rearranging the actual entries, and of referring to them directly by rank instead of
+ * by id, is really good in this regard-- the cost of the memory rearrangement is apparently much less than the cache
+ * locality gain since the cache is read far more than it is written or rearranged.
+ * <p/>
+ * This one is more like the original LIBSVM cache, rearranging the entries in memory according to which SVs are
+ * currently active.  Only the square block of the kernel matrix over the ranks below maxCachedRank is cached; anything
+ * involving a higher rank is a "widemiss" and is recomputed every time.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+class RecentActivitySquareCache extends KernelCache {
+// ------------------------------ FIELDS ------------------------------
+
+  final SquareCacheStorage data;
+
+  final int maxCachedRank;
+
+  // scratch space for collecting the misses in a row so that they can be computed as one batch
+  final int[] missPositions;
+  final SolutionVector[] missVectors;
+  final double[] missValues;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param mode SQUARE, OFF_HEAP or INDIRECT, choosing the storage (see SquareCacheStorage.create())
+   */
+  public RecentActivitySquareCache(KernelQMatrix qMatrix, int numExamples, long cacheBytes,
+      boolean singlePrecision, KernelCacheMode mode) {
+    super(qMatrix, numExamples, singlePrecision);
+
+    // the rows are allocated on first use, so memory grows with the ranks actually requested, up to the budget
+    data = SquareCacheStorage.create(numExamples, cacheBytes, singlePrecision, mode);
+    maxCachedRank = data.size;
+
+    missPositions = new int[numExamples];
+    missVectors = new SolutionVector[numExamples];
+    missValues = new double[numExamples];
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  String sizeString() {
+    return data.allocatedRows + "/" + maxCachedRank + " rows";
+  }
+
+  public double get(SolutionVector a, SolutionVector b) {
+    //assert a != b;
+    // the diagonal entries should always stay empty; use getDiagonal instead
+    if (a == b) {
+      return getDiagonal(a);
+    }
+
+    // note the use of the redundant sv.rank field here instead of idToRankMap[sv.id].  This is just for cache locality.
+
+    if (a.rank >= maxCachedRank || b.rank >= maxCachedRank) {
+      //return NOTCACHED;
+      widemisses++;
+      return computeQ(a, b);
+    }
+
+    double result = data.get(a.rank, b.rank);
+    if (result == NOTCACHED) {
+      result = data.get(b.rank, a.rank);
+    }
+
+    if (result == NOTCACHED) {
+      result = computeQ(a, b);
+      data.allocate(a.rank);
+      data.set(a.rank, b.rank, result);
+      data.set(b.rank, a.rank, result);
+      misses++;
+    } else {
+      hits++;
+    }
+    return result;
+  }
+
+  public void get(SolutionVector a, SolutionVector[] active, int activeCount, double[] buf) {
+    // active array is in rank order
+
+    if (a.rank >= maxCachedRank) {
+      computeQ(a, active, 0, activeCount, buf);
+      widemisses += activeCount;
+      return;
+    }
+
+    data.allocate(a.rank);
+
+    int cachedAndActive = Math.min(maxCachedRank, activeCount);
+
+    // collect the misses first, then compute them all in one call to the kernel
+    final int missCount = data.findMissing(a.rank, cachedAndActive, missPositions);
+
+    if (missCount > 0) {
+      for (int k = 0; k < missCount; k++) {
+        missVectors[k] = active[missPositions[k]];
+      }
+
+      computeQ(a, missVectors, 0, missCount, missValues);
+
+      for (int k = 0; k < missCount; k++) {
+        data.set(a.rank, missPositions[k], missValues[k]);
+        data.set(missVectors[k].rank, a.rank, missValues[k]);
+      }
+    }
+
+    hits += cachedAndActive - missCount;
+    misses += missCount;
+
+    data.copy(a.rank, buf, cachedAndActive);  // PERF test whether this really helps (cache locality?)
+
+    if (cachedAndActive < activeCount) {
+      computeQ(a, active, cachedAndActive, activeCount, buf);
+      widemisses += activeCount - cachedAndActive;
+    }
+  }
+
+  public void get(SolutionVector a, SolutionVector[] svs, int activeCount, int count, double[] buf) {
+    // first fill the active portion.  Here the requested order must match the rank order anyway
+    get(a, svs, activeCount, buf);
+
+    // then fill the inactive portion in the requested order, not the rank order
+
+    if (a.rank >= maxCachedRank) {
+      computeQ(a, svs, activeCount, count, buf);
+      widemisses += count - activeCount;
+    } else {
+      // the row of a was allocated by get() above
+
+      // anything not available from the cache is collected and computed as one batch
+      int missCount = 0;
+      for (int i = activeCount; i < count; i++) {
+        final SolutionVector b = svs[i];
+        final double cached = b.rank >= maxCachedRank ? NOTCACHED : data.get(a.rank, b.rank);
+        if (cached == NOTCACHED) {
+          missPositions[missCount] = i;
+          missVectors[missCount] = b;
+          missCount++;
+        } else {
+          buf[i] = cached;
+          hits++;
+        }
+      }
+
+      if (missCount > 0) {
+        computeQ(a, missVectors, 0, missCount, missValues);
+
+        for (int k = 0; k < missCount; k++) {
+          final SolutionVector b = missVectors[k];
+          final double value = missValues[k];
+          buf[missPositions[k]] = value;
+
+          if (b.rank >= maxCachedRank) {
+            widemisses++;
+          } else {
+            data.set(a.rank, b.rank, value);
+            data.set(b.rank, a.rank, value);
+            misses++;
+          }
+        }
+      }
+    }
+  }
+
+  void close() {
+    data.close();
+  }
+
+  void swapByRank(int rankA, int rankB) {
+    if (rankA >= maxCachedRank && rankB >= maxCachedRank) {
+      // do nothing
+    } else if (rankA < maxCachedRank && rankB < maxCachedRank) {
+      data.swap(rankA, rankB);
+    } else {
+      // the vector moving into the cached range has nothing cached, so both its row and its column in the other rows
+      // must be forgotten.  (Clearing just the row, as before, left the previous occupant's values in the column.)
+      data.forget(rankA < maxCachedRank ? rankA : rankB);
+    }
+  }
+}
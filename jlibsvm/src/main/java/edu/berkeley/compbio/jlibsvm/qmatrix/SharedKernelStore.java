@@ -0,0 +1,225 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.kernel.DotProductKernel;
+import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
+import edu.berkeley.compbio.jlibsvm.util.CsrMatrix;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Kernel rows over a fixed set of points, shared by every Q matrix that trains on some of those points with the same
+ * kernel: the C values of a grid search and the folds of a cross-validation all read the same values, so each is
+ * computed only once.  Kernels are told apart by identity, as are the points, so a scaled copy of a point (or any point
+ * not given here) is simply computed as usual.
+ * <p/>
+ * A row holds the kernel of one point with all the points, and is computed as a whole the first time a Q matrix asks
+ * for it.  Once more than one DotProductKernel uses the store, their rows are derived from rows of dot products shared
+ * by all of them: a grid over gamma (or over the kernels of that family) then computes each dot product once, and each
+ * kernel only applies its evaluateFromDot() to them.  The kernel values are still kept per kernel, since the solvers
+ * read them far more often than they could afford to transform them.
+ * <p/>
+ * Rows are never evicted; once the budget is used up, further rows are computed by each Q matrix on its own.  The
+ * store is safe to use from any number of threads: two threads asking for the same missing row may both compute it, but
+ * only one copy is kept.
+ *
+ * @version $Id$
+ */
+public class SharedKernelStore {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The points in a fixed order, and the position of each; neither changes after construction
+   */
+  private final SparseVector[] points;
+  private final Map<SparseVector, Integer> indexes;
+
+  private final long maxBytes;
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final Map<KernelFunction, Rows> rows = new ConcurrentHashMap<>();
+
+  /**
+   * The rows of dot products, made when a second DotProductKernel asks for rows; tooLargeToPack is set instead if the
+   * points can't be packed, and each kernel then computes its rows from the points
+   */
+  private Rows dotProducts;
+  private boolean tooLargeToPack;
+  private final AtomicInteger dotProductKernels = new AtomicInteger();
+
+  private final AtomicLong rowHits = new AtomicLong();
+  private final AtomicLong evaluations = new AtomicLong();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param points   the points whose kernel values to share, usually the examples of the problem being grid-searched
+   * @param maxBytes the most memory the rows may occupy
+   */
+  public SharedKernelStore(Collection<SparseVector> points, long maxBytes) {
+    this.points = points.toArray(new SparseVector[points.size()]);
+    this.indexes = new IdentityHashMap<>(this.points.length);
+    for (int i = 0; i < this.points.length; i++) {
+      indexes.put(this.points[i], i);
+    }
+    this.maxBytes = maxBytes;
+  }
+
+// --------------------- GETTER / SETTER METHODS ---------------------
+
+  /**
+   * @return how many kernel values and dot products the store has computed from the points, for comparing against the
+   * work of separate caches
+   */
+  public long getEvaluations() {
+    return evaluations.get();
+  }
+
+  /**
+   * @return how many times a Q matrix found a row already computed
+   */
+  public long getRowHits() {
+    return rowHits.get();
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the position of the given point in the rows, or -1 if it isn't one of the points of this store
+   */
+  public int indexOf(SparseVector point) {
+    final Integer index = indexes.get(point);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return the rows of the given kernel, which a Q matrix should look up once rather than per value
+   */
+  Rows rowsFor(KernelFunction kernel) {
+    return rows.computeIfAbsent(kernel, Rows::new);
+  }
+
+  /**
+   * @return the rows of dot products, or null if the points are too large to pack
+   */
+  private synchronized Rows dotProducts() {
+    if (dotProducts == null && !tooLargeToPack) {
+      final CsrMatrix matrix = CsrMatrix.of(points);
+      if (matrix == null) {
+        tooLargeToPack = true;
+      } else {
+        dotProducts = new Rows(matrix);
+      }
+    }
+    return dotProducts;
+  }
+
+  public String toString() {
+    return "SharedKernelStore: " + (bytes.get() / Math.max(points.length * (long) Double.BYTES, 1)) + " rows of "
+        + points.length + ", " + rowHits.get() + " row hits";
+  }
+
+// -------------------------- INNER CLASSES --------------------------
+
+  /**
+   * The rows of one kernel, or the rows of dot products shared by the DotProductKernels
+   */
+  class Rows {
+    private final KernelFunction kernel;
+    private final AtomicReferenceArray<double[]> values = new AtomicReferenceArray<>(points.length);
+
+    /**
+     * For the dot products: the packed points, and the squared norm of each point for evaluateFromDot()
+     */
+    private final CsrMatrix matrix;
+    final double[] squaredNorms;
+
+    Rows(KernelFunction kernel) {
+      this.kernel = kernel;
+      this.matrix = null;
+      this.squaredNorms = null;
+      if (kernel instanceof DotProductKernel) {
+        dotProductKernels.incrementAndGet();
+      }
+    }
+
+    /**
+     * The dot products of the given packed points
+     */
+    Rows(CsrMatrix matrix) {
+      this.kernel = null;
+      this.matrix = matrix;
+      this.squaredNorms = new double[points.length];
+      for (int i = 0; i < points.length; i++) {
+        squaredNorms[i] = matrix.squaredNorm(i);
+      }
+    }
+
+    /**
+     * @return the row of the point at the given position, computing it if the budget allows; null if it doesn't
+     */
+    double[] get(int index) {
+      final double[] row = values.get(index);
+      if (row != null) {
+        rowHits.incrementAndGet();
+        return row;
+      }
+
+      final long rowBytes = (long) points.length * Double.BYTES;
+      if (bytes.addAndGet(rowBytes) > maxBytes) {
+        bytes.addAndGet(-rowBytes);
+        return null;
+      }
+
+      final double[] computed = compute(index);
+
+      if (values.compareAndSet(index, null, computed)) {
+        return computed;
+      }
+      // another thread got there first
+      bytes.addAndGet(-rowBytes);
+      return values.get(index);
+    }
+
+    private double[] compute(int index) {
+      final double[] computed = new double[points.length];
+      if (matrix != null) {
+        for (int i = 0; i < points.length; i++) {
+          computed[i] = matrix.dot(index, i);
+        }
+        evaluations.addAndGet(points.length);
+        return computed;
+      }
+
+      // with a single kernel of the family, the dot products would only take up memory
+      if (kernel instanceof DotProductKernel && dotProductKernels.get() > 1) {
+        final Rows dots = dotProducts();
+        final double[] dotRow = dots == null ? null : dots.get(index);
+        if (dotRow != null) {
+          final DotProductKernel dotProductKernel = (DotProductKernel) kernel;
+          final double aSquare = dots.squaredNorms[index];
+          for (int i = 0; i < points.length; i++) {
+            computed[i] = dotProductKernel.evaluateFromDot(dotRow[i], aSquare, dots.squaredNorms[i]);
+          }
+          return computed;
+        }
+      }
+
+      kernel.evaluateRow(points[index], points, 0, points.length, computed);
+      evaluations.addAndGet(points.length);
+      return computed;
+    }
+
+    /**
+     * @return the row of the point at the given position if it has been computed already, null otherwise
+     */
+    double[] peek(int index) {
+      return values.get(index);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+/**
+ * The values held by a RecentActivitySquareCache: a square matrix over the ranks below size, whose rows are allocated
+ * on first use.  Unset entries read as KernelCache.NOTCACHED, as does every entry of a row that isn't allocated; writes
+ * to a row that isn't allocated are dropped.
+ *
+ * @version $Id$
+ */
+abstract class SquareCacheStorage {
+// ------------------------------ FIELDS ------------------------------
+
+  final int size;
+  int allocatedRows = 0;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  SquareCacheStorage(int size) {
+    this.size = size;
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  /**
+   * @param mode SQUARE, OFF_HEAP for direct memory instead of the heap, or INDIRECT for swapping ranks through a map
+   * @return storage for as many rows as fit in the given budget
+   */
+  static SquareCacheStorage create(int numExamples, long cacheBytes, boolean singlePrecision,
+      KernelCacheMode mode) {
+    final int entryBytes = singlePrecision ? Float.BYTES : Double.BYTES;
+
+    // The budget covers the square part; the O(n) diagonal and scratch arrays are assumed to be in the noise.
+    final int size = (int) Math.min(numExamples, (long) Math.sqrt(cacheBytes / (double) entryBytes));
+    switch (mode) {
+      case OFF_HEAP:
+        return new OffHeapSquareCacheStorage(size, singlePrecision);
+      case INDIRECT:
+        return new IndirectSquareCacheStorage(size, singlePrecision);
+      default:
+    }
+    return singlePrecision ? new Floats(size) : new Doubles(size);
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * Allocate the given row if needed.  A new row starts out with whatever the other allocated rows hold for its
+   * column.
+   */
+  abstract void allocate(int row);
+
+  abstract double get(int row, int column);
+
+  abstract void set(int row, int column, double value);
+
+  /**
+   * Write the columns of [0, len) of the given allocated row that are NOTCACHED to positions, in increasing order.
+   *
+   * @return the number of such columns
+   */
+  abstract int findMissing(int row, int len, int[] positions);
+
+  /**
+   * Copy [0, len) of the given allocated row to buf
+   */
+  abstract void copy(int row, double[] buf, int len);
+
+  /**
+   * Exchange two ranks, both as rows and as columns.
+   */
+  abstract void swap(int rankA, int rankB);
+
+  /**
+   * Forget everything about the given rank: free its row, and unset its column in the other rows.
+   */
+  abstract void forget(int rank);
+
+  /**
+   * Release any memory that the garbage collector wouldn't reclaim promptly.  Nothing may be cached afterwards.
+   */
+  void close() {
+  }
+
+// -------------------------- INNER CLASSES --------------------------
+
+  static final class Doubles extends SquareCacheStorage {
+    private final double[][] data;
+
+    Doubles(int size) {
+      super(size);
+      data = new double[size][];
+    }
+
+    void allocate(int row) {
+      if (data[row] == null) {
+        final double[] values = new double[size];
+        for (int j = 0; j < size; j++) {
+          final double[] other = data[j];
+          values[j] = other == null ? KernelCache.NOTCACHED : other[row];
+        }
+        data[row] = values;
+        allocatedRows++;
+      }
+    }
+
+    double get(int row, int column) {
+      final double[] values = data[row];
+      return values == null ? KernelCache.NOTCACHED : values[column];
+    }
+
+    void set(int row, int column, double value) {
+      final double[] values = data[row];
+      if (values != null) {
+        values[column] = value;
+      }
+    }
+
+    int findMissing(int row, int len, int[] positions) {
+      final double[] values = data[row];
+      int count = 0;
+      for (int i = 0; i < len; i++) {
+        if (values[i] == KernelCache.NOTCACHED) {
+          positions[count++] = i;
+        }
+      }
+      return count;
+    }
+
+    void copy(int row, double[] buf, int len) {
+      System.arraycopy(data[row], 0, buf, 0, len);
+    }
+
+    void swap(int rankA, int rankB) {
+      double[] dtmp = data[rankA];
+      data[rankA] = data[rankB];
+      data[rankB] = dtmp;
+
+      for (double[] drow : data) {
+        if (drow != null) {
+          double d = drow[rankA];
+          drow[rankA] = drow[rankB];
+          drow[rankB] = d;
+        }
+      }
+    }
+
+    void forget(int rank) {
+      if (data[rank] != null) {
+        data[rank] = null;
+        allocatedRows--;
+      }
+
+      for (double[] drow : data) {
+        if (drow != null) {
+          drow[rank] = KernelCache.NOTCACHED;
+        }
+      }
+    }
+  }
+
+  /**
+   * Twice the entries for the same budget.  The caller must round the values to float precision before setting them,
+   * so that what it gets back from the cache is what it computed.
+   */
+  static final class Floats extends SquareCacheStorage {
+    private static final float NOTCACHED = Float.NEGATIVE_INFINITY;
+
+    private final float[][] data;
+
+    Floats(int size) {
+      super(size);
+      data = new float[size][];
+    }
+
+    void allocate(int row) {
+      if (data[row] == null) {
+        final float[] values = new float[size];
+        for (int j = 0; j < size; j++) {
+          final float[] other = data[j];
+          values[j] = other == null ? NOTCACHED : other[row];
+        }
+        data[row] = values;
+        allocatedRows++;
+      }
+    }
+
+    double get(int row, int column) {
+      final float[] values = data[row];
+      return values == null ? KernelCache.NOTCACHED : values[column];
+    }
+
+    void set(int row, int column, double value) {
+      final float[] values = data[row];
+      if (values != null) {
+        values[column] = (float) value;
+      }
+    }
+
+    int findMissing(int row, int len, int[] positions) {
+      final float[] values = data[row];
+      int count = 0;
+      for (int i = 0; i < len; i++) {
+        if (values[i] == NOTCACHED) {
+          positions[count++] = i;
+        }
+      }
+      return count;
+    }
+
+    void copy(int row, double[] buf, int len) {
+      final float[] values = data[row];
+      for (int i = 0; i < len; i++) {
+        buf[i] = values[i];
+      }
+    }
+
+    void swap(int rankA, int rankB) {
+      float[] ftmp = data[rankA];
+      data[rankA] = data[rankB];
+      data[rankB] = ftmp;
+
+      for (float[] frow : data) {
+        if (frow != null) {
+          float f = frow[rankA];
+          frow[rankA] = frow[rankB];
+          frow[rankB] = f;
+        }
+      }
+    }
+
+    void forget(int rank) {
+      if (data[rank] != null) {
+        data[rank] = null;
+        allocatedRows--;
+      }
+
+      for (float[] frow : data) {
+        if (frow != null) {
+          frow[rank] = NOTCACHED;
+        }
+      }
+    }
+  }
+}
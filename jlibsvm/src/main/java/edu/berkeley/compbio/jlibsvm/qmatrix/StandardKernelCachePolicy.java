@@ -0,0 +1,49 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+
+/**
+ * The built-in row eviction policies.
+ *
+ * @version $Id$
+ */
+public enum StandardKernelCachePolicy implements KernelCachePolicy {
+  /**
+   * Evict the least recently used row, as LIBSVM does
+   */
+  LEAST_RECENTLY_USED {
+    public int selectVictim(SolutionVector[] rows, long[] uses, int count) {
+      return 0;
+    }
+  },
+
+  /**
+   * Evict the least often requested row, the least recently used among those
+   */
+  LEAST_FREQUENTLY_USED {
+    public int selectVictim(SolutionVector[] rows, long[] uses, int count) {
+      int victim = 0;
+      for (int i = 1; i < count; i++) {
+        if (uses[i] < uses[victim]) {
+          victim = i;
+        }
+      }
+      return victim;
+    }
+  },
+
+  /**
+   * Evict the least recently used row of an SV at a bound, keeping the rows of the free SVs, which the solver keeps
+   * coming back to.  Only if every cached row belongs to a free SV is the least recently used one evicted.
+   */
+  KEEP_FREE {
+    public int selectVictim(SolutionVector[] rows, long[] uses, int count) {
+      for (int i = 0; i < count; i++) {
+        if (!rows[i].isFree()) {
+          return i;
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.SolutionVector;
+import java.io.File;
+
+/**
+ * An LRU cache whose evicted rows are spilled to a memory-mapped file (see KernelSpillFile), from which the values a row
+ * lacks are read back before resorting to the kernel.  Reading a value back from the page cache or disk costs far less
+ * than an expensive kernel evaluation, such as a CompositeGaussianRBFKernel over a costly underlying kernel; for cheap
+ * kernels the plain LRU mode is likely faster.
+ *
+ * @version $Id$
+ */
+class TieredKernelCache extends LruKernelCache {
+// ------------------------------ FIELDS ------------------------------
+
+  private final KernelSpillFile spillFile;
+
+  // scratch space for collecting the values that the spill file lacks too, so that they can be computed as one batch
+  private final int[] missPositions;
+  private final SolutionVector[] missVectors;
+  private final double[] missValues;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * @param spillDirectory where to put the spill file, or null for the default temporary directory
+   * @param spillBytes     the most disk space the spilled rows may occupy
+   * @param policy         which row to evict from memory, or null for the least recently used one
+   */
+  TieredKernelCache(KernelQMatrix qMatrix, int numExamples, long cacheBytes, File spillDirectory,
+      long spillBytes, boolean singlePrecision, KernelCachePolicy policy) {
+    super(qMatrix, numExamples, cacheBytes, singlePrecision, policy);
+    spillFile = new KernelSpillFile(spillDirectory, numExamples, spillBytes, singlePrecision);
+    cache.setEvictionListener(spillFile);
+
+    missPositions = new int[numExamples];
+    missVectors = new SolutionVector[numExamples];
+    missValues = new double[numExamples];
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  String sizeString() {
+    return super.sizeString() + ", " + spillFile;
+  }
+
+  double computeMissing(SolutionVector a, SolutionVector b) {
+    final double spilled = spilled(a, b);
+    return spilled == NOTCACHED ? computeQ(a, b) : spilled;
+  }
+
+  void computeMissing(SolutionVector a, SolutionVector[] ranked, int start, int len, double[] out) {
+    int missCount = 0;
+    for (int i = start; i < len; i++) {
+      final double spilled = spilled(a, ranked[i]);
+      if (spilled == NOTCACHED) {
+        missPositions[missCount] = i;
+        missVectors[missCount] = ranked[i];
+        missCount++;
+      } else {
+        out[i] = spilled;
+      }
+    }
+
+    if (missCount == len - start) {
+      computeQ(a, ranked, start, len, out);
+    } else if (missCount > 0) {
+      computeQ(a, missVectors, 0, missCount, missValues);
+      for (int k = 0; k < missCount; k++) {
+        out[missPositions[k]] = missValues[k];
+      }
+    }
+  }
+
+  /**
+   * @return the value of Q between a and b from either of their spilled rows, or NOTCACHED
+   */
+  private double spilled(SolutionVector a, SolutionVector b) {
+    double result = spillFile.get(a.rank, b.rank);
+    if (result == NOTCACHED) {
+      result = spillFile.get(b.rank, a.rank);
+    }
+    if (result != NOTCACHED) {
+      spillFile.spillhits++;
+    }
+    return result;
+  }
+
+  void swapByRank(int rankA, int rankB) {
+    super.swapByRank(rankA, rankB);
+    spillFile.swapRanks(rankA, rankB);
+  }
+
+  void close() {
+    spillFile.close();
+  }
+}
@@ -64,9 +64,12 @@ public class EpsilonSVR<R extends RegressionProblem<R>> extends RegressionSVM<R>
       solutionVectors.add(sv);
     }
 
+    if (param.warmStart != null) {
+      param.warmStart.seed(solutionVectors, param.C, param.C);
+    }
+
     QMatrix qMatrix =
-        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(),
-            param.getCacheRows());
+        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(), param);
 
     RegressionSolver s = new RegressionSolver(
         solutionVectors,
@@ -76,6 +79,7 @@ public class EpsilonSVR<R extends RegressionProblem<R>> extends RegressionSVM<R>
         param.shrinking,
         param.maxIterations);
 
+    s.setParallelScans(param.kernelPool, param.parallelScanThreshold);
     RegressionModel model = s.solve();
 
     model.param = param;
@@ -22,7 +22,7 @@ public class MutableRegressionProblemImpl extends
 // --------------------- Interface MutableSvmProblem ---------------------
 
   public void addExample(SparseVector point, Double label) {
-    examples.put(point, label);
+    examples.put(point.withPreferredStorage(), label);
   }
 
   public void addExampleFloat(SparseVector point, Double x) {
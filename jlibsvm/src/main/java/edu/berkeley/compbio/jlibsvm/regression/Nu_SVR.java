@@ -75,8 +75,7 @@ public class Nu_SVR<R extends RegressionProblem<R>> extends RegressionSVM<R> {
     }
 
     QMatrix qMatrix =
-        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(),
-            param.getCacheRows());
+        new BooleanInvertingKernelQMatrix(param.kernel, solutionVectors.size(), param);
     RegressionSolverNu s =
         new RegressionSolverNu(
             solutionVectors,
@@ -86,6 +85,7 @@ public class Nu_SVR<R extends RegressionProblem<R>> extends RegressionSVM<R> {
             param.shrinking,
             param.maxIterations);
 
+    s.setParallelScans(param.kernelPool, param.parallelScanThreshold);
     RegressionModel model = s.solve();
 
     model.param = param;
@@ -59,8 +59,11 @@ public class RegressionModel extends AlphaModel<Double> implements ContinuousMod
 
   public double predictValue(SparseVector x) {
     double sum = 0;
+    double[] kvalues = new double[numSVs];
+    param.kernel.evaluateRow(x, SVs, 0, numSVs, kvalues);
+
     for (int i = 0; i < numSVs; i++) {
-      sum += alphas[i] * param.kernel.evaluate(x, SVs[i]);
+      sum += alphas[i] * kvalues[i];
     }
     sum -= rho;
     return sum;
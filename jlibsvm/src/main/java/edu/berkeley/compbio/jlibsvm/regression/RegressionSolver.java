@@ -30,6 +30,7 @@ public class RegressionSolver extends Solver<Double> {
     optimize();
 
     RegressionModel model = new RegressionModel();
+    model.kernelCacheStatistics = getCacheStatistics();
 
     // calculate rho
 
@@ -31,6 +31,7 @@ public class RegressionSolverNu extends Solver_NU<Double> {
     int iter = optimize();
 
     RegressionModel model = new RegressionModel();
+    model.kernelCacheStatistics = getCacheStatistics();
 
     // calculate rho
 
@@ -1,5 +1,6 @@
 package edu.berkeley.compbio.jlibsvm.scaler;
 
+import edu.berkeley.compbio.jlibsvm.util.IndicatorVector;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 
 /**
@@ -44,8 +45,16 @@ public class LinearScalingModelLearner implements ScalingModelLearner {
         break;
       }
 
-      for (int index : example.getIndexes()) {
-        double v = example.get(index);
+      final int[] indexes = example.getIndexes();
+      final double[] values = example.getValues();
+      for (int i = 0; i < indexes.length; i++) {
+        int index = indexes[i];
+        double v = values[i];
+
+        // explicit zeros (e.g. in dense vectors) are treated like the implicit ones
+        if (v == 0.0) {
+          continue;
+        }
 
         minima[index] = Math.min(minima[index], v);
         sizes[index] = Math.max(sizes[index], v - minima[index]);
@@ -77,13 +86,22 @@ public class LinearScalingModelLearner implements ScalingModelLearner {
 // --------------------- Interface ScalingModel ---------------------
 
     public SparseVector scaledCopy(SparseVector example) {
-      SparseVector result = new SparseVector(example);
+      // binary features usually scale to themselves, and indicator vectors are immutable, so there's nothing to copy
+      if (example instanceof IndicatorVector && !normalizeL2 && preservesOnes(example.getIndexes())) {
+        return example;
+      }
+
+      SparseVector result = example.copy();
 
       for (int i = 0; i < example.getIndexes().length; i++) {
         int index = example.getIndexes()[i];
         double v = example.getValues()[i];
 
-        result.getIndexes()[i] = index;
+        // explicit zeros (e.g. in dense vectors) stay zero, just like the implicit ones
+        if (v == 0.0) {
+          continue;
+        }
+
         double min = minima[index];
 
         // if this dimension was never seen in the training set, then we can't scale it
@@ -99,5 +117,14 @@ public class LinearScalingModelLearner implements ScalingModelLearner {
 
       return result;
     }
+
+    private boolean preservesOnes(int[] indexes) {
+      for (int index : indexes) {
+        if (sizes[index] > 0.0 && (2.0 * (1.0 - minima[index]) / sizes[index]) - 1.0 != 1.0) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
@@ -1,5 +1,6 @@
 package edu.berkeley.compbio.jlibsvm.scaler;
 
+import edu.berkeley.compbio.jlibsvm.util.IndicatorVector;
 import edu.berkeley.compbio.jlibsvm.util.SparseVector;
 
 /**
@@ -68,8 +69,16 @@ public class ZscoreScalingModelLearner implements ScalingModelLearner {
 
       sampleCount++;  // runningMean etc. assume 1-based indexes
 
-      for (int index : example.getIndexes()) {
-        double v = example.get(index);
+      final int[] indexes = example.getIndexes();
+      final double[] values = example.getValues();
+      for (int i = 0; i < indexes.length; i++) {
+        int index = indexes[i];
+        double v = values[i];
+
+        // explicit zeros (e.g. in dense vectors) are treated like the implicit ones
+        if (v == 0.0) {
+          continue;
+        }
 
         double currentMean = mean[index];
 
@@ -104,13 +113,22 @@ public class ZscoreScalingModelLearner implements ScalingModelLearner {
 // --------------------- Interface ScalingModel ---------------------
 
     public SparseVector scaledCopy(SparseVector example) {
-      SparseVector result = new SparseVector(example);
+      // indicator vectors are immutable, so if the scaling leaves them alone there's nothing to copy
+      if (example instanceof IndicatorVector && !normalizeL2 && preservesOnes(example.getIndexes())) {
+        return example;
+      }
+
+      SparseVector result = example.copy();
 
       for (int i = 0; i < example.getIndexes().length; i++) {
         int index = example.getIndexes()[i];
         double v = example.getValues()[i];
 
-        result.getIndexes()[i] = index;
+        // explicit zeros (e.g. in dense vectors) stay zero, just like the implicit ones
+        if (v == 0.0) {
+          continue;
+        }
+
         double theMean = mean[index];
 
         // if this dimension was never seen in the training set, then we can't scale it
@@ -124,5 +142,14 @@ public class ZscoreScalingModelLearner implements ScalingModelLearner {
 
       return result;
     }
+
+    private boolean preservesOnes(int[] indexes) {
+      for (int index : indexes) {
+        if (mean[index] > 0.0 && (1.0 - mean[index]) / stddev[index] != 1.0) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
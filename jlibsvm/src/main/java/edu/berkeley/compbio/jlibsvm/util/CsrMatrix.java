@@ -0,0 +1,201 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+/**
+ * A set of vectors packed row by row into a few contiguous arrays (compressed sparse row format), with the squared norm
+ * of each row.  Walking the rows touches only these arrays, instead of three separately allocated objects per vector
+ * scattered around the heap.
+ * <p/>
+ * The storage follows the rows: if all of them are DenseVectors the values are stored densely with a fixed stride and
+ * no indexes; if all of them are IndicatorVectors only the indexes are stored; otherwise the non-zeros of each row are
+ * stored as (index, value) pairs.  The arithmetic matches that of the corresponding SparseVectors exactly.
+ * <p/>
+ * This is a copy for locality, not a replacement: the vectors stay as they are, so packing them costs about as much
+ * memory again as their indexes and values (less for dense and indicator rows, which store only one of the two).
+ *
+ * @version $Id$
+ */
+public class CsrMatrix {
+// ------------------------------ FIELDS ------------------------------
+
+  private final Storage storage;
+  private final int numRows;
+  private final int numColumns;
+
+  /**
+   * Row r occupies positions [rowStart[r], rowStart[r + 1]) of indexes and values.  Null for dense storage, where row r
+   * occupies values[r * numColumns, (r + 1) * numColumns).
+   */
+  private final int[] rowStart;
+
+  /**
+   * Null for dense storage
+   */
+  private final int[] indexes;
+
+  /**
+   * Null for indicator storage, where all the values are 1.0
+   */
+  private final double[] values;
+
+  private final double[] squaredNorms;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  private CsrMatrix(Storage storage, int numRows, int numColumns, int[] rowStart, int[] indexes,
+      double[] values) {
+    this.storage = storage;
+    this.numRows = numRows;
+    this.numColumns = numColumns;
+    this.rowStart = rowStart;
+    this.indexes = indexes;
+    this.values = values;
+
+    squaredNorms = new double[numRows];
+    for (int r = 0; r < numRows; r++) {
+      squaredNorms[r] = storage == Storage.INDICATOR ? rowEnd(r) - rowBegin(r)
+          : SparseMath.squaredNorm(values, rowBegin(r), rowEnd(r));
+    }
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  /**
+   * @return the given rows packed, or null if they hold more values than fit in an array, in which case the caller
+   * should keep working with the SparseVectors themselves
+   */
+  public static CsrMatrix of(SparseVector[] rows) {
+    int numColumns = 0;
+    boolean allDense = rows.length > 0;
+    boolean allIndicator = rows.length > 0;
+
+    for (SparseVector row : rows) {
+      numColumns = Math.max(numColumns, row.getMaxDimensions());
+      allDense &= row instanceof DenseVector;
+      allIndicator &= row instanceof IndicatorVector;
+    }
+
+    if (allDense) {
+      final int size;
+      try {
+        size = Math.multiplyExact(rows.length, numColumns);
+      } catch (ArithmeticException e) {
+        return null;
+      }
+      final double[] values = new double[size];
+      for (int r = 0; r < rows.length; r++) {
+        final double[] rowValues = rows[r].getValues();
+        System.arraycopy(rowValues, 0, values, r * numColumns, rowValues.length);
+      }
+      return new CsrMatrix(Storage.DENSE, rows.length, numColumns, null, null, values);
+    }
+
+    // explicit zeros are dropped
+    final int[] rowStart = new int[rows.length + 1];
+    for (int r = 0; r < rows.length; r++) {
+      int nonZeros = 0;
+      for (double v : rows[r].getValues()) {
+        if (v != 0.0) {
+          nonZeros++;
+        }
+      }
+      try {
+        rowStart[r + 1] = Math.addExact(rowStart[r], nonZeros);
+      } catch (ArithmeticException e) {
+        return null;
+      }
+    }
+
+    final int[] indexes = new int[rowStart[rows.length]];
+    final double[] values = allIndicator ? null : new double[rowStart[rows.length]];
+
+    for (int r = 0; r < rows.length; r++) {
+      final int[] rowIndexes = rows[r].getIndexes();
+      final double[] rowValues = rows[r].getValues();
+      int p = rowStart[r];
+      for (int i = 0; i < rowIndexes.length; i++) {
+        if (rowValues[i] != 0.0) {
+          indexes[p] = rowIndexes[i];
+          if (values != null) {
+            values[p] = rowValues[i];
+          }
+          p++;
+        }
+      }
+    }
+
+    return new CsrMatrix(allIndicator ? Storage.INDICATOR : Storage.SPARSE, rows.length, numColumns,
+        rowStart, indexes, values);
+  }
+
+// --------------------- GETTER / SETTER METHODS ---------------------
+
+  public Storage getStorage() {
+    return storage;
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getNumColumns() {
+    return numColumns;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  public double squaredNorm(int row) {
+    return squaredNorms[row];
+  }
+
+  public int nonZeros(int row) {
+    return rowEnd(row) - rowBegin(row);
+  }
+
+  /**
+   * The total number of stored entries in rows [from, to)
+   */
+  public long nonZeros(int from, int to) {
+    return from >= to ? 0 : (long) rowBegin(to) - rowBegin(from);
+  }
+
+  public double dot(int a, int b) {
+    switch (storage) {
+      case DENSE:
+        return SparseMath.denseDot(values, a * numColumns, values, b * numColumns, numColumns);
+      case INDICATOR:
+        return SparseMath.intersectionSize(indexes, rowStart[a], rowStart[a + 1],
+            indexes, rowStart[b], rowStart[b + 1]);
+      default:
+        return SparseMath.dot(indexes, values, rowStart[a], rowStart[a + 1],
+            indexes, values, rowStart[b], rowStart[b + 1]);
+    }
+  }
+
+  int rowBegin(int row) {
+    return storage == Storage.DENSE ? row * numColumns : rowStart[row];
+  }
+
+  int rowEnd(int row) {
+    return storage == Storage.DENSE ? (row + 1) * numColumns : rowStart[row + 1];
+  }
+
+  /**
+   * The column of position p, which must lie within some row's [rowBegin, rowEnd)
+   */
+  int column(int p) {
+    return storage == Storage.DENSE ? p % numColumns : indexes[p];
+  }
+
+  /**
+   * The value at position p, which must lie within some row's [rowBegin, rowEnd)
+   */
+  double value(int p) {
+    return values == null ? 1.0 : values[p];
+  }
+
+// -------------------------- ENUMERATIONS --------------------------
+
+  public enum Storage {
+    SPARSE, DENSE, INDICATOR
+  }
+}
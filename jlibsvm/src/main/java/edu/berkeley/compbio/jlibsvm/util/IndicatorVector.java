@@ -0,0 +1,117 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A SparseVector whose non-zero values are all 1.0, as for binary features.  Only the indexes are stored per vector;
+ * the values array is an array of ones shared among all indicator vectors with the same number of non-zeros, so it
+ * must never be modified.  Use copy() to get an ordinary SparseVector with its own values, e.g. for scaling.
+ * <p/>
+ * SparseVector.dot() and squareNorm() recognize pairs of indicator vectors: the dot product is the size of the
+ * intersection of the index sets, and the squared distance is |x| + |y| - 2|x &cap; y|.
+ *
+ * @version $Id$
+ */
+public class IndicatorVector extends SparseVector {
+// ------------------------------ FIELDS ------------------------------
+
+  private static final ConcurrentMap<Integer, double[]> ONES = new ConcurrentHashMap<>();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  /**
+   * Takes ownership of the given indexes array, which must be strictly increasing.
+   */
+  IndicatorVector(final Long id, final int maxDimensions, final int[] indexes) {
+    super(id, maxDimensions, indexes, ones(indexes.length));
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  private static double[] ones(final int length) {
+    return ONES.computeIfAbsent(length, n -> {
+      double[] result = new double[n];
+      Arrays.fill(result, 1.0);
+      return result;
+    });
+  }
+
+  public static IndicatorVector of(final Long id, final int maxDimensions, final int[] indexes) {
+    return new IndicatorVector(id, maxDimensions, Arrays.copyOf(indexes, indexes.length));
+  }
+
+  /**
+   * An indicator copy of the given vector, keeping its id.  Every non-zero value must be 1.0.
+   */
+  public static IndicatorVector of(final SparseVector sparseVector) {
+    final int[] indexes = sparseVector.getIndexes();
+    final double[] values = sparseVector.getValues();
+
+    int count = 0;
+    for (double value : values) {
+      if (value == 1.0) {
+        count++;
+      } else if (value != 0.0) {
+        throw new IllegalArgumentException("Not an indicator vector: " + sparseVector);
+      }
+    }
+
+    final int[] result = new int[count];
+    count = 0;
+    for (int i = 0; i < indexes.length; i++) {
+      if (values[i] == 1.0) {
+        result[count++] = indexes[i];
+      }
+    }
+
+    return new IndicatorVector(sparseVector.getIdOrNull(), sparseVector.getMaxDimensions(), result);
+  }
+
+  /**
+   * Whether all of the non-zero values in the given array are 1.0 (and there is at least one).
+   */
+  static boolean isIndicator(final double[] values) {
+    boolean anyOne = false;
+    for (double value : values) {
+      if (value == 1.0) {
+        anyOne = true;
+      } else if (value != 0.0) {
+        return false;
+      }
+    }
+    return anyOne;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * An ordinary SparseVector with the same contents, whose values may be modified freely.
+   */
+  @Override
+  public SparseVector copy() {
+    return new SparseVector(this);
+  }
+
+  @Override
+  public SparseVector withPreferredStorage() {
+    return this;
+  }
+
+  @Override
+  public double squaredNorm() {
+    return getIndexes().length;
+  }
+
+  @Override
+  public double get(int i) {
+    return Arrays.binarySearch(getIndexes(), i) < 0 ? 0 : 1.0;
+  }
+
+  @Override
+  public void normalizeL2() {
+    throw new UnsupportedOperationException(
+        "IndicatorVector values are shared and can't be normalized in place; normalize a copy() instead");
+  }
+}
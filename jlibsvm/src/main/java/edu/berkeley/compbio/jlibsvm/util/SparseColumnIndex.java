@@ -0,0 +1,173 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.Arrays;
+
+/**
+ * A column-major (feature to postings) copy of a set of vectors, i.e. the transpose of the matrix whose rows are the
+ * vectors.  The postings of each feature list the rows having a non-zero value for it, in increasing row order.
+ * <p/>
+ * This allows the dot products of one vector x with all of the rows to be accumulated by scattering over just the
+ * non-zeros of x, visiting only the postings of the features x actually uses.  On high-dimensional sparse data that is
+ * far less work than a merge-join of x with every row.
+ * <p/>
+ * The products are accumulated per row in increasing feature order, so the results are bitwise identical to
+ * SparseVector.dot().
+ *
+ * @version $Id$
+ */
+public class SparseColumnIndex {
+// ------------------------------ FIELDS ------------------------------
+
+  private final int numRows;
+  private final int numFeatures;
+
+  /**
+   * The postings of feature f are at positions [featureStart[f], featureStart[f + 1]) of rows and values.
+   */
+  private final int[] featureStart;
+  private final int[] rows;
+
+  /**
+   * Null if all the values are 1.0
+   */
+  private final double[] values;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  public SparseColumnIndex(SparseVector[] vectors) {
+    this(pack(vectors));
+  }
+
+  public SparseColumnIndex(CsrMatrix matrix) {
+    numRows = matrix.getNumRows();
+    numFeatures = matrix.getNumColumns();
+
+    // count the postings of each feature, then turn the counts into start positions
+    featureStart = new int[numFeatures + 1];
+    for (int r = 0; r < numRows; r++) {
+      final int end = matrix.rowEnd(r);
+      for (int p = matrix.rowBegin(r); p < end; p++) {
+        if (matrix.value(p) != 0.0) {
+          featureStart[matrix.column(p) + 1]++;
+        }
+      }
+    }
+    for (int f = 0; f < numFeatures; f++) {
+      featureStart[f + 1] += featureStart[f];
+    }
+
+    rows = new int[featureStart[numFeatures]];
+    values = matrix.getStorage() == CsrMatrix.Storage.INDICATOR ? null
+        : new double[featureStart[numFeatures]];
+
+    final int[] next = new int[numFeatures];
+    System.arraycopy(featureStart, 0, next, 0, numFeatures);
+
+    for (int r = 0; r < numRows; r++) {
+      final int end = matrix.rowEnd(r);
+      for (int p = matrix.rowBegin(r); p < end; p++) {
+        final double value = matrix.value(p);
+        if (value != 0.0) {
+          final int q = next[matrix.column(p)]++;
+          rows[q] = r;
+          if (values != null) {
+            values[q] = value;
+          }
+        }
+      }
+    }
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  private static CsrMatrix pack(SparseVector[] vectors) {
+    final CsrMatrix matrix = CsrMatrix.of(vectors);
+    if (matrix == null) {
+      throw new IllegalArgumentException("Too many values to index");
+    }
+    return matrix;
+  }
+
+// --------------------- GETTER / SETTER METHODS ---------------------
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getNumPostings() {
+    return rows.length;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the number of postings that dotAll(x) would visit
+   */
+  public long postingsFor(SparseVector x) {
+    long result = 0;
+    for (int f : x.getIndexes()) {
+      result += postings(f);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of postings that dotAll(matrix, row) would visit
+   */
+  public long postingsFor(CsrMatrix matrix, int row) {
+    long result = 0;
+    final int end = matrix.rowEnd(row);
+    for (int p = matrix.rowBegin(row); p < end; p++) {
+      result += postings(matrix.column(p));
+    }
+    return result;
+  }
+
+  private int postings(int f) {
+    return f < numFeatures ? featureStart[f + 1] - featureStart[f] : 0;
+  }
+
+  /**
+   * Compute the dot product of x with every row, writing the result for row r to out[r].
+   */
+  public void dotAll(SparseVector x, double[] out) {
+    Arrays.fill(out, 0, numRows, 0.0);
+
+    final int[] xIndexes = x.getIndexes();
+    final double[] xValues = x.getValues();
+
+    for (int i = 0; i < xIndexes.length; i++) {
+      scatter(xIndexes[i], xValues[i], out);
+    }
+  }
+
+  /**
+   * Compute the dot product of the given row of the matrix with every row of this index, writing the result for row r
+   * to out[r].
+   */
+  public void dotAll(CsrMatrix matrix, int row, double[] out) {
+    Arrays.fill(out, 0, numRows, 0.0);
+
+    final int end = matrix.rowEnd(row);
+    for (int p = matrix.rowBegin(row); p < end; p++) {
+      scatter(matrix.column(p), matrix.value(p), out);
+    }
+  }
+
+  private void scatter(int f, double xValue, double[] out) {
+    if (f >= numFeatures || xValue == 0.0) {
+      return;
+    }
+
+    final int end = featureStart[f + 1];
+    if (values == null) {
+      for (int p = featureStart[f]; p < end; p++) {
+        out[rows[p]] += xValue;
+      }
+    } else {
+      for (int p = featureStart[f]; p < end; p++) {
+        out[rows[p]] += xValue * values[p];
+      }
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+/**
+ * Arithmetic on sorted (index, value) runs, as stored in a SparseVector.  Everything here is a merge-join over the
+ * non-zero entries, so the cost depends only on the number of non-zeros and never on the number of dimensions.  Nothing
+ * allocates.
+ * <p/>
+ * Each run is given as index and value arrays plus a [from, to) range, so that the same code serves both standalone
+ * vectors and rows packed into larger arrays.  Indexes within a run must be strictly increasing.
+ * <p/>
+ * The results are exact in the sense that the products are summed in increasing index order, just as the old
+ * dimension-by-dimension loops did; the zero terms those loops added did not change the sums.
+ * <p/>
+ * The dense variants take a plain array indexed by dimension for one or both operands, and sum in the same order.
+ *
+ * @version $Id$
+ */
+public class SparseMath {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * When one run has this many times more non-zeros than the other, walk the short one and gallop through the long one
+   * instead of stepping through both.
+   */
+  static final int GALLOP_RATIO = 16;
+
+// -------------------------- STATIC METHODS --------------------------
+
+  public static double dot(
+      final int[] xIndexes, final double[] xValues, final int xFrom, final int xTo,
+      final int[] yIndexes, final double[] yValues, final int yFrom, final int yTo) {
+    final int xLength = xTo - xFrom;
+    final int yLength = yTo - yFrom;
+
+    if (xLength == 0 || yLength == 0) {
+      return 0.0;
+    }
+
+    // disjoint index ranges are common with hashed or grouped features
+    if (xIndexes[xTo - 1] < yIndexes[yFrom] || yIndexes[yTo - 1] < xIndexes[xFrom]) {
+      return 0.0;
+    }
+
+    if ((long) xLength * GALLOP_RATIO < yLength) {
+      return gallopingDot(xIndexes, xValues, xFrom, xTo, yIndexes, yValues, yFrom, yTo);
+    }
+    if ((long) yLength * GALLOP_RATIO < xLength) {
+      return gallopingDot(yIndexes, yValues, yFrom, yTo, xIndexes, xValues, xFrom, xTo);
+    }
+
+    double result = 0.0;
+    int i = xFrom;
+    int j = yFrom;
+
+    while (i < xTo && j < yTo) {
+      final int xIndex = xIndexes[i];
+      final int yIndex = yIndexes[j];
+
+      if (xIndex == yIndex) {
+        result += xValues[i] * yValues[j];
+        i++;
+        j++;
+      } else if (xIndex < yIndex) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Walk the short run, finding each of its indexes in the long run by exponential then binary search.
+   */
+  private static double gallopingDot(
+      final int[] shortIndexes, final double[] shortValues, final int shortFrom, final int shortTo,
+      final int[] longIndexes, final double[] longValues, final int longFrom, final int longTo) {
+    double result = 0.0;
+    int j = longFrom;
+
+    for (int i = shortFrom; i < shortTo && j < longTo; i++) {
+      final int index = shortIndexes[i];
+      j = gallop(longIndexes, j, longTo, index);
+
+      if (j < longTo && longIndexes[j] == index) {
+        result += shortValues[i] * longValues[j];
+        j++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the first position p in [from, to) such that indexes[p] >= key, or to if there is none.
+   */
+  static int gallop(final int[] indexes, int from, final int to, final int key) {
+    int hi = from;
+    int step = 1;
+
+    while (hi < to && indexes[hi] < key) {
+      from = hi + 1;
+      hi += step;
+      step <<= 1;
+    }
+
+    if (hi > to) {
+      hi = to;
+    }
+
+    while (from < hi) {
+      final int mid = (from + hi) >>> 1;
+      if (indexes[mid] < key) {
+        from = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    return from;
+  }
+
+  /**
+   * The squared Euclidean distance between two runs, computed directly from the differences rather than via the norms so
+   * that nearby points don't suffer cancellation.
+   */
+  public static double squaredDistance(
+      final int[] xIndexes, final double[] xValues, final int xFrom, final int xTo,
+      final int[] yIndexes, final double[] yValues, final int yFrom, final int yTo) {
+    double result = 0.0;
+    int i = xFrom;
+    int j = yFrom;
+
+    while (i < xTo && j < yTo) {
+      final int xIndex = xIndexes[i];
+      final int yIndex = yIndexes[j];
+
+      final double d;
+      if (xIndex == yIndex) {
+        d = xValues[i] - yValues[j];
+        i++;
+        j++;
+      } else if (xIndex < yIndex) {
+        d = xValues[i];
+        i++;
+      } else {
+        d = yValues[j];
+        j++;
+      }
+      result += d * d;
+    }
+
+    for (; i < xTo; i++) {
+      result += xValues[i] * xValues[i];
+    }
+
+    for (; j < yTo; j++) {
+      result += yValues[j] * yValues[j];
+    }
+
+    return result;
+  }
+
+  /**
+   * The dot product of a dense array with a sparse run.
+   */
+  public static double dot(final double[] dense,
+      final int[] indexes, final double[] values, final int from, final int to) {
+    double result = 0.0;
+    for (int i = from; i < to; i++) {
+      result += dense[indexes[i]] * values[i];
+    }
+    return result;
+  }
+
+  /**
+   * The sum of the entries of a dense array at the given indexes, i.e. its dot product with an indicator run.
+   */
+  public static double sum(final double[] dense, final int[] indexes, final int from, final int to) {
+    double result = 0.0;
+    for (int i = from; i < to; i++) {
+      result += dense[indexes[i]];
+    }
+    return result;
+  }
+
+  /**
+   * The number of indexes two runs have in common, i.e. their dot product if all the values are 1.0.
+   */
+  public static int intersectionSize(
+      final int[] xIndexes, final int xFrom, final int xTo,
+      final int[] yIndexes, final int yFrom, final int yTo) {
+    final int xLength = xTo - xFrom;
+    final int yLength = yTo - yFrom;
+
+    if (xLength == 0 || yLength == 0
+        || xIndexes[xTo - 1] < yIndexes[yFrom] || yIndexes[yTo - 1] < xIndexes[xFrom]) {
+      return 0;
+    }
+
+    if ((long) xLength * GALLOP_RATIO < yLength) {
+      return gallopingIntersectionSize(xIndexes, xFrom, xTo, yIndexes, yFrom, yTo);
+    }
+    if ((long) yLength * GALLOP_RATIO < xLength) {
+      return gallopingIntersectionSize(yIndexes, yFrom, yTo, xIndexes, xFrom, xTo);
+    }
+
+    int result = 0;
+    int i = xFrom;
+    int j = yFrom;
+
+    while (i < xTo && j < yTo) {
+      final int xIndex = xIndexes[i];
+      final int yIndex = yIndexes[j];
+
+      if (xIndex <= yIndex) {
+        i++;
+      }
+      if (yIndex <= xIndex) {
+        j++;
+      }
+      if (xIndex == yIndex) {
+        result++;
+      }
+    }
+
+    return result;
+  }
+
+  private static int gallopingIntersectionSize(
+      final int[] shortIndexes, final int shortFrom, final int shortTo,
+      final int[] longIndexes, final int longFrom, final int longTo) {
+    int result = 0;
+    int j = longFrom;
+
+    for (int i = shortFrom; i < shortTo && j < longTo; i++) {
+      final int index = shortIndexes[i];
+      j = gallop(longIndexes, j, longTo, index);
+
+      if (j < longTo && longIndexes[j] == index) {
+        result++;
+        j++;
+      }
+    }
+
+    return result;
+  }
+
+  public static double denseDot(final double[] x, final double[] y, final int length) {
+    double result = 0.0;
+    for (int i = 0; i < length; i++) {
+      result += x[i] * y[i];
+    }
+    return result;
+  }
+
+  /**
+   * The dot product of x[xFrom, xFrom + length) and y[yFrom, yFrom + length)
+   */
+  public static double denseDot(final double[] x, final int xFrom, final double[] y, final int yFrom,
+      final int length) {
+    double result = 0.0;
+    for (int i = 0; i < length; i++) {
+      result += x[xFrom + i] * y[yFrom + i];
+    }
+    return result;
+  }
+
+  /**
+   * The squared Euclidean distance between a dense array of the given length and a sparse run.
+   */
+  public static double squaredDistance(final double[] dense, final int length,
+      final int[] indexes, final double[] values, final int from, final int to) {
+    double result = 0.0;
+    int j = from;
+
+    for (int i = 0; i < length; i++) {
+      double d = dense[i];
+      if (j < to && indexes[j] == i) {
+        d -= values[j];
+        j++;
+      }
+      result += d * d;
+    }
+
+    return result;
+  }
+
+  public static double denseSquaredDistance(final double[] x, final double[] y, final int length) {
+    double result = 0.0;
+    for (int i = 0; i < length; i++) {
+      final double d = x[i] - y[i];
+      result += d * d;
+    }
+    return result;
+  }
+
+  public static double squaredNorm(final double[] values, final int from, final int to) {
+    double result = 0.0;
+    for (int i = from; i < to; i++) {
+      result += values[i] * values[i];
+    }
+    return result;
+  }
+
+  /**
+   * The number of distinct indexes in the union of two runs, i.e. the number of non-zeros their difference can have.
+   */
+  public static int unionSize(
+      final int[] xIndexes, final int xFrom, final int xTo,
+      final int[] yIndexes, final int yFrom, final int yTo) {
+    int result = 0;
+    int i = xFrom;
+    int j = yFrom;
+
+    while (i < xTo && j < yTo) {
+      final int xIndex = xIndexes[i];
+      final int yIndex = yIndexes[j];
+
+      if (xIndex <= yIndex) {
+        i++;
+      }
+      if (yIndex <= xIndex) {
+        j++;
+      }
+      result++;
+    }
+
+    return result + (xTo - i) + (yTo - j);
+  }
+
+  /**
+   * Whether two runs have the same non-zero entries, ignoring any explicit zeros either one stores.
+   */
+  public static boolean sameNonZeros(
+      final int[] xIndexes, final double[] xValues, final int xFrom, final int xTo,
+      final int[] yIndexes, final double[] yValues, final int yFrom, final int yTo) {
+    int i = xFrom;
+    int j = yFrom;
+
+    while (true) {
+      while (i < xTo && xValues[i] == 0.0) {
+        i++;
+      }
+      while (j < yTo && yValues[j] == 0.0) {
+        j++;
+      }
+
+      if (i == xTo || j == yTo) {
+        return i == xTo && j == yTo;
+      }
+
+      if (xIndexes[i] != yIndexes[j] || Double.compare(xValues[i], yValues[j]) != 0) {
+        return false;
+      }
+
+      i++;
+      j++;
+    }
+  }
+}
@@ -23,6 +23,11 @@ public class SparseVector implements Serializable {
   private final double[] values;
   private final int hashCode;
 
+  // computed on first use; kernels need it on every evaluation.  The flag is volatile so that a thread that sees it set
+  // also sees the value, and transient so that a deserialized vector starts out unknown rather than with a zero norm.
+  private transient double squaredNorm;
+  private transient volatile boolean squaredNormKnown;
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
   SparseVector(
@@ -65,11 +70,15 @@ public class SparseVector implements Serializable {
       return id.hashCode();
     }
 
-    return Objects.hash(
-        maxDimensions,
-        Arrays.hashCode(indexes),
-        Arrays.hashCode(values)
-    );
+    // only the non-zero entries count, so that the sparse and dense forms of the same vector hash alike
+    int result = maxDimensions;
+    for (int i = 0; i < indexes.length; i++) {
+      if (values[i] != 0.0) {
+        result = 31 * result + indexes[i];
+        result = 31 * result + Double.hashCode(values[i]);
+      }
+    }
+    return result;
   }
 
   public SparseVector(int maxDimensions) {
@@ -82,7 +91,7 @@ public class SparseVector implements Serializable {
 
   public SparseVector(SparseVector sparseVector) {
     this(
-        sparseVector.getId(),
+        sparseVector.id,
         sparseVector.getMaxDimensions(),
         Arrays.copyOf(sparseVector.indexes, sparseVector.indexes.length),
         Arrays.copyOf(sparseVector.values, sparseVector.values.length)
@@ -93,6 +102,10 @@ public class SparseVector implements Serializable {
     return id;
   }
 
+  Long getIdOrNull() {
+    return id;
+  }
+
   public int getMaxDimensions() {
     return maxDimensions;
   }
@@ -101,10 +114,25 @@ public class SparseVector implements Serializable {
     return indexes;
   }
 
+  /**
+   * Note the squared norm is cached on first use, so callers that modify these values in place (as the scaling models
+   * do on a fresh copy) must finish doing so before the vector is handed to a kernel.
+   */
   public double[] getValues() {
     return values;
   }
 
+  /**
+   * The dot product of this vector with itself, computed once and cached.
+   */
+  public double squaredNorm() {
+    if (!squaredNormKnown) {
+      squaredNorm = SparseMath.squaredNorm(values, 0, values.length);
+      squaredNormKnown = true;
+    }
+    return squaredNorm;
+  }
+
   public SparseVector(final int maxDimensions, final int nonZeroDimensions) {
     this(
         maxDimensions,
@@ -136,6 +164,27 @@ public class SparseVector implements Serializable {
     return result;
   }
 
+  /**
+   * A copy in the same representation as this vector, whose values may be modified freely.
+   */
+  public SparseVector copy() {
+    return new SparseVector(this);
+  }
+
+  /**
+   * This vector, or an equal vector in a more suitable representation: an IndicatorVector if all its non-zero values
+   * are 1.0, or else a DenseVector if at least DenseVector.DENSITY_THRESHOLD of its dimensions are non-zero.
+   */
+  public SparseVector withPreferredStorage() {
+    if (IndicatorVector.isIndicator(values)) {
+      return IndicatorVector.of(this);
+    }
+    if (maxDimensions > 0 && indexes.length >= DenseVector.DENSITY_THRESHOLD * maxDimensions) {
+      return DenseVector.of(this);
+    }
+    return this;
+  }
+
   public Iterator<Double> getIterator() {
     return new SparseVectorIterator(this);
   }
@@ -252,13 +301,25 @@ public class SparseVector implements Serializable {
     return hashCode;
   }
 
+  /**
+   * Vectors are equal if they have the same id, the same number of dimensions and the same non-zero entries, regardless
+   * of whether either one is stored densely.
+   */
   @Override
   public boolean equals(Object obj) {
-    return obj instanceof SparseVector
-        && getId() == ((SparseVector) obj).getId()
-        && getMaxDimensions() == ((SparseVector) obj).getMaxDimensions()
-        && Arrays.equals(getIndexes(), ((SparseVector) obj).getIndexes())
-        && Arrays.equals(getValues(), ((SparseVector) obj).getValues());
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SparseVector)) {
+      return false;
+    }
+
+    final SparseVector other = (SparseVector) obj;
+    return Objects.equals(id, other.id)
+        && maxDimensions == other.maxDimensions
+        && SparseMath.sameNonZeros(
+        indexes, values, 0, indexes.length,
+        other.indexes, other.values, 0, other.indexes.length);
   }
 
   public static SparseVector fromString(final String vectorString) {
@@ -322,6 +383,7 @@ public class SparseVector implements Serializable {
     for (int i = 0; i < values.length; i++) {
       values[i] /= total;
     }
+    squaredNormKnown = false;
   }
 
   public static double dot(final SparseVector x, final SparseVector y) {
@@ -329,40 +391,61 @@ public class SparseVector implements Serializable {
     assert y != null;
     assert x.maxDimensions == y.maxDimensions;
 
-    if (x.indexes.length == 0) {
-      return 0.0;
-    }
-
-    double dotProduct = 0.0;
-    int currentXIndex = 0;
-    int currentYIndex = 0;
-
-    for (int index = 0; index < x.getMaxDimensions(); index++) {
-      int xIndex = currentXIndex < x.indexes.length ? x.indexes[currentXIndex] : -1;
-      int yIndex = currentYIndex < y.indexes.length ? y.indexes[currentYIndex] : -1;
-      double xValue = 0.0;
-      double yValue = 0.0;
-
-      if (xIndex == index) {
-        xValue = x.values[currentXIndex];
-        currentXIndex++;
+    if (x instanceof IndicatorVector) {
+      if (y instanceof IndicatorVector) {
+        return SparseMath.intersectionSize(x.indexes, 0, x.indexes.length, y.indexes, 0, y.indexes.length);
       }
-
-      if (yIndex == index) {
-        yValue = y.values[currentYIndex];
-        currentYIndex++;
+      if (y instanceof DenseVector) {
+        return SparseMath.sum(y.values, x.indexes, 0, x.indexes.length);
       }
+    } else if (y instanceof IndicatorVector && x instanceof DenseVector) {
+      return SparseMath.sum(x.values, y.indexes, 0, y.indexes.length);
+    }
 
-      dotProduct += xValue * yValue;
+    if (x instanceof DenseVector) {
+      if (y instanceof DenseVector) {
+        return SparseMath.denseDot(x.values, y.values, x.maxDimensions);
+      }
+      return SparseMath.dot(x.values, y.indexes, y.values, 0, y.indexes.length);
+    }
+    if (y instanceof DenseVector) {
+      return SparseMath.dot(y.values, x.indexes, x.values, 0, x.indexes.length);
     }
 
-    return dotProduct;
+    return SparseMath.dot(
+        x.indexes, x.values, 0, x.indexes.length,
+        y.indexes, y.values, 0, y.indexes.length);
   }
 
+  /**
+   * The squared Euclidean distance between x and y (despite the name).  No intermediate difference vector is built.
+   */
   public static double squareNorm(final SparseVector x, final SparseVector y) {
-    SparseVector diff = SparseVector.difference(x, y);
+    assert x != null;
+    assert y != null;
+    assert x.maxDimensions == y.maxDimensions;
 
-    return SparseVector.dot(diff, diff);
+    if (x instanceof IndicatorVector && y instanceof IndicatorVector) {
+      final int xLength = x.indexes.length;
+      final int yLength = y.indexes.length;
+      return xLength + yLength - 2 * SparseMath.intersectionSize(x.indexes, 0, xLength, y.indexes, 0, yLength);
+    }
+
+    if (x instanceof DenseVector) {
+      if (y instanceof DenseVector) {
+        return SparseMath.denseSquaredDistance(x.values, y.values, x.maxDimensions);
+      }
+      return SparseMath.squaredDistance(x.values, x.maxDimensions, y.indexes, y.values, 0,
+          y.indexes.length);
+    }
+    if (y instanceof DenseVector) {
+      return SparseMath.squaredDistance(y.values, y.maxDimensions, x.indexes, x.values, 0,
+          x.indexes.length);
+    }
+
+    return SparseMath.squaredDistance(
+        x.indexes, x.values, 0, x.indexes.length,
+        y.indexes, y.values, 0, y.indexes.length);
   }
 
   public static SparseVector difference(final SparseVector v1, final SparseVector v2) {
@@ -370,44 +453,47 @@ public class SparseVector implements Serializable {
     assert v2 != null;
     assert v1.getMaxDimensions() == v2.getMaxDimensions();
 
-    List<Integer> indexList = new ArrayList<>(v1.maxDimensions);
-    List<Double> valueList = new ArrayList<>(v1.maxDimensions);
+    final int length1 = v1.indexes.length;
+    final int length2 = v2.indexes.length;
+    final int maxLength = SparseMath.unionSize(v1.indexes, 0, length1, v2.indexes, 0, length2);
 
-    int currentIndex1 = 0;
-    int currentIndex2 = 0;
+    int[] indices = new int[maxLength];
+    double[] values = new double[maxLength];
 
-    for (int index = 0; index < v1.getMaxDimensions(); index++) {
+    int i = 0;
+    int j = 0;
+    int count = 0;
 
-      int valIndex1 = currentIndex1 < v1.indexes.length ? v1.indexes[currentIndex1] : -1;
-      int valIndex2 = currentIndex2 < v2.indexes.length ? v2.indexes[currentIndex2] : -1;
+    while (i < length1 || j < length2) {
+      final int index1 = i < length1 ? v1.indexes[i] : Integer.MAX_VALUE;
+      final int index2 = j < length2 ? v2.indexes[j] : Integer.MAX_VALUE;
 
-      double val1 = 0.0f;
-      double val2 = 0.0f;
+      final int index;
+      double val = 0.0;
 
-      if (valIndex1 == index) {
-        val1 = v1.values[currentIndex1];
-        currentIndex1++;
+      if (index1 <= index2) {
+        index = index1;
+        val += v1.values[i];
+        i++;
+      } else {
+        index = index2;
       }
 
-      if (valIndex2 == index) {
-        val2 = v2.values[currentIndex2];
-        currentIndex2++;
+      if (index2 == index) {
+        val -= v2.values[j];
+        j++;
       }
 
-      double val = val1 - val2;
-
       if (val > 0.0f || val < 0.0f) {
-        indexList.add(index);
-        valueList.add(val);
+        indices[count] = index;
+        values[count] = val;
+        count++;
       }
     }
 
-    int[] indices = new int[indexList.size()];
-    double[] values = new double[indexList.size()];
-
-    for (int index = 0; index < indexList.size(); index++) {
-      indices[index] = indexList.get(index);
-      values[index] = valueList.get(index);
+    if (count < maxLength) {
+      indices = Arrays.copyOf(indices, count);
+      values = Arrays.copyOf(values, count);
     }
 
     return new SparseVector(v1.getMaxDimensions(), indices, values);
@@ -0,0 +1,283 @@
+package edu.berkeley.compbio.jlibsvm;
+
+import edu.berkeley.compbio.jlibsvm.binary.BinaryClassificationProblem;
+import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
+import edu.berkeley.compbio.jlibsvm.binary.C_SVC;
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.binary.SvmBinaryCrossValidationResults;
+import edu.berkeley.compbio.jlibsvm.kernel.GaussianRBFKernel;
+import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
+import edu.berkeley.compbio.jlibsvm.scaler.NoopScalingModelLearner;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Searches a grid of C and gamma on a subset of letter.scale with each grid search mode.  The problem shuffles with a
+ * fixed seed, so every cross-validation uses the same folds and the modes can be compared point by point.
+ *
+ * @version $Id$
+ */
+public class GridSearchTest {
+
+  private static final int EXAMPLES = 600;
+  private static final List<Double> CS = Arrays.asList(0.5, 2.0, 8.0, 32.0);
+
+  /**
+   * How far a decision value trained from a warm start may be from the one trained cold: both stop within eps 1e-3 of
+   * the optimum, from different sides
+   */
+  private static final double DECISION_VALUE_TOLERANCE = 2e-3;
+
+  private final List<KernelFunction> kernels =
+      Arrays.<KernelFunction>asList(new GaussianRBFKernel(0.5f), new GaussianRBFKernel(2.0f));
+
+  private MutableBinaryClassificationProblemImpl<String> problem;
+
+  @Before
+  public void setUp() throws IOException {
+    problem = LetterData.load(EXAMPLES).evenOddProblem();
+    problem.shuffleSeed = 1L;
+    // the cross-validation results look the labels up on the problem itself, not on the folds
+    problem.setupLabels();
+  }
+
+  private ImmutableSvmParameterGrid.Builder<String> gridBuilder(GridSearchMode mode) {
+    final ImmutableSvmParameterGrid.Builder<String> builder = ImmutableSvmParameterGrid.builder();
+    builder.Cset = CS;
+    builder.kernelSet = kernels;
+    builder.eps = 1e-3;
+    builder.cache_size = 10;
+    builder.shrinking = true;
+    builder.crossValidationFolds = 5;
+    builder.scalingModelLearner = new NoopScalingModelLearner();
+    builder.gridSearchMode = mode;
+    return builder;
+  }
+
+  private ImmutableSvmParameterGrid<String> grid(GridSearchMode mode, boolean refine) {
+    final ImmutableSvmParameterGrid.Builder<String> builder = gridBuilder(mode);
+    builder.refineGridAroundBest = refine;
+    return (ImmutableSvmParameterGrid<String>) builder.build();
+  }
+
+  private BinaryModel<String> search(GridSearchMode mode, boolean refine) {
+    return new C_SVC<String>().train(problem, grid(mode, refine));
+  }
+
+  @Test
+  public void cPathChoosesTheIndependentSearchsPoint() {
+    final BinaryModel<String> independent = search(GridSearchMode.INDEPENDENT, false);
+    final BinaryModel<String> cPath = search(GridSearchMode.C_PATH, false);
+
+    Assert.assertEquals(independent.param.C, cPath.param.C, 0);
+    Assert.assertSame(independent.param.kernel, cPath.param.kernel);
+    Assert.assertEquals(independent.crossValidationResults.classNormalizedSensitivity(),
+        cPath.crossValidationResults.classNormalizedSensitivity(), 1.0 / EXAMPLES);
+  }
+
+  @Test
+  public void cPathCrossValidatesEachPointFromTheWarmStartOfTheLast() {
+    // the trainings of the folds, as (C, whether warm started)
+    final List<Object[]> trainings = Collections.synchronizedList(new ArrayList<>());
+    final C_SVC<String> svm = new C_SVC<String>() {
+      @Override
+      public BinaryModel<String> train(BinaryClassificationProblem<String> problem,
+          ImmutableSvmParameter<String> param) {
+        trainings.add(new Object[]{((ImmutableSvmParameterPoint<String>) param).C, param.warmStart != null});
+        return super.train(problem, param);
+      }
+    };
+
+    final ImmutableSvmParameterGrid<String> grid = grid(GridSearchMode.C_PATH, false);
+    final Map<ImmutableSvmParameterPoint<String>, Map<SparseVector, Double>> alongPaths =
+        svm.crossValidateAlongCPaths(problem, grid, true, (model, p) -> ((BinaryModel<String>) model).predictValue(p));
+
+    // every fold of every point was trained once, warm started unless it has the smallest C of its kernel
+    Assert.assertEquals(grid.getGridParams().size() * grid.crossValidationFolds, trainings.size());
+    for (Object[] training : trainings) {
+      Assert.assertEquals((Double) training[0] > CS.get(0), training[1]);
+    }
+
+    for (ImmutableSvmParameterPoint<String> point : grid.getGridParams()) {
+      final Map<SparseVector, Double> cold = new C_SVC<String>().continuousCrossValidation(problem, point);
+      final Map<SparseVector, Double> warm = alongPaths.get(point);
+
+      Assert.assertEquals(cold.keySet(), warm.keySet());
+      for (SparseVector p : cold.keySet()) {
+        Assert.assertEquals(cold.get(p), warm.get(p), DECISION_VALUE_TOLERANCE);
+      }
+      Assert.assertEquals(new SvmBinaryCrossValidationResults<>(problem, cold, false).classNormalizedSensitivity(),
+          new SvmBinaryCrossValidationResults<>(problem, warm, false).classNormalizedSensitivity(), 1.0 / EXAMPLES);
+    }
+  }
+
+  /**
+   * A stand-in for cross-validation that scores C by its distance from 8 in powers of two, and the wider kernel half a
+   * step worse, so that the ranking of the grid points is known exactly
+   */
+  private double fakeScore(ImmutableSvmParameterPoint<String> point) {
+    return -Math.abs(Math.getExponent(point.C) - 3) - (point.kernel == kernels.get(0) ? 0.5 : 0);
+  }
+
+  private static String describe(ImmutableSvmParameterPoint<String> point) {
+    return point.C + " " + point.kernel;
+  }
+
+  /**
+   * Run successive halving with fakeScore() in place of cross-validation
+   *
+   * @param rounds      receives the points cross-validated on each subsample size, in the order of the rounds
+   * @param roundEps    receives the eps of each subsample size
+   * @param finalPoints receives the points passed to the final results
+   */
+  private void halveWithFakeScores(ImmutableSvmParameterGrid<String> grid, Map<Integer, Set<String>> rounds,
+      Map<Integer, Set<Double>> roundEps, Set<String> finalPoints) {
+    new C_SVC<String>().searchBySuccessiveHalving(problem, grid, (subsample, point) -> {
+      synchronized (rounds) {
+        rounds.computeIfAbsent(subsample.getNumExamples(), n -> new HashSet<>()).add(describe(point));
+        roundEps.computeIfAbsent(subsample.getNumExamples(), n -> new HashSet<>()).add(point.eps);
+      }
+      return fakeScore(point);
+    }, score -> score, (point, score) -> {
+      synchronized (finalPoints) {
+        finalPoints.add(describe(point));
+      }
+    });
+  }
+
+  /**
+   * @param kernelsAndCs pairs of the index of a kernel and a C, each describing a grid point
+   */
+  private Set<String> points(double... kernelsAndCs) {
+    final Set<String> result = new HashSet<>();
+    for (int i = 0; i < kernelsAndCs.length; i += 2) {
+      result.add(kernelsAndCs[i + 1] + " " + kernels.get((int) kernelsAndCs[i]));
+    }
+    return result;
+  }
+
+  @Test
+  public void successiveHalvingKeepsTheBestOfEachRound() {
+    final ImmutableSvmParameterGrid.Builder<String> builder = gridBuilder(GridSearchMode.SUCCESSIVE_HALVING);
+    builder.successiveHalvingRate = 2;
+    builder.eps = 0.02;
+    final ImmutableSvmParameterGrid<String> grid = (ImmutableSvmParameterGrid<String>) builder.build();
+
+    final Map<Integer, Set<String>> rounds = new LinkedHashMap<>();
+    final Map<Integer, Set<Double>> roundEps = new HashMap<>();
+    final Set<String> finalPoints = new HashSet<>();
+    halveWithFakeScores(grid, rounds, roundEps, finalPoints);
+
+    // 8 points halve in three rounds on 1/8 (but at least 20 per fold), 1/4 and 1/2 of the examples, then the last one
+    // is cross-validated on all of them; eps grows with the cut, up to 0.1
+    Assert.assertEquals(Arrays.asList(100, 150, 300, EXAMPLES), new ArrayList<>(rounds.keySet()));
+    Assert.assertEquals(grid.getGridParams().size(), rounds.get(100).size());
+    Assert.assertEquals(points(1, 8, 0, 8, 1, 2, 1, 32), rounds.get(150));
+    Assert.assertEquals(points(1, 8, 0, 8), rounds.get(300));
+    Assert.assertEquals(points(1, 8), rounds.get(EXAMPLES));
+    Assert.assertEquals(points(1, 8), finalPoints);
+
+    Assert.assertEquals(Collections.singleton(0.1), roundEps.get(100));
+    Assert.assertEquals(Collections.singleton(0.08), roundEps.get(150));
+    Assert.assertEquals(Collections.singleton(0.04), roundEps.get(300));
+    Assert.assertEquals(Collections.singleton(0.02), roundEps.get(EXAMPLES));
+  }
+
+  @Test
+  public void successiveHalvingRunsEveryRoundOnAllOfAProblemThatCantBeSubsampled() {
+    final MutableBinaryClassificationProblemImpl<String> whole =
+        new MutableBinaryClassificationProblemImpl<String>(String.class, EXAMPLES) {
+          @Override
+          public BinaryClassificationProblem<String> subsample(int numberOfExamples) {
+            return null;
+          }
+        };
+    for (Map.Entry<SparseVector, String> example : problem.getExamples().entrySet()) {
+      whole.addExample(example.getKey(), example.getValue());
+    }
+    problem = whole;
+
+    final ImmutableSvmParameterGrid.Builder<String> builder = gridBuilder(GridSearchMode.SUCCESSIVE_HALVING);
+    builder.successiveHalvingRate = 2;
+    builder.eps = 0.02;
+
+    final Map<Integer, Set<String>> rounds = new LinkedHashMap<>();
+    final Map<Integer, Set<Double>> roundEps = new HashMap<>();
+    final Set<String> finalPoints = new HashSet<>();
+    halveWithFakeScores((ImmutableSvmParameterGrid<String>) builder.build(), rounds, roundEps, finalPoints);
+
+    // the rounds are those of successiveHalvingKeepsTheBestOfEachRound(), only all on the whole problem
+    Assert.assertEquals(Collections.singletonList(EXAMPLES), new ArrayList<>(rounds.keySet()));
+    Assert.assertEquals(8, rounds.get(EXAMPLES).size());
+    Assert.assertEquals(new HashSet<>(Arrays.asList(0.1, 0.08, 0.04, 0.02)), roundEps.get(EXAMPLES));
+    Assert.assertEquals(points(1, 8), finalPoints);
+  }
+
+  @Test
+  public void successiveHalvingRefinesAroundTheBest() {
+    final Map<Integer, Set<String>> rounds = new LinkedHashMap<>();
+    final Map<Integer, Set<Double>> roundEps = new HashMap<>();
+    final Set<String> finalPoints = new HashSet<>();
+    halveWithFakeScores(grid(GridSearchMode.SUCCESSIVE_HALVING, true), rounds, roundEps, finalPoints);
+
+    // at a rate of 3, one round on a third of the examples keeps 3 of the 8 points; C = 2 ties with C = 32 and wins,
+    // being smaller.  The best point, C = 8, is then refined to 4 and 16.
+    Assert.assertEquals(Arrays.asList(EXAMPLES / 3, EXAMPLES), new ArrayList<>(rounds.keySet()));
+    Assert.assertEquals(8, rounds.get(EXAMPLES / 3).size());
+    Assert.assertEquals(Collections.singleton(3e-3), roundEps.get(EXAMPLES / 3));
+    Assert.assertEquals(Collections.singleton(1e-3), roundEps.get(EXAMPLES));
+
+    final Set<String> expected = points(1, 8, 0, 8, 1, 2, 1, 4, 1, 16);
+    Assert.assertEquals(expected, rounds.get(EXAMPLES));
+    Assert.assertEquals(expected, finalPoints);
+  }
+
+  @Test
+  public void refinementsLieHalfwayBetweenTheGridsCs() {
+    final ImmutableSvmParameterGrid<String> grid = grid(GridSearchMode.SUCCESSIVE_HALVING, true);
+    final C_SVC<String> svm = new C_SVC<>();
+
+    final Map<Double, List<Double>> refinedCs = new HashMap<>();
+    for (ImmutableSvmParameterPoint<String> point : grid.getGridParams()) {
+      final List<Double> cs = new ArrayList<>();
+      for (ImmutableSvmParameterPoint<String> refined : svm.refineAround(point, grid)) {
+        Assert.assertSame(point.kernel, refined.kernel);
+        cs.add(refined.C);
+      }
+      refinedCs.put(point.C, cs);
+    }
+
+    Assert.assertEquals(Collections.singletonList(1.0), refinedCs.get(0.5));
+    Assert.assertEquals(Arrays.asList(1.0, 4.0), refinedCs.get(2.0));
+    Assert.assertEquals(Arrays.asList(4.0, 16.0), refinedCs.get(8.0));
+    Assert.assertEquals(Collections.singletonList(16.0), refinedCs.get(32.0));
+  }
+
+  @Test
+  public void successiveHalvingScoresItsChoiceLikeIndependentCrossValidation() {
+    final BinaryModel<String> halving = search(GridSearchMode.SUCCESSIVE_HALVING, false);
+
+    // the last round trains at the grid's eps on all the examples, and so on the very folds of an independent search
+    Assert.assertTrue(CS.contains(halving.param.C));
+    Assert.assertEquals(1e-3, halving.param.eps, 0);
+    Assert.assertEquals(new C_SVC<String>().performCrossValidation(problem, halving.param).classNormalizedSensitivity(),
+        halving.crossValidationResults.classNormalizedSensitivity(), 0);
+
+    final BinaryModel<String> refined = search(GridSearchMode.SUCCESSIVE_HALVING, true);
+    Assert.assertTrue(Arrays.asList(0.5, 1.0, 2.0, 4.0, 8.0, 16.0, 32.0).contains(refined.param.C));
+    Assert.assertTrue(refined.crossValidationResults.classNormalizedSensitivity()
+        >= halving.crossValidationResults.classNormalizedSensitivity());
+  }
+}
@@ -0,0 +1,98 @@
+package edu.berkeley.compbio.jlibsvm;
+
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.kernel.GaussianRBFKernel;
+import edu.berkeley.compbio.jlibsvm.regression.MutableRegressionProblemImpl;
+import edu.berkeley.compbio.jlibsvm.scaler.NoopScalingModelLearner;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The first examples of letter.scale (or of another resource in the same format with integer labels) for the tests
+ * that train on real data, with the problems and parameters those tests start from.
+ *
+ * @version $Id$
+ */
+public class LetterData {
+// ------------------------------ FIELDS ------------------------------
+
+  /**
+   * The points in the order read, each with its line number as id, and the label of each
+   */
+  public final List<SparseVector> points = new ArrayList<>();
+  public final List<Integer> labels = new ArrayList<>();
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+  private LetterData() {
+  }
+
+// -------------------------- STATIC METHODS --------------------------
+
+  public static LetterData load(int count) throws IOException {
+    return load("/letter.scale", 16, count);
+  }
+
+  /**
+   * @param dimensions the highest feature number in the resource
+   */
+  public static LetterData load(String resource, int dimensions, int count) throws IOException {
+    final LetterData data = new LetterData();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        LetterData.class.getResourceAsStream(resource)))) {
+      String line;
+      while ((line = reader.readLine()) != null && data.points.size() < count) {
+        final String[] tokens = line.trim().split("\\s+");
+        final double[] values = new double[dimensions + 1];
+        for (int i = 1; i < tokens.length; i++) {
+          final String[] kv = tokens[i].split(":");
+          values[Integer.parseInt(kv[0])] = Double.parseDouble(kv[1]);
+        }
+        data.points.add(SparseVector.of((long) data.points.size(), values));
+        data.labels.add(Integer.parseInt(tokens[0]));
+      }
+    }
+    return data;
+  }
+
+  /**
+   * @return an RBF machine with gamma 1, shrinking and no scaling, for the tests to set C and the rest on
+   */
+  public static <L extends Comparable<L>> ImmutableSvmParameterPoint.Builder<L> rbfBuilder() {
+    final ImmutableSvmParameterPoint.Builder<L> builder = new ImmutableSvmParameterPoint.Builder<>();
+    builder.kernel = new GaussianRBFKernel(1.0f);
+    builder.eps = 1e-3;
+    builder.shrinking = true;
+    builder.scalingModelLearner = new NoopScalingModelLearner();
+    return builder;
+  }
+
+// -------------------------- OTHER METHODS --------------------------
+
+  /**
+   * @return the points labeled "even" or "odd" by the parity of their labels
+   */
+  public MutableBinaryClassificationProblemImpl<String> evenOddProblem() {
+    final MutableBinaryClassificationProblemImpl<String> problem =
+        new MutableBinaryClassificationProblemImpl<>(String.class, points.size());
+    for (int i = 0; i < points.size(); i++) {
+      problem.addExample(points.get(i), labels.get(i) % 2 == 0 ? "even" : "odd");
+    }
+    return problem;
+  }
+
+  /**
+   * @return the points with their labels as the targets
+   */
+  public MutableRegressionProblemImpl regressionProblem() {
+    final MutableRegressionProblemImpl problem = new MutableRegressionProblemImpl(points.size());
+    for (int i = 0; i < points.size(); i++) {
+      problem.addExample(points.get(i), (double) labels.get(i));
+    }
+    return problem;
+  }
+}
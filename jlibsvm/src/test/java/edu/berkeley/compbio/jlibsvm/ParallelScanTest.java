@@ -0,0 +1,102 @@
+package edu.berkeley.compbio.jlibsvm;
+
+import edu.berkeley.compbio.jlibsvm.binary.AlphaModel;
+import edu.berkeley.compbio.jlibsvm.binary.C_SVC;
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.binary.Nu_SVC;
+import edu.berkeley.compbio.jlibsvm.oneclass.MutableOneClassProblemImpl;
+import edu.berkeley.compbio.jlibsvm.oneclass.OneClassSVC;
+import edu.berkeley.compbio.jlibsvm.regression.EpsilonSVR;
+import edu.berkeley.compbio.jlibsvm.regression.MutableRegressionProblemImpl;
+import edu.berkeley.compbio.jlibsvm.regression.Nu_SVR;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trains each kind of machine on a subset of letter.scale with the scans of the active set split across a pool, and
+ * checks that the models are exactly those of the serial solver.
+ *
+ * @version $Id$
+ */
+public class ParallelScanTest {
+
+  private static final int EXAMPLES = 1000;
+
+  private LetterData data;
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    data = LetterData.load(EXAMPLES);
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  private <L extends Comparable<L>> ImmutableSvmParameterPoint.Builder<L> builder(boolean parallel) {
+    final ImmutableSvmParameterPoint.Builder<L> builder = LetterData.rbfBuilder();
+    builder.C = 10;
+    builder.nu = 0.2;
+    builder.p = 0.5;
+    builder.cache_size = 0.25;
+    if (parallel) {
+      builder.kernelPool = pool;
+      builder.parallelScanThreshold = 0;
+    }
+    return builder;
+  }
+
+  private void assertSameModels(Function<Boolean, AlphaModel<?>> train) {
+    final AlphaModel<?> serial = train.apply(false);
+    final AlphaModel<?> parallel = train.apply(true);
+
+    Assert.assertEquals(serial.rho, parallel.rho, 0.0);
+    Assert.assertArrayEquals(serial.SVs, parallel.SVs);
+    Assert.assertArrayEquals(serial.alphas, parallel.alphas, 0.0);
+  }
+
+  @Test
+  public void cSvcScansGiveTheSameModels() {
+    final MutableBinaryClassificationProblemImpl<String> problem = data.evenOddProblem();
+    assertSameModels(parallel -> new C_SVC<String>().train(problem, this.<String>builder(parallel).build()));
+  }
+
+  @Test
+  public void nuSvcScansGiveTheSameModels() {
+    final MutableBinaryClassificationProblemImpl<String> problem = data.evenOddProblem();
+    assertSameModels(parallel -> new Nu_SVC<String>().train(problem, this.<String>builder(parallel).build()));
+  }
+
+  @Test
+  public void epsilonSvrScansGiveTheSameModels() {
+    final MutableRegressionProblemImpl problem = data.regressionProblem();
+    assertSameModels(parallel -> new EpsilonSVR<MutableRegressionProblemImpl>()
+        .train(problem, this.<Double>builder(parallel).build()));
+  }
+
+  @Test
+  public void nuSvrScansGiveTheSameModels() {
+    final MutableRegressionProblemImpl problem = data.regressionProblem();
+    assertSameModels(parallel -> new Nu_SVR<MutableRegressionProblemImpl>()
+        .train(problem, this.<Double>builder(parallel).build()));
+  }
+
+  @Test
+  public void oneClassScansGiveTheSameModels() {
+    final MutableOneClassProblemImpl<String> problem = new MutableOneClassProblemImpl<>(data.points.size(), "letter");
+    for (SparseVector point : data.points) {
+      problem.addExample(point, 1.0);
+    }
+    assertSameModels(parallel -> new OneClassSVC<String>().train(problem, this.<Double>builder(parallel).build()));
+  }
+}
@@ -0,0 +1,99 @@
+package edu.berkeley.compbio.jlibsvm;
+
+import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
+import edu.berkeley.compbio.jlibsvm.binary.C_SVC;
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.regression.EpsilonSVR;
+import edu.berkeley.compbio.jlibsvm.regression.MutableRegressionProblemImpl;
+import edu.berkeley.compbio.jlibsvm.regression.RegressionModel;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trains on a subset of letter.scale from the solution of an earlier training, and checks that the start is feasible
+ * and that the solver still ends up at the solution for the new C.
+ *
+ * @version $Id$
+ */
+public class WarmStartTest {
+
+  private static final int EXAMPLES = 1000;
+
+  private LetterData data;
+
+  @Before
+  public void setUp() throws IOException {
+    data = LetterData.load(EXAMPLES);
+  }
+
+  private <L extends Comparable<L>> ImmutableSvmParameterPoint.Builder<L> builder(double C, WarmStart warmStart) {
+    final ImmutableSvmParameterPoint.Builder<L> builder = LetterData.rbfBuilder();
+    builder.C = C;
+    builder.p = 0.5;
+    builder.cache_size = 10;
+    builder.warmStart = warmStart;
+    return builder;
+  }
+
+  @Test
+  public void seedingClipsToTheBoundsAndBalancesTheClasses() {
+    final List<SolutionVector> svs = new ArrayList<>();
+    final Map<Long, Double> coefficients = new HashMap<>();
+    for (int i = 0; i < 10; i++) {
+      svs.add(new SolutionVector(i, data.points.get(i), i % 2 == 0, -1));
+      coefficients.put((long) i, i % 2 == 0 ? 2.0 * i : -0.5);
+    }
+    // a coefficient of the wrong sign is dropped
+    coefficients.put(9L, 1.0);
+
+    WarmStart.of(coefficients).seed(svs, 5, 5);
+
+    double sum = 0;
+    for (SolutionVector sv : svs) {
+      Assert.assertTrue(sv.alpha >= 0 && sv.alpha <= 5);
+      sum += sv.targetValue ? sv.alpha : -sv.alpha;
+    }
+    Assert.assertEquals(0, sum, 1e-12);
+    Assert.assertEquals(0, svs.get(9).alpha, 0);
+    Assert.assertEquals(0, svs.get(0).alpha, 0);
+  }
+
+  @Test
+  public void cSvcWarmStartReachesTheNewSolution() {
+    final MutableBinaryClassificationProblemImpl<String> problem = data.evenOddProblem();
+    final BinaryModel<String> previous = new C_SVC<String>().train(problem, this.<String>builder(10, null).build());
+
+    final BinaryModel<String> cold = new C_SVC<String>().train(problem, this.<String>builder(5, null).build());
+    final BinaryModel<String> warm =
+        new C_SVC<String>().train(problem, this.<String>builder(5, WarmStart.of(previous)).build());
+
+    Assert.assertEquals(cold.obj, warm.obj, Math.abs(cold.obj) * 1e-3);
+    Assert.assertEquals(cold.rho, warm.rho, 1e-2);
+    for (SparseVector point : data.points) {
+      Assert.assertEquals(cold.predictLabel(point), warm.predictLabel(point));
+    }
+  }
+
+  @Test
+  public void epsilonSvrWarmStartReachesTheNewSolution() {
+    final MutableRegressionProblemImpl problem = data.regressionProblem();
+
+    final RegressionModel previous = new EpsilonSVR<MutableRegressionProblemImpl>()
+        .train(problem, this.<Double>builder(10, null).build());
+    final RegressionModel cold = new EpsilonSVR<MutableRegressionProblemImpl>()
+        .train(problem, this.<Double>builder(5, null).build());
+    final RegressionModel warm = new EpsilonSVR<MutableRegressionProblemImpl>()
+        .train(problem, this.<Double>builder(5, WarmStart.of(previous)).build());
+
+    for (SparseVector point : data.points) {
+      Assert.assertEquals(cold.predictValue(point), warm.predictValue(point), 0.05);
+    }
+  }
+}
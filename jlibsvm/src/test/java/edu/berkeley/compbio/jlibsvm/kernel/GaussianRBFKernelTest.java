@@ -41,4 +41,26 @@ public class GaussianRBFKernelTest {
     }
   }
 
+  @Test
+  public void rowEvaluationMatchesPairwiseEvaluation() {
+    KernelFunction[] kernels = new KernelFunction[]{
+        new LinearKernel(), new GaussianRBFKernel(0.5), new PolynomialKernel(3, 0.5, 1.0),
+        new SigmoidKernel(0.1, 0.2)};
+
+    SparseVector x = SparseVector.createRandomSparseVector(100, .5, 1);
+    SparseVector[] ys = new SparseVector[20];
+    for (int i = 0; i < ys.length; i++) {
+      ys[i] = SparseVector.createRandomSparseVector(100, .5, 1);
+    }
+
+    for (KernelFunction kernel : kernels) {
+      double[] row = new double[ys.length];
+      kernel.evaluateRow(x, ys, 5, 15, row);
+
+      for (int i = 0; i < ys.length; i++) {
+        double expected = i >= 5 && i < 15 ? kernel.evaluate(x, ys[i]) : 0.0;
+        Assert.assertEquals(kernel.toString(), expected, row[i], 1e-12);
+      }
+    }
+  }
 }
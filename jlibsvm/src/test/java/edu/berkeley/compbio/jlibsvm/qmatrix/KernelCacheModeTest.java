@@ -0,0 +1,238 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterPoint;
+import edu.berkeley.compbio.jlibsvm.LetterData;
+import edu.berkeley.compbio.jlibsvm.binary.BinaryClassificationSVM;
+import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
+import edu.berkeley.compbio.jlibsvm.binary.C_SVC;
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.binary.Nu_SVC;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Trains the same models on a subset of letter.scale with each cache mode, with a budget far too small for the square
+ * cache to hold the problem, and checks that the models are identical.  With single precision caching the models
+ * differ from the double precision ones, but only slightly, and still don't depend on the mode.
+ *
+ * @version $Id$
+ */
+public class KernelCacheModeTest {
+
+  private static final int EXAMPLES = 2000;
+  private static final double CACHE_MB = 0.25;
+
+  @Rule
+  public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+  private static MutableBinaryClassificationProblemImpl<String> loadLetters() throws IOException {
+    return LetterData.load(EXAMPLES).evenOddProblem();
+  }
+
+  private static ImmutableSvmParameterPoint.Builder<String> builder(KernelCacheMode mode,
+      boolean singlePrecision) {
+    final ImmutableSvmParameterPoint.Builder<String> builder = LetterData.rbfBuilder();
+    builder.C = 10;
+    builder.nu = 0.2;
+    builder.cache_size = CACHE_MB;
+    builder.kernelCacheMode = mode;
+    builder.singlePrecisionKernelCache = singlePrecision;
+    return builder;
+  }
+
+  private static BinaryModel<String> train(BinaryClassificationSVM<String> svm,
+      MutableBinaryClassificationProblemImpl<String> problem, KernelCacheMode mode,
+      boolean singlePrecision) {
+    return train(svm, problem, builder(mode, singlePrecision));
+  }
+
+  private static BinaryModel<String> train(BinaryClassificationSVM<String> svm,
+      MutableBinaryClassificationProblemImpl<String> problem, ImmutableSvmParameterPoint.Builder<String> builder) {
+    final long start = System.currentTimeMillis();
+    final BinaryModel<String> model = svm.train(problem, builder.build());
+    Logger.getGlobal().info(svm.getSvmType() + " with " + builder.kernelCacheMode
+        + (builder.singlePrecisionKernelCache ? " float" : "") + " cache: "
+        + (System.currentTimeMillis() - start) + " ms");
+    return model;
+  }
+
+  private static void assertSameModels(BinaryClassificationSVM<String> svm) throws IOException {
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+
+    final BinaryModel<String> square = train(svm, problem, KernelCacheMode.SQUARE, false);
+    for (KernelCacheMode mode : KernelCacheMode.values()) {
+      if (mode != KernelCacheMode.SQUARE) {
+        assertSameModels(problem, square, train(svm, problem, mode, false));
+      }
+    }
+  }
+
+  private static void assertSameModels(MutableBinaryClassificationProblemImpl<String> problem,
+      BinaryModel<String> square, BinaryModel<String> other) {
+    Assert.assertEquals(square.numSVs, other.numSVs);
+    Assert.assertEquals(square.rho, other.rho, 0.0);
+    Assert.assertEquals(square.obj, other.obj, 0.0);
+    for (SparseVector x : problem.getExamples().keySet()) {
+      Assert.assertEquals(square.predictValue(x), other.predictValue(x), 0.0);
+    }
+  }
+
+  @Test
+  public void cSvcModelsDoNotDependOnTheCacheMode() throws IOException {
+    assertSameModels(new C_SVC<>());
+  }
+
+  @Test
+  public void nuSvcModelsDoNotDependOnTheCacheMode() throws IOException {
+    assertSameModels(new Nu_SVC<>());
+  }
+
+  @Test
+  public void singlePrecisionModelsAreCloseToDoublePrecisionModels() throws IOException {
+    final C_SVC<String> svm = new C_SVC<>();
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+
+    final BinaryModel<String> exact = train(svm, problem, KernelCacheMode.SQUARE, false);
+    final BinaryModel<String> square = train(svm, problem, KernelCacheMode.SQUARE, true);
+    assertSameModels(problem, square, train(svm, problem, KernelCacheMode.LRU, true));
+    assertSameModels(problem, square, train(svm, problem, KernelCacheMode.OFF_HEAP, true));
+
+    // float rounding of Q perturbs the solution by about its relative precision, well within the stopping tolerance
+    Assert.assertEquals(exact.rho, square.rho, 1e-3);
+    Assert.assertEquals(exact.numSVs, square.numSVs, exact.numSVs / 100.0);
+
+    int disagreements = 0;
+    for (SparseVector x : problem.getExamples().keySet()) {
+      final double exactValue = exact.predictValue(x);
+      final double value = square.predictValue(x);
+      Assert.assertEquals(exactValue, value, 1e-2);
+      if ((exactValue > 0) != (value > 0)) {
+        disagreements++;
+      }
+    }
+    Assert.assertTrue(disagreements + " disagreements", disagreements <= 2);
+  }
+
+  @Test
+  public void tieredCacheCleansUpItsSpillFile() throws IOException {
+    final C_SVC<String> svm = new C_SVC<>();
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+
+    final ImmutableSvmParameterPoint.Builder<String> tiered = builder(KernelCacheMode.TIERED, false);
+    tiered.kernelSpillDirectory = spillDirectory.getRoot();
+
+    assertSameModels(problem, train(svm, problem, KernelCacheMode.SQUARE, false), train(svm, problem, tiered));
+    Assert.assertEquals(0, spillDirectory.getRoot().list().length);
+  }
+
+  @Test
+  public void parallelMissesGiveTheSameModels() throws IOException {
+    final C_SVC<String> svm = new C_SVC<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      // mushrooms is sparse enough for the column index, which the pieces of a batch share
+      for (MutableBinaryClassificationProblemImpl<String> problem : Arrays.asList(loadLetters(),
+          LetterData.load("/mushrooms", 112, EXAMPLES).evenOddProblem())) {
+        for (KernelCacheMode mode : KernelCacheMode.values()) {
+          final ImmutableSvmParameterPoint.Builder<String> serial = builder(mode, false);
+          serial.parallelKernelThreshold = Integer.MAX_VALUE;
+
+          final ImmutableSvmParameterPoint.Builder<String> parallel = builder(mode, false);
+          parallel.kernelPool = pool;
+          parallel.parallelKernelThreshold = 0;
+
+          assertSameModels(problem, train(svm, problem, serial), train(svm, problem, parallel));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parallelGradientGivesTheSameModels() throws IOException {
+    // nu-SVC starts with many alphas above zero, so the gradient initialization has real work to spread
+    final Nu_SVC<String> svm = new Nu_SVC<>();
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (boolean singlePrecision : new boolean[]{false, true}) {
+        for (KernelCacheMode mode : Arrays.asList(KernelCacheMode.SQUARE, KernelCacheMode.LRU)) {
+          final ImmutableSvmParameterPoint.Builder<String> serial = builder(mode, singlePrecision);
+          serial.parallelKernelThreshold = Integer.MAX_VALUE;
+
+          final ImmutableSvmParameterPoint.Builder<String> parallel = builder(mode, singlePrecision);
+          parallel.kernelPool = pool;
+          parallel.parallelKernelThreshold = 0;
+
+          assertSameModels(problem, train(svm, problem, serial), train(svm, problem, parallel));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void prefetchingGivesTheSameModels() throws IOException {
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (BinaryClassificationSVM<String> svm : Arrays.<BinaryClassificationSVM<String>>asList(new C_SVC<>(),
+          new Nu_SVC<>())) {
+        for (KernelCacheMode mode : KernelCacheMode.values()) {
+          final ImmutableSvmParameterPoint.Builder<String> prefetching = builder(mode, false);
+          prefetching.kernelPool = pool;
+          prefetching.kernelPrefetchRows = 4;
+
+          assertSameModels(problem, train(svm, problem, mode, false), train(svm, problem, prefetching));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void modelsReportTheCacheStatistics() throws IOException {
+    final C_SVC<String> svm = new C_SVC<>();
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+
+    for (KernelCacheMode mode : KernelCacheMode.values()) {
+      final KernelCacheStatistics statistics = train(svm, problem, mode, false).kernelCacheStatistics;
+
+      Assert.assertEquals(mode, statistics.mode);
+      Assert.assertTrue(statistics.hits > 0);
+      Assert.assertTrue(statistics.misses > 0);
+      Assert.assertTrue(statistics.getHitRate() > 0 && statistics.getHitRate() < 1);
+
+      // the budget is far too small for the problem, so the row caches must have evicted
+      final boolean square = mode == KernelCacheMode.SQUARE || mode == KernelCacheMode.OFF_HEAP
+          || mode == KernelCacheMode.INDIRECT;
+      Assert.assertEquals(square, statistics.policy == null);
+      Assert.assertEquals(square, statistics.evictions == 0);
+    }
+  }
+
+  @Test
+  public void customEvictionPoliciesGiveTheSameModels() throws IOException {
+    final C_SVC<String> svm = new C_SVC<>();
+    final MutableBinaryClassificationProblemImpl<String> problem = loadLetters();
+
+    // the most recently used row, about the worst choice there is
+    final ImmutableSvmParameterPoint.Builder<String> custom = builder(KernelCacheMode.LRU, false);
+    custom.kernelCachePolicy = (rows, uses, count) -> count - 1;
+
+    final BinaryModel<String> model = train(svm, problem, custom);
+    assertSameModels(problem, train(svm, problem, KernelCacheMode.SQUARE, false), model);
+    Assert.assertSame(custom.kernelCachePolicy, model.kernelCacheStatistics.policy);
+    Assert.assertTrue(model.kernelCacheStatistics.evictions > 0);
+  }
+}
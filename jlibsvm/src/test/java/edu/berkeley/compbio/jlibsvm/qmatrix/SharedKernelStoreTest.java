@@ -0,0 +1,90 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import edu.berkeley.compbio.jlibsvm.ImmutableSvmParameterPoint;
+import edu.berkeley.compbio.jlibsvm.LetterData;
+import edu.berkeley.compbio.jlibsvm.binary.BinaryModel;
+import edu.berkeley.compbio.jlibsvm.binary.C_SVC;
+import edu.berkeley.compbio.jlibsvm.binary.MutableBinaryClassificationProblemImpl;
+import edu.berkeley.compbio.jlibsvm.kernel.GaussianRBFKernel;
+import edu.berkeley.compbio.jlibsvm.kernel.KernelFunction;
+import edu.berkeley.compbio.jlibsvm.util.SparseVector;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trains on a subset of letter.scale at several C values through one SharedKernelStore, and checks that the models are
+ * those trained without it while each kernel row is computed only once, and that RBF kernels of different gammas derive
+ * their rows from the same dot products.
+ *
+ * @version $Id$
+ */
+public class SharedKernelStoreTest {
+
+  private static final int EXAMPLES = 1000;
+
+  private MutableBinaryClassificationProblemImpl<String> problem;
+  private final KernelFunction kernel = new GaussianRBFKernel(1.0f);
+
+  @Before
+  public void setUp() throws IOException {
+    problem = LetterData.load(EXAMPLES).evenOddProblem();
+  }
+
+  private BinaryModel<String> train(double C, SharedKernelStore store) {
+    final ImmutableSvmParameterPoint.Builder<String> builder = LetterData.rbfBuilder();
+    builder.C = C;
+    builder.kernel = kernel;
+    builder.cache_size = 0.25;
+    builder.sharedKernelStore = store;
+    return new C_SVC<String>().train(problem, builder.build());
+  }
+
+  private void assertSameModels(BinaryModel<String> expected, BinaryModel<String> actual) {
+    Assert.assertEquals(expected.rho, actual.rho, 1e-6);
+    for (SparseVector point : problem.getExamples().keySet()) {
+      Assert.assertEquals(expected.predictValue(point), actual.predictValue(point), 1e-6);
+    }
+  }
+
+  @Test
+  public void gridOfCComputesEachRowOnce() {
+    final SharedKernelStore store = new SharedKernelStore(problem.getExamples().keySet(), Long.MAX_VALUE);
+
+    for (double C : new double[]{1, 4, 16}) {
+      assertSameModels(train(C, null), train(C, store));
+    }
+
+    Assert.assertTrue(store.getRowHits() > 0);
+    Assert.assertTrue(store.getEvaluations() <= (long) EXAMPLES * EXAMPLES);
+  }
+
+  @Test
+  public void gammasShareTheDotProducts() {
+    final SharedKernelStore store = new SharedKernelStore(problem.getExamples().keySet(), Long.MAX_VALUE);
+    final KernelFunction narrow = new GaussianRBFKernel(4.0f);
+    final SharedKernelStore.Rows kernelRows = store.rowsFor(kernel);
+    final SharedKernelStore.Rows narrowRows = store.rowsFor(narrow);
+
+    final SparseVector point = problem.getExamples().keySet().iterator().next();
+    final int index = store.indexOf(point);
+    final double[] kernelRow = kernelRows.get(index);
+    final double[] narrowRow = narrowRows.get(index);
+
+    // one row of dot products served both kernels
+    Assert.assertEquals(EXAMPLES, store.getEvaluations());
+    for (SparseVector other : problem.getExamples().keySet()) {
+      Assert.assertEquals(kernel.evaluate(point, other), kernelRow[store.indexOf(other)], 1e-12);
+      Assert.assertEquals(narrow.evaluate(point, other), narrowRow[store.indexOf(other)], 1e-12);
+    }
+  }
+
+  @Test
+  public void exhaustedBudgetFallsBackToComputing() {
+    final SharedKernelStore store = new SharedKernelStore(problem.getExamples().keySet(), 0);
+
+    assertSameModels(train(4, null), train(4, store));
+    Assert.assertEquals(0, store.getEvaluations());
+  }
+}
@@ -0,0 +1,101 @@
+package edu.berkeley.compbio.jlibsvm.qmatrix;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @version $Id$
+ */
+public class SquareCacheStorageTest {
+
+  private static void assertSameContents(SquareCacheStorage expected, SquareCacheStorage actual) {
+    Assert.assertEquals(expected.allocatedRows, actual.allocatedRows);
+    for (int r = 0; r < expected.size; r++) {
+      for (int c = 0; c < expected.size; c++) {
+        Assert.assertEquals(expected.get(r, c), actual.get(r, c), 0.0);
+      }
+    }
+  }
+
+  private static SquareCacheStorage randomOperations(boolean singlePrecision, KernelCacheMode mode) {
+    final int size = 40;
+    final SquareCacheStorage heap = SquareCacheStorage.create(size, size * size * 8L, singlePrecision,
+        KernelCacheMode.SQUARE);
+    final SquareCacheStorage other = SquareCacheStorage.create(size, size * size * 8L, singlePrecision, mode);
+
+    final Random random = new Random(11);
+    for (int step = 0; step < 5000; step++) {
+      final int a = random.nextInt(size);
+      final int b = random.nextInt(size);
+      switch (random.nextInt(5)) {
+        case 0:
+          heap.allocate(a);
+          other.allocate(a);
+          break;
+        case 1:
+          // stored values are always representable in the storage's precision
+          final double value = (float) random.nextDouble();
+          heap.set(a, b, value);
+          other.set(a, b, value);
+          break;
+        case 2:
+          if (a != b) {
+            heap.swap(a, b);
+            other.swap(a, b);
+          }
+          break;
+        case 3:
+          if (random.nextInt(10) == 0) {
+            heap.forget(a);
+            other.forget(a);
+          }
+          break;
+        default:
+          heap.allocate(a);
+          other.allocate(a);
+          final int[] heapMissing = new int[size];
+          final int[] otherMissing = new int[size];
+          Assert.assertEquals(heap.findMissing(a, b, heapMissing), other.findMissing(a, b, otherMissing));
+          Assert.assertArrayEquals(heapMissing, otherMissing);
+
+          final double[] heapRow = new double[size];
+          final double[] otherRow = new double[size];
+          heap.copy(a, heapRow, size);
+          other.copy(a, otherRow, size);
+          Assert.assertArrayEquals(heapRow, otherRow, 0.0);
+      }
+    }
+    assertSameContents(heap, other);
+    return other;
+  }
+
+  private static void offHeapOperations(boolean singlePrecision) {
+    final SquareCacheStorage offHeap = randomOperations(singlePrecision, KernelCacheMode.OFF_HEAP);
+    offHeap.close();
+    Assert.assertEquals(0, offHeap.allocatedRows);
+    Assert.assertEquals(KernelCache.NOTCACHED, offHeap.get(0, 0), 0.0);
+  }
+
+  @Test
+  public void offHeapStorageMatchesHeapStorage() {
+    offHeapOperations(false);
+  }
+
+  @Test
+  public void offHeapFloatStorageMatchesHeapFloatStorage() {
+    offHeapOperations(true);
+  }
+
+  @Test
+  public void indirectStorageMatchesHeapStorage() {
+    final IndirectSquareCacheStorage indirect = (IndirectSquareCacheStorage) randomOperations(false,
+        KernelCacheMode.INDIRECT);
+    Assert.assertTrue(indirect.compactions > 0);
+  }
+
+  @Test
+  public void indirectFloatStorageMatchesHeapFloatStorage() {
+    randomOperations(true, KernelCacheMode.INDIRECT);
+  }
+}
@@ -0,0 +1,82 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DenseVectorTest {
+
+  private static double[] randomDense(Random random, int maxDimensions, double density) {
+    double[] result = new double[maxDimensions];
+    for (int i = 0; i < maxDimensions; i++) {
+      if (random.nextDouble() < density) {
+        result[i] = random.nextDouble() * 2 - 1;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void allRepresentationCombinationsAgree() {
+    Random random = new Random(3);
+    for (int trial = 0; trial < 100; trial++) {
+      double[] a = randomDense(random, 50, random.nextDouble());
+      double[] b = randomDense(random, 50, random.nextDouble());
+
+      SparseVector sparseA = SparseVector.of(a);
+      SparseVector sparseB = SparseVector.of(b);
+      SparseVector denseA = DenseVector.of(a);
+      SparseVector denseB = DenseVector.of(b);
+
+      double dot = SparseVector.dot(sparseA, sparseB);
+      double distance = SparseVector.squareNorm(sparseA, sparseB);
+
+      Assert.assertEquals(dot, SparseVector.dot(denseA, denseB), 0.0);
+      Assert.assertEquals(dot, SparseVector.dot(denseA, sparseB), 0.0);
+      Assert.assertEquals(dot, SparseVector.dot(sparseA, denseB), 0.0);
+
+      Assert.assertEquals(distance, SparseVector.squareNorm(denseA, denseB), 0.0);
+      Assert.assertEquals(distance, SparseVector.squareNorm(denseA, sparseB), 0.0);
+      Assert.assertEquals(distance, SparseVector.squareNorm(sparseA, denseB), 0.0);
+
+      Assert.assertEquals(sparseA.squaredNorm(), denseA.squaredNorm(), 0.0);
+    }
+  }
+
+  @Test
+  public void equalityIgnoresRepresentation() {
+    double[] values = new double[]{0.0, 1.5, 0.0, -2.0, 0.0};
+
+    SparseVector sparse = SparseVector.of(7L, values);
+    SparseVector dense = DenseVector.of(7L, values);
+    Assert.assertEquals(sparse, dense);
+    Assert.assertEquals(dense, sparse);
+    Assert.assertEquals(sparse.hashCode(), dense.hashCode());
+
+    // without ids the contents determine the hash
+    SparseVector anonymousSparse = SparseVector.of(values);
+    SparseVector anonymousDense = DenseVector.of(values);
+    Assert.assertEquals(anonymousSparse, anonymousDense);
+    Assert.assertEquals(anonymousSparse.hashCode(), anonymousDense.hashCode());
+
+    Map<SparseVector, String> map = new HashMap<>();
+    map.put(anonymousDense, "x");
+    Assert.assertEquals("x", map.get(anonymousSparse));
+
+    Assert.assertNotEquals(anonymousSparse, DenseVector.of(new double[]{0.0, 1.5, 0.0, -2.5, 0.0}));
+  }
+
+  @Test
+  public void preferredStorageFollowsDensity() {
+    Assert.assertTrue(SparseVector.of(new double[]{1, 2, 0, 4}).withPreferredStorage() instanceof DenseVector);
+    Assert.assertFalse(SparseVector.of(new double[]{1, 0, 0, 0}).withPreferredStorage() instanceof DenseVector);
+
+    SparseVector dense = DenseVector.of(new double[]{1, 2, 0, 4});
+    Assert.assertTrue(dense.copy() instanceof DenseVector);
+    Assert.assertEquals(dense, dense.copy());
+    Assert.assertEquals(4.0, dense.get(3), 0.0);
+    Assert.assertEquals(0.0, dense.get(2), 0.0);
+  }
+}
@@ -0,0 +1,70 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndicatorVectorTest {
+
+  private static double[] randomBinary(Random random, int maxDimensions, double density) {
+    double[] result = new double[maxDimensions];
+    for (int i = 0; i < maxDimensions; i++) {
+      if (random.nextDouble() < density) {
+        result[i] = 1.0;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void indicatorArithmeticMatchesSparseArithmetic() {
+    Random random = new Random(4);
+    for (int trial = 0; trial < 200; trial++) {
+      // mix of similar and very different densities, so that the galloping path is exercised too
+      double[] a = randomBinary(random, 500, random.nextDouble() * 0.5);
+      double[] b = randomBinary(random, 500, random.nextDouble() * 0.02);
+
+      SparseVector sparseA = SparseVector.of(a);
+      SparseVector sparseB = SparseVector.of(b);
+      SparseVector indicatorA = sparseA.withPreferredStorage();
+      SparseVector indicatorB = sparseB.withPreferredStorage();
+
+      if (sparseA.getIndexes().length > 0) {
+        Assert.assertTrue(indicatorA instanceof IndicatorVector);
+      }
+
+      Assert.assertEquals(SparseVector.dot(sparseA, sparseB), SparseVector.dot(indicatorA, indicatorB), 0.0);
+      Assert.assertEquals(SparseVector.dot(sparseA, sparseB), SparseVector.dot(indicatorB, indicatorA), 0.0);
+      Assert.assertEquals(SparseVector.squareNorm(sparseA, sparseB),
+          SparseVector.squareNorm(indicatorA, indicatorB), 0.0);
+      Assert.assertEquals(sparseA.squaredNorm(), indicatorA.squaredNorm(), 0.0);
+
+      // mixed with the other representations
+      SparseVector denseB = DenseVector.of(b);
+      Assert.assertEquals(SparseVector.dot(sparseA, sparseB), SparseVector.dot(indicatorA, denseB), 0.0);
+      Assert.assertEquals(SparseVector.dot(sparseA, sparseB), SparseVector.dot(denseB, indicatorA), 0.0);
+      Assert.assertEquals(SparseVector.dot(sparseA, sparseB), SparseVector.dot(indicatorA, sparseB), 0.0);
+    }
+  }
+
+  @Test
+  public void copiesAreOrdinaryAndEqual() {
+    SparseVector indicator = IndicatorVector.of(5L, 10, new int[]{1, 4, 7});
+    SparseVector copy = indicator.copy();
+
+    Assert.assertFalse(copy instanceof IndicatorVector);
+    Assert.assertEquals(indicator, copy);
+    Assert.assertEquals(indicator.hashCode(), copy.hashCode());
+    Assert.assertEquals(1.0, indicator.get(4), 0.0);
+    Assert.assertEquals(0.0, indicator.get(5), 0.0);
+
+    // scaling the copy must not touch the shared values of the indicator
+    copy.getValues()[0] = 3.0;
+    Assert.assertEquals(1.0, indicator.getValues()[0], 0.0);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void normalizingInPlaceIsRefused() {
+    IndicatorVector.of(null, 10, new int[]{1, 4, 7}).normalizeL2();
+  }
+}
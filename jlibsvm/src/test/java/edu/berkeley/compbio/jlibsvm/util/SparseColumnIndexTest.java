@@ -0,0 +1,32 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseColumnIndexTest {
+
+  @Test
+  public void dotAllMatchesPairwiseDots() {
+    Random random = new Random(5);
+    SparseVector[] rows = new SparseVector[300];
+    for (int r = 0; r < rows.length; r++) {
+      double[] dense = new double[1000];
+      for (int i = 0; i < 20; i++) {
+        dense[random.nextInt(dense.length)] = random.nextDouble() * 2 - 1;
+      }
+      rows[r] = SparseVector.of(dense);
+    }
+
+    SparseColumnIndex index = new SparseColumnIndex(rows);
+    double[] out = new double[rows.length];
+
+    for (SparseVector x : rows) {
+      index.dotAll(x, out);
+      for (int r = 0; r < rows.length; r++) {
+        // same summation order, so exactly equal
+        Assert.assertEquals(SparseVector.dot(x, rows[r]), out[r], 0.0);
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package edu.berkeley.compbio.jlibsvm.util;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseMathTest {
+
+  private static double denseDot(SparseVector x, SparseVector y) {
+    double[] dx = x.toDenseVector();
+    double[] dy = y.toDenseVector();
+    double result = 0;
+    for (int i = 0; i < dx.length; i++) {
+      result += dx[i] * dy[i];
+    }
+    return result;
+  }
+
+  private static double denseSquaredDistance(SparseVector x, SparseVector y) {
+    double[] dx = x.toDenseVector();
+    double[] dy = y.toDenseVector();
+    double result = 0;
+    for (int i = 0; i < dx.length; i++) {
+      result += (dx[i] - dy[i]) * (dx[i] - dy[i]);
+    }
+    return result;
+  }
+
+  private static SparseVector randomVector(Random random, int maxDimensions, int nonZeros) {
+    double[] dense = new double[maxDimensions];
+    for (int i = 0; i < nonZeros; i++) {
+      dense[random.nextInt(maxDimensions)] = random.nextDouble() * 2 - 1;
+    }
+    return SparseVector.of(dense);
+  }
+
+  @Test
+  public void mergeJoinMatchesDenseComputation() {
+    Random random = new Random(1);
+    for (int trial = 0; trial < 200; trial++) {
+      SparseVector x = randomVector(random, 500, random.nextInt(200));
+      SparseVector y = randomVector(random, 500, random.nextInt(200));
+
+      Assert.assertEquals(denseDot(x, y), SparseVector.dot(x, y), 1e-12);
+      Assert.assertEquals(denseSquaredDistance(x, y), SparseVector.squareNorm(x, y), 1e-12);
+    }
+  }
+
+  @Test
+  public void gallopingMatchesDenseComputation() {
+    Random random = new Random(2);
+    for (int trial = 0; trial < 200; trial++) {
+      // one side much sparser than the other, so the galloping path is taken in both argument orders
+      SparseVector x = randomVector(random, 5000, 1 + random.nextInt(10));
+      SparseVector y = randomVector(random, 5000, 2000);
+
+      Assert.assertEquals(denseDot(x, y), SparseVector.dot(x, y), 1e-12);
+      Assert.assertEquals(denseDot(x, y), SparseVector.dot(y, x), 1e-12);
+    }
+  }
+
+  @Test
+  public void testGallop() {
+    int[] indexes = new int[]{1, 3, 5, 7, 9, 11, 13, 15, 17};
+
+    Assert.assertEquals(0, SparseMath.gallop(indexes, 0, indexes.length, 0));
+    Assert.assertEquals(0, SparseMath.gallop(indexes, 0, indexes.length, 1));
+    Assert.assertEquals(3, SparseMath.gallop(indexes, 0, indexes.length, 6));
+    Assert.assertEquals(3, SparseMath.gallop(indexes, 2, indexes.length, 7));
+    Assert.assertEquals(8, SparseMath.gallop(indexes, 0, indexes.length, 17));
+    Assert.assertEquals(9, SparseMath.gallop(indexes, 0, indexes.length, 18));
+    Assert.assertEquals(5, SparseMath.gallop(indexes, 5, indexes.length, 2));
+  }
+
+  @Test
+  public void emptyAndDisjointRuns() {
+    SparseVector empty = new SparseVector(10, 0);
+    SparseVector low = new SparseVector(10, new int[]{0, 1}, new double[]{1.0, 2.0});
+    SparseVector high = new SparseVector(10, new int[]{8, 9}, new double[]{3.0, 4.0});
+
+    Assert.assertEquals(0.0, SparseVector.dot(empty, low), 0.0);
+    Assert.assertEquals(0.0, SparseVector.dot(low, high), 0.0);
+    Assert.assertEquals(30.0, SparseVector.squareNorm(low, high), 0.0);
+    Assert.assertEquals(5.0, SparseVector.squareNorm(empty, low), 0.0);
+    Assert.assertEquals(4, SparseVector.difference(low, high).getIndexes().length);
+  }
+}
@@ -134,4 +134,19 @@ public class SparseVectorTest {
     Assert.assertEquals(-0.3, dv.getValues()[1], 0.01);
     Assert.assertEquals(10.0, dv.getValues()[2], 0.01);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSquaredNormFollowsNormalization() {
+    final SparseVector vector = new SparseVector(
+        5,
+        new int[]{1, 3},
+        new double[]{3.0, 4.0}
+    );
+
+    Assert.assertEquals(25.0, vector.squaredNorm(), 1e-12);
+
+    vector.normalizeL2();
+
+    Assert.assertEquals(1.0, vector.squaredNorm(), 1e-12);
+  }
+}